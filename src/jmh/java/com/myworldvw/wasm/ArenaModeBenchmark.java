@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, warmups = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+public class ArenaModeBenchmark {
+
+    @Benchmark
+    public long growPageByPage(ArenaModeState state){
+        // Every grow copies into a new segment and closes the old arena, then close frees the last one
+        try(var memory = new Memory(new Limits(1, ArenaModeState.PAGES))){
+            memory.setArenaMode(state.arenaMode);
+            long sum = 0;
+            for(int i = 1; i < ArenaModeState.PAGES; i++){
+                memory.grow(1);
+                memory.writeI64((long) i * Memory.PAGE_SIZE, i);
+                sum += memory.readI64((long) (i - 1) * Memory.PAGE_SIZE);
+            }
+            return sum;
+        }
+    }
+}
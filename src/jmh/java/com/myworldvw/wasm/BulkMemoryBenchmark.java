@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 1, warmups = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+public class BulkMemoryBenchmark {
+
+    @Benchmark
+    public void copy(BulkMemoryState state){
+        state.memory.copy(Memory.PAGE_SIZE, 0, state.length);
+    }
+
+    @Benchmark
+    public void copyByteLoop(BulkMemoryState state){
+        var memory = state.memory;
+        for(int i = 0; i < state.length; i++){
+            memory.writeI8(Memory.PAGE_SIZE + i, memory.readI8(i));
+        }
+    }
+
+    @Benchmark
+    public void copyOverlapping(BulkMemoryState state){
+        // Destination above the source, so a forward byte loop would clobber its own input
+        state.memory.copy(1, 0, state.length);
+    }
+
+    @Benchmark
+    public void copyOverlappingByteLoop(BulkMemoryState state){
+        var memory = state.memory;
+        for(int i = state.length - 1; i >= 0; i--){
+            memory.writeI8(1 + i, memory.readI8(i));
+        }
+    }
+
+    @Benchmark
+    public void fill(BulkMemoryState state){
+        state.memory.fill(2 * Memory.PAGE_SIZE, 0x5A, state.length);
+    }
+
+    @Benchmark
+    public void fillByteLoop(BulkMemoryState state){
+        var memory = state.memory;
+        for(int i = 0; i < state.length; i++){
+            memory.writeI8(2 * Memory.PAGE_SIZE + i, (byte) 0x5A);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+public class BulkMemoryState {
+
+    public static final int PAGES = 4;
+
+    @Param({"64", "4096", "65536"})
+    public int length;
+
+    public Memory memory;
+
+    @Setup(Level.Trial)
+    public void init(){
+        memory = new Memory(new Limits(PAGES, PAGES));
+        memory.writeI8(PAGES * Memory.PAGE_SIZE - 1, (byte) 0);
+        for(int i = 0; i < length; i++){
+            memory.writeI8(i, (byte) i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close(){
+        memory.close();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, warmups = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+public class GrowthBenchmark {
+
+    @Benchmark
+    public void walkHeapUpward(GrowthState state, GrowthState.Counters counters){
+        // Touch a fresh on-demand memory from the bottom up, as an allocator bumping its heap would
+        try(var memory = new Memory(new Limits(0, GrowthState.PAGES))){
+            memory.setGrowthPolicy(state.growthPolicy);
+            for(long addr = 0; addr < (long) GrowthState.PAGES * Memory.PAGE_SIZE; addr += GrowthState.STRIDE){
+                memory.writeI64(addr, addr);
+            }
+            counters.reallocations += memory.getReallocationCount();
+            counters.bytesCopied += memory.getBytesCopied();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+public class GrowthState {
+
+    public static final int PAGES = 64;
+    public static final int STRIDE = 64;
+
+    @Param({"padded", "page", "geometric"})
+    public String policy;
+
+    public GrowthPolicy growthPolicy;
+
+    @Setup(Level.Trial)
+    public void init(){
+        growthPolicy = switch (policy){
+            case "page" -> GrowthPolicy.pageGranular();
+            case "geometric" -> GrowthPolicy.geometric(2.0);
+            default -> null;
+        };
+    }
+
+    /**
+     * Reports reallocations and bytes copied per operation alongside the timing results.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long reallocations;
+        public long bytesCopied;
+
+        @Setup(Level.Iteration)
+        public void reset(){
+            reallocations = 0;
+            bytesCopied = 0;
+        }
+    }
+}
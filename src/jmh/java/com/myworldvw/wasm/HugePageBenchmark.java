@@ -0,0 +1,49 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 1, warmups = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED", "-Xmx512m"})
+@OperationsPerInvocation(HugePageState.ACCESSES)
+public class HugePageBenchmark {
+
+    @Benchmark
+    public void randomReadI32(HugePageState state, Blackhole blackhole){
+        var memory = state.memory;
+        var addresses = state.randomAddresses;
+        for(int i = 0; i < HugePageState.ACCESSES; i++){
+            blackhole.consume(memory.readI32(addresses[i]));
+        }
+    }
+
+    @Benchmark
+    public int pointerChase(HugePageState state){
+        // Each address depends on the previous load, so TLB misses can't be overlapped
+        var memory = state.memory;
+        var addresses = state.randomAddresses;
+        var next = 0;
+        for(int i = 0; i < HugePageState.ACCESSES; i++){
+            next = memory.readI32(addresses[next]);
+        }
+        return next;
+    }
+}
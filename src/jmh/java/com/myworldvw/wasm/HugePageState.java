@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import com.myworldvw.wasm.util.NativeMemory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+@State(Scope.Benchmark)
+public class HugePageState {
+
+    public static final int PAGES = 16384; // 1 GiB
+    public static final int ACCESSES = 4096;
+
+    @Param({"false", "true"})
+    public boolean hugePages;
+
+    public Memory memory;
+    public long[] randomAddresses;
+
+    @Setup(Level.Trial)
+    public void init(){
+        memory = new Memory(new Limits(PAGES, PAGES));
+        if(hugePages){
+            memory.setHugePageThreshold(NativeMemory.HUGE_PAGE_SIZE);
+        }
+        // Allocate (and fault in) the whole memory up front
+        memory.writeI32((long) PAGES * Memory.PAGE_SIZE - 4, 0);
+
+        var random = new Random(42);
+        randomAddresses = new long[ACCESSES];
+        for(int i = 0; i < ACCESSES; i++){
+            randomAddresses[i] = random.nextLong((long) PAGES * Memory.PAGE_SIZE / 4) * 4;
+        }
+        // Chain the addresses together, so that each holds the index of the next one to visit
+        for(int i = 0; i < ACCESSES; i++){
+            memory.writeI32(randomAddresses[i], (i + 1) % ACCESSES);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close(){
+        memory.close();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, warmups = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+public class ImportCallBenchmark {
+
+    @Benchmark
+    public int callHostFunction(ImportCallState state) throws Throwable {
+        // Each iteration of the wasm loop calls the host function, which should inline into it
+        return (int) state.run.invokeExact(ImportCallState.CALLS);
+    }
+
+    @Benchmark
+    public int callJava(){
+        int value = 0;
+        for(int i = ImportCallState.CALLS; i != 0; i--){
+            value = ImportCallState.next(value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+@State(Scope.Thread)
+public class ImportCallState {
+
+    public static final int CALLS = 100000;
+
+    public MethodHandle run;
+
+    @Setup(Level.Trial)
+    public void init() throws Exception {
+        var next = MethodHandles.lookup().findStatic(ImportCallState.class, "next",
+                MethodType.methodType(int.class, int.class));
+
+        var ctx = WasmContext.createFromResources("/wasm/importCall.wasm");
+        ctx.instantiate("importCall", new Imports().function("env", "next", next));
+        run = ctx.getExportedFunction("importCall", "run").get();
+    }
+
+    public static int next(int value){
+        return value * 31 + 7;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+
+@State(Scope.Thread)
+public class IndirectCallState {
+
+    public static final int CALLS = 100000;
+
+    // How many different functions the call_indirect site in the loop cycles through
+    @Param({"1", "2", "4", "5"})
+    public int targets;
+
+    public MethodHandle run;
+
+    @Setup(Level.Trial)
+    public void init() throws Exception {
+        var ctx = WasmContext.createFromResources("/wasm/indirectCall.wasm");
+        ctx.instantiate("indirectCall");
+        run = ctx.getExportedFunction("indirectCall", "run").get();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 1, warmups = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+@OperationsPerInvocation(MemoryState.ACCESSES)
+public class MemoryBenchmark {
+
+    @Benchmark
+    public void sequentialReadI32(MemoryState state, Blackhole blackhole){
+        var memory = state.memory;
+        for(int i = 0; i < MemoryState.ACCESSES; i++){
+            blackhole.consume(memory.readI32(i * 4));
+        }
+    }
+
+    @Benchmark
+    public void sequentialReadI32Legacy(MemoryState state, Blackhole blackhole){
+        var memory = state.legacy;
+        for(int i = 0; i < MemoryState.ACCESSES; i++){
+            blackhole.consume(memory.readI32(i * 4));
+        }
+    }
+
+    @Benchmark
+    public void sequentialWriteI32(MemoryState state){
+        var memory = state.memory;
+        for(int i = 0; i < MemoryState.ACCESSES; i++){
+            memory.writeI32(i * 4, i);
+        }
+    }
+
+    @Benchmark
+    public void sequentialWriteI32Legacy(MemoryState state){
+        var memory = state.legacy;
+        for(int i = 0; i < MemoryState.ACCESSES; i++){
+            memory.writeI32(i * 4, i);
+        }
+    }
+
+    @Benchmark
+    public void randomReadI32(MemoryState state, Blackhole blackhole){
+        var memory = state.memory;
+        var addresses = state.randomAddresses;
+        for(int i = 0; i < MemoryState.ACCESSES; i++){
+            blackhole.consume(memory.readI32(addresses[i]));
+        }
+    }
+
+    @Benchmark
+    public void randomReadI32Legacy(MemoryState state, Blackhole blackhole){
+        var memory = state.legacy;
+        var addresses = state.randomAddresses;
+        for(int i = 0; i < MemoryState.ACCESSES; i++){
+            blackhole.consume(memory.readI32(addresses[i]));
+        }
+    }
+
+    @Benchmark
+    public void onDemandGrowth(){
+        // Walk upward through a fresh on-demand memory, so that every padding boundary
+        // crossed takes the out-of-line growth path
+        try(var memory = new Memory(new Limits(0, MemoryState.PAGES))){
+            for(int i = 0; i < MemoryState.ACCESSES; i++){
+                memory.writeI32(i * 4, i);
+            }
+        }
+    }
+
+    @Benchmark
+    public void onDemandGrowthLegacy(){
+        var memory = new MemoryState.LegacyMemory(0);
+        for(int i = 0; i < MemoryState.ACCESSES; i++){
+            memory.writeI32(i * 4, i);
+        }
+        memory.close();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Random;
+
+@State(Scope.Thread)
+public class MemoryState {
+
+    public static final int PAGES = 16;
+    public static final int ACCESSES = 4096;
+
+    public Memory memory;
+    public LegacyMemory legacy;
+    public int[] randomAddresses;
+
+    @Setup(Level.Trial)
+    public void init(){
+        memory = new Memory(new Limits(PAGES, PAGES));
+        memory.writeI32(PAGES * Memory.PAGE_SIZE - 4, 0);
+
+        legacy = new LegacyMemory(PAGES * Memory.PAGE_SIZE);
+
+        var random = new Random(42);
+        randomAddresses = new int[ACCESSES];
+        for(int i = 0; i < ACCESSES; i++){
+            randomAddresses[i] = random.nextInt(PAGES * Memory.PAGE_SIZE / 4) * 4;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close(){
+        memory.close();
+        legacy.close();
+    }
+
+    /**
+     * Reproduces the original exception-driven access path (catch IndexOutOfBoundsException,
+     * then reallocate and retry) so that it can be measured against the explicit bounds check.
+     */
+    public static class LegacyMemory {
+
+        protected Arena allocator;
+        protected MemorySegment memory;
+
+        public LegacyMemory(long byteSize){
+            reallocate(byteSize);
+        }
+
+        public int readI32(int addr){
+            try{
+                return memory.get(Memory.WASM_I32, addr);
+            }catch (IndexOutOfBoundsException e){
+                reallocate(addr + 4);
+                return memory.get(Memory.WASM_I32, addr);
+            }
+        }
+
+        public void writeI32(int addr, int value){
+            try{
+                memory.set(Memory.WASM_I32, addr, value);
+            }catch (IndexOutOfBoundsException e){
+                reallocate(addr + 4);
+                memory.set(Memory.WASM_I32, addr, value);
+            }
+        }
+
+        protected void reallocate(long end){
+            var size = (end + Memory.DEFAULT_PADDING_SIZE - 1) / Memory.DEFAULT_PADDING_SIZE * Memory.DEFAULT_PADDING_SIZE;
+            var newAllocator = Arena.openShared();
+            var newMemory = newAllocator.allocate(size, Memory.DEFAULT_ALIGNMENT);
+            if(memory != null){
+                newMemory.copyFrom(memory);
+                allocator.close();
+            }
+            allocator = newAllocator;
+            memory = newMemory;
+        }
+
+        public void close(){
+            allocator.close();
+        }
+    }
+}
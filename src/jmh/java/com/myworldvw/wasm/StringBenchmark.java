@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 1, warmups = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+public class StringBenchmark {
+
+    @Benchmark
+    public String readCString(StringState state){
+        return state.memory.readCString(0, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String readCStringByteLoop(StringState state){
+        // The way host imports read strings without the codecs
+        var memory = state.memory;
+        var bytes = new ByteArrayOutputStream();
+        for(long addr = 0; ; addr++){
+            var b = memory.readI8(addr);
+            if(b == 0){
+                break;
+            }
+            bytes.write(b);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int writeCString(StringState state){
+        return state.memory.writeCString(Memory.PAGE_SIZE, state.value, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int writeCStringByteLoop(StringState state){
+        var memory = state.memory;
+        var bytes = state.value.getBytes(StandardCharsets.UTF_8);
+        for(int i = 0; i < bytes.length; i++){
+            memory.writeI8(Memory.PAGE_SIZE + i, bytes[i]);
+        }
+        memory.writeI8(Memory.PAGE_SIZE + bytes.length, (byte) 0);
+        return bytes.length + 1;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+
+@State(Scope.Thread)
+public class StringState {
+
+    public static final int PAGES = 2;
+
+    @Param({"16", "256", "4096"})
+    public int length;
+
+    @Param({"ascii", "mixed"})
+    public String content;
+
+    public Memory memory;
+    public String value;
+
+    @Setup(Level.Trial)
+    public void init(){
+        memory = new Memory(new Limits(PAGES, PAGES));
+        memory.writeI8(PAGES * Memory.PAGE_SIZE - 1, (byte) 0);
+
+        var builder = new StringBuilder(length);
+        for(int i = 0; builder.length() < length; i++){
+            // One non-ASCII character in every 16 defeats the ASCII fast paths
+            builder.append(content.equals("mixed") && i % 16 == 15 ? 'é' : (char) ('a' + i % 26));
+        }
+        value = builder.toString();
+        memory.writeCString(0, value, StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void close(){
+        memory.close();
+    }
+}
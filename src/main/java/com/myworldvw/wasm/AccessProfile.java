@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-page read and write counts for a profiled {@link Memory} (see {@link Memory#enableAccessProfiling()}),
+ * along with a timeline of the memory's growth.
+ * <p>
+ * Counters are striped by thread, so that threads sharing a memory do not all contend on the
+ * counters of a hot page; a page's count is the sum across stripes. Each access counts once for
+ * every page it touches, regardless of its width. Counts taken while the memory is growing may
+ * miss a few concurrent accesses.
+ */
+public class AccessProfile {
+
+    public record PageHeat(int page, long reads, long writes){
+        public long accesses(){
+            return reads + writes;
+        }
+    }
+
+    public record GrowthEvent(long nanosSinceStart, int pages){}
+
+    /**
+     * A snapshot of the profile.
+     * @param pages the size of the memory in pages
+     * @param pagesTouched the number of pages accessed at least once
+     * @param reads the total number of reads
+     * @param writes the total number of writes
+     * @param hottest the most-accessed pages, hottest first
+     * @param growth the size of the memory over time, starting with its initial size
+     */
+    public record HeatMap(int pages, int pagesTouched, long reads, long writes, List<PageHeat> hottest, List<GrowthEvent> growth){
+
+        /**
+         * @return reads per write, or positive infinity if nothing was written
+         */
+        public double readWriteRatio(){
+            return writes == 0 ? Double.POSITIVE_INFINITY : (double) reads / writes;
+        }
+
+        @Override
+        public String toString(){
+            var builder = new StringBuilder();
+            builder.append("%d of %d pages touched, %d reads, %d writes (%.2f reads/write)%n"
+                    .formatted(pagesTouched, pages, reads, writes, readWriteRatio()));
+            builder.append("Hottest pages:%n".formatted());
+            for(var page : hottest){
+                builder.append("  page %6d  %12d reads  %12d writes%n".formatted(page.page(), page.reads(), page.writes()));
+            }
+            builder.append("Growth:%n".formatted());
+            for(var event : growth){
+                builder.append("  +%10.3f ms  %6d pages%n".formatted(event.nanosSinceStart() / 1e6, event.pages()));
+            }
+            return builder.toString();
+        }
+    }
+
+    // The processor count (up to 16), rounded up to a power of two
+    protected static final int STRIPES = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 16) * 2 - 1);
+
+    protected final long start;
+    protected final List<GrowthEvent> growth;
+    // Each stripe holds [reads, writes] pairs, indexed by 2 * page
+    protected volatile AtomicLongArray[] stripes;
+
+    public AccessProfile(int initialPages){
+        start = System.nanoTime();
+        growth = new CopyOnWriteArrayList<>();
+        growth.add(new GrowthEvent(0, initialPages));
+        stripes = allocate(initialPages, null);
+    }
+
+    public void recordReads(long addr, long width){
+        record(addr, width, 0);
+    }
+
+    public void recordWrites(long addr, long width){
+        record(addr, width, 1);
+    }
+
+    protected void record(long addr, long width, int kind){
+        if(width <= 0){
+            return;
+        }
+        var stripe = stripes[(int) Thread.currentThread().threadId() & (STRIPES - 1)];
+        var last = (addr + width - 1) >>> 16;
+        for(var page = addr >>> 16; page <= last; page++){
+            var index = (int) (page * 2 + kind);
+            if(index < stripe.length()){
+                stripe.getAndIncrement(index);
+            }
+        }
+    }
+
+    /**
+     * Called by the memory after it grows, to extend the counters over the new pages.
+     */
+    public synchronized void recordGrowth(int pages){
+        growth.add(new GrowthEvent(System.nanoTime() - start, pages));
+        if(pages * 2L > stripes[0].length()){
+            stripes = allocate(pages, stripes);
+        }
+    }
+
+    protected static AtomicLongArray[] allocate(int pages, AtomicLongArray[] existing){
+        var allocated = new AtomicLongArray[STRIPES];
+        for(int i = 0; i < STRIPES; i++){
+            allocated[i] = new AtomicLongArray(pages * 2);
+            if(existing != null){
+                for(int j = 0; j < existing[i].length(); j++){
+                    allocated[i].set(j, existing[i].get(j));
+                }
+            }
+        }
+        return allocated;
+    }
+
+    public long reads(int page){
+        return sum(page * 2);
+    }
+
+    public long writes(int page){
+        return sum(page * 2 + 1);
+    }
+
+    protected long sum(int index){
+        var total = 0L;
+        for(var stripe : stripes){
+            if(index < stripe.length()){
+                total += stripe.get(index);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param topN the number of hottest pages to include
+     * @return a snapshot of the counts so far
+     */
+    public HeatMap heatMap(int topN){
+        var snapshot = stripes;
+        var pages = snapshot[0].length() / 2;
+        var heat = new ArrayList<PageHeat>();
+        var reads = 0L;
+        var writes = 0L;
+        for(int page = 0; page < pages; page++){
+            var pageReads = reads(page);
+            var pageWrites = writes(page);
+            if(pageReads + pageWrites > 0){
+                heat.add(new PageHeat(page, pageReads, pageWrites));
+            }
+            reads += pageReads;
+            writes += pageWrites;
+        }
+        var touched = heat.size();
+        heat.sort(Comparator.comparingLong(PageHeat::accesses).reversed().thenComparingInt(PageHeat::page));
+        var hottest = List.copyOf(heat.subList(0, Math.min(topN, heat.size())));
+        return new HeatMap(pages, touched, reads, writes, hottest, List.copyOf(growth));
+    }
+
+    /**
+     * Zero all counters (the growth timeline is kept).
+     */
+    public synchronized void reset(){
+        stripes = allocate(stripes[0].length() / 2, null);
+    }
+}
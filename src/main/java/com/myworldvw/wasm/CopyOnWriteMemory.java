@@ -0,0 +1,43 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import java.lang.foreign.Arena;
+
+/**
+ * A memory whose initial contents are a private mapping of a {@link MemoryImage}. Reads are served
+ * from the image's pages and each page is copied on its first write. Growing beyond the image
+ * falls back to the default copying resize, after which the memory no longer shares pages.
+ */
+public class CopyOnWriteMemory extends Memory {
+
+    public CopyOnWriteMemory(MemoryImage image){
+        this(image, false);
+    }
+
+    public CopyOnWriteMemory(MemoryImage image, boolean instrumented){
+        super(image.limits, instrumented);
+        paddingSize = image.paddingSize;
+        alignment = image.alignment;
+        allocationMode = image.allocationMode;
+        pages = image.pages;
+
+        allocator = Arena.openShared();
+        memory = image.map(allocator);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+/**
+ * Decides how much capacity a memory allocates when a copying reallocation is unavoidable. Memory
+ * hands out a slice of that capacity sized to exactly what is accessible, so later growth that
+ * fits within the spare capacity needs no reallocation (and no copy) at all.
+ * <p>
+ * This only applies to memories that grow by copying into a new segment. Memories that grow in
+ * place ({@link ReservedMemory}, {@link MappedMemory}) or draw from a pool ({@link PooledMemory})
+ * manage their own capacity.
+ */
+@FunctionalInterface
+public interface GrowthPolicy {
+
+    /**
+     * @param currentCapacity the size of the current allocation in bytes
+     * @param requiredSize the number of bytes that must be accessible after growing
+     * @return the size of the new allocation. Values smaller than requiredSize or larger than the
+     * memory's maximum are clamped.
+     */
+    long capacityFor(long currentCapacity, long requiredSize);
+
+    /**
+     * Allocate exactly what is required, rounded up to a fixed increment.
+     */
+    static GrowthPolicy fixed(long increment){
+        if(increment <= 0){
+            throw new IllegalArgumentException("Growth increment must be positive, not " + increment);
+        }
+        return (currentCapacity, requiredSize) -> (requiredSize + increment - 1) / increment * increment;
+    }
+
+    /**
+     * Allocate whole wasm pages.
+     */
+    static GrowthPolicy pageGranular(){
+        return fixed(Memory.PAGE_SIZE);
+    }
+
+    /**
+     * Multiply capacity by factor on every reallocation (or allocate what is required, if that is more),
+     * so that a memory growing steadily upward is copied O(log n) times rather than O(n) times.
+     */
+    static GrowthPolicy geometric(double factor){
+        if(!(factor > 1.0)){
+            throw new IllegalArgumentException("Growth factor must be greater than 1, not " + factor);
+        }
+        var padding = fixed(Memory.DEFAULT_PADDING_SIZE);
+        return (currentCapacity, requiredSize) ->
+                padding.capacityFor(currentCapacity, Math.max(requiredSize, (long) Math.ceil(currentCapacity * factor)));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory backed by a shared mapping of a file. Pages are loaded and written back by the OS, so
+ * large memories need not stay resident, and the contents outlive the process. Opening an existing
+ * file adopts its contents (and size). Growing extends the file and remaps it.
+ * <p>
+ * A memory holds an exclusive lock on its file for as long as it is open, so that two live memories
+ * can never share one heap: opening a file that is already mapped fails with a
+ * {@link MemoryFileInUseException}.
+ */
+public class MappedMemory extends Memory {
+
+    protected final Path file;
+    protected final FileChannel channel;
+
+    public MappedMemory(Limits limits, Path file){
+        this(limits, file, false);
+    }
+
+    public MappedMemory(Limits limits, Path file, boolean instrumented){
+        super(limits, instrumented);
+        this.file = file;
+        try{
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        try{
+            if(!tryLock(channel)){
+                throw new MemoryFileInUseException("%s is already mapped by another memory".formatted(file));
+            }
+            var existing = channel.size();
+            if(existing > 0){
+                if(existing > maxBytes()){
+                    throw new IllegalArgumentException("%s holds %d bytes, exceeding the memory's maximum of %d".formatted(file, existing, maxBytes()));
+                }
+                memory = resize(existing);
+                pages = (int) Math.max(pages, (existing + PAGE_SIZE - 1) / PAGE_SIZE);
+            }
+        }catch(IOException | RuntimeException e){
+            // Closing the channel also releases the lock, if it was taken
+            try{
+                channel.close();
+            }catch(IOException suppressed){
+                e.addSuppressed(suppressed);
+            }
+            if(e instanceof IOException io){
+                throw new UncheckedIOException(io);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    /**
+     * @return whether the lock was taken; false if it is held elsewhere, whether by another process
+     * (which tryLock reports as null) or by another channel in this JVM (which it reports by throwing)
+     */
+    protected static boolean tryLock(FileChannel channel) throws IOException {
+        try{
+            return channel.tryLock() != null;
+        }catch(OverlappingFileLockException e){
+            return false;
+        }
+    }
+
+    public Path getFile(){
+        return file;
+    }
+
+    @Override
+    protected long committedSizeFor(long byteSize){
+        // The mapping always covers exactly the accessible size
+        return byteSize;
+    }
+
+    @Override
+    protected MemorySegment resize(long byteSize){
+        try{
+            // Mapping read-write extends the file; the new region reads as zeros
+            var newAllocator = openArena();
+            var newMemory = channel.map(FileChannel.MapMode.READ_WRITE, 0, byteSize, newAllocator.scope());
+
+            if(allocator != null){
+                allocator.close();
+            }
+
+            allocator = newAllocator;
+            return newMemory;
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write any modified pages back to the file.
+     */
+    public void force(){
+        var segment = memory;
+        if(segment.byteSize() > 0){
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close(){
+        force();
+        super.close();
+        try{
+            channel.close();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -18,16 +18,39 @@
 package com.myworldvw.wasm;
 
 import com.myworldvw.wasm.binary.Limits;
+import com.myworldvw.wasm.util.NativeMemory;
+import com.myworldvw.wasm.util.StringCodec;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.lang.foreign.*;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
-public class Memory {
+public class Memory implements AutoCloseable {
 
-    enum AllocationMode {
+    public enum AllocationMode {
         ON_DEMAND, IMMEDIATE
     }
 
+    /**
+     * The kind of arena backing segments are allocated in. A shared arena may be accessed from any
+     * thread, but closing it (on every copying grow and on close) must handshake with all threads.
+     * A confined arena is cheap to close and to access, but only its owning thread - the thread that
+     * allocated it - may touch it: access from any other thread throws {@link WrongThreadException}.
+     */
+    public enum ArenaMode {
+        SHARED, CONFINED
+    }
+
     public static final ValueLayout.OfByte WASM_I8 = ValueLayout.JAVA_BYTE.withOrder(ByteOrder.LITTLE_ENDIAN);
     public static final ValueLayout.OfShort WASM_I16 = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
     public static final ValueLayout.OfInt WASM_I32 = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
@@ -35,22 +58,86 @@ public class Memory {
     public static final ValueLayout.OfFloat WASM_F32 = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
     public static final ValueLayout.OfDouble WASM_F64 = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
 
+    // Atomic accesses must be naturally aligned, so they use aligned layouts and index by element
+    protected static final VarHandle ATOMIC_I8 = ValueLayout.JAVA_BYTE.arrayElementVarHandle();
+    protected static final VarHandle ATOMIC_I16 = ValueLayout.JAVA_SHORT.withOrder(ByteOrder.LITTLE_ENDIAN).arrayElementVarHandle();
+    protected static final VarHandle ATOMIC_I32 = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN).arrayElementVarHandle();
+    protected static final VarHandle ATOMIC_I64 = ValueLayout.JAVA_LONG.withOrder(ByteOrder.LITTLE_ENDIAN).arrayElementVarHandle();
+
+    public static final int RMW_ADD = 0;
+    public static final int RMW_SUB = 1;
+    public static final int RMW_AND = 2;
+    public static final int RMW_OR = 3;
+    public static final int RMW_XOR = 4;
+    public static final int RMW_XCHG = 5;
+
+    public static final int WAIT_OK = 0;
+    public static final int WAIT_NOT_EQUAL = 1;
+    public static final int WAIT_TIMED_OUT = 2;
+
     public static final int PAGE_SIZE = 65536;
     public static final int DEFAULT_PADDING_SIZE = 1024;
     public static final int DEFAULT_ALIGNMENT = 64;
 
-    protected int pages;
+    protected volatile int pages;
     protected long paddingSize;
     protected int alignment;
     protected Limits limits;
     protected AllocationMode allocationMode;
+    protected ArenaMode arenaMode;
     protected volatile Arena allocator;
     protected volatile MemorySegment memory;
+    protected MemorySegment capacity;
+    protected GrowthPolicy growthPolicy;
+    protected long hugePageThreshold;
+    protected boolean hugePagesAdvised;
+    protected long reallocations;
+    protected long bytesCopied;
+    protected MemoryImage image;
+    protected MemoryGovernor governor;
+    protected long governedBytes;
+
+    // Whether accesses run the dirty tracking and profiling hooks. This is fixed when the memory is
+    // constructed, so that the accessors of memories that never track or profile don't pay for
+    // checking whether they do.
+    protected final boolean instrumented;
+    // Dirty page tracking: one bit per tracked page, covering the current segment
+    protected volatile long[] dirty;
+    protected volatile AccessProfile profile;
+    protected int dirtyShift;
+    protected Arena checkpointAllocator;
+    protected MemorySegment checkpoint;
+    protected final ConcurrentHashMap<Long, ArrayDeque<Waiter>> waiters = new ConcurrentHashMap<>();
 
     public Memory(){
+        this(null);
+    }
+
+    public Memory(Limits limits){
+        this(limits, false);
+    }
+
+    /**
+     * @param limits the limits of the memory, or null if it is unbounded
+     * @param instrumented whether the memory may {@link #trackDirtyPages(int) track dirty pages} or
+     *                     {@link #enableAccessProfiling() profile accesses}
+     */
+    public Memory(Limits limits, boolean instrumented){
+        this.instrumented = instrumented;
         allocationMode = AllocationMode.ON_DEMAND;
+        arenaMode = ArenaMode.SHARED;
         paddingSize = DEFAULT_PADDING_SIZE;
         alignment = DEFAULT_ALIGNMENT;
+        memory = MemorySegment.NULL;
+        capacity = MemorySegment.NULL;
+        this.limits = limits;
+        if(limits != null){
+            pages = limits.min();
+        }
+    }
+
+    public Limits getLimits(){
+        return limits;
     }
 
     public long getPaddingSize(){
@@ -61,6 +148,87 @@ public class Memory {
         this.paddingSize = paddingSize;
     }
 
+    public AllocationMode getAllocationMode(){
+        return allocationMode;
+    }
+
+    public void setAllocationMode(AllocationMode allocationMode){
+        this.allocationMode = allocationMode;
+    }
+
+    public ArenaMode getArenaMode(){
+        return arenaMode;
+    }
+
+    /**
+     * Choose the arena used for this memory's future allocations. Segments allocated before the
+     * change keep their arena until the memory next reallocates.
+     * @param arenaMode the arena mode to allocate with
+     * @throws IllegalStateException if a shared memory is asked to use a confined arena
+     */
+    public void setArenaMode(ArenaMode arenaMode){
+        if(arenaMode == ArenaMode.CONFINED && isShared()){
+            throw new IllegalStateException("Shared memories cannot use a confined arena");
+        }
+        this.arenaMode = arenaMode;
+    }
+
+    /**
+     * @return a new arena of the kind selected by {@link #setArenaMode(ArenaMode)}
+     */
+    protected Arena openArena(){
+        return arenaMode == ArenaMode.CONFINED ? Arena.openConfined() : Arena.openShared();
+    }
+
+    public GrowthPolicy getGrowthPolicy(){
+        return growthPolicy;
+    }
+
+    /**
+     * @param growthPolicy the policy sizing copying reallocations, or null to allocate exactly what is required
+     */
+    public void setGrowthPolicy(GrowthPolicy growthPolicy){
+        this.growthPolicy = growthPolicy;
+    }
+
+    public long getHugePageThreshold(){
+        return hugePageThreshold;
+    }
+
+    /**
+     * Allocations of at least this many bytes are aligned to 2 MiB and advised to use transparent
+     * huge pages (Linux only), cutting the TLB misses of random access over large memories.
+     * @param hugePageThreshold the minimum allocation size to use huge pages for, or 0 to never use them
+     */
+    public void setHugePageThreshold(long hugePageThreshold){
+        this.hugePageThreshold = hugePageThreshold;
+    }
+
+    /**
+     * @return whether the kernel accepted huge page advice for the current allocation
+     */
+    public boolean isHugePagesAdvised(){
+        return hugePagesAdvised;
+    }
+
+    protected boolean shouldUseHugePages(long allocationSize){
+        return hugePageThreshold > 0 && allocationSize >= hugePageThreshold;
+    }
+
+    /**
+     * @return the number of times growth has copied memory into a new segment
+     */
+    public long getReallocationCount(){
+        return reallocations;
+    }
+
+    /**
+     * @return the total number of bytes copied by reallocations
+     */
+    public long getBytesCopied(){
+        return bytesCopied;
+    }
+
     public int getAlignmentConstraint(){
         return alignment;
     }
@@ -71,174 +239,796 @@ public class Memory {
 
     public void memset(byte value){
         memory.fill(value);
+        recordWrite(0, memory.byteSize());
     }
 
     public void memset(int addr, byte value){
-        memory.asSlice(addr).fill(value);
+        var a = Integer.toUnsignedLong(addr);
+        memory.asSlice(a).fill(value);
+        recordWrite(a, memory.byteSize() - a);
     }
 
     public void memset(int addr, long length, byte value){
-        memory.asSlice(addr, length).fill(value);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + length > segment.byteSize()){
+            segment = ensureAccessible(a, length);
+        }
+        segment.asSlice(a, length).fill(value);
+        recordWrite(a, length);
     }
 
     public void bulkSet(int addr, byte[] data){
-        MemorySegment.copy(MemorySegment.ofArray(data), 0, memory, addr, data.length);
+        bulkSet(Integer.toUnsignedLong(addr), data);
+    }
+
+    public void bulkSet(long addr, byte[] data){
+        var segment = memory;
+        if(addr < 0 || addr + data.length > segment.byteSize()){
+            segment = ensureAccessible(addr, data.length);
+        }
+        MemorySegment.copy(MemorySegment.ofArray(data), 0, segment, addr, data.length);
+        recordWrite(addr, data.length);
+    }
+
+    /**
+     * memory.copy: copy len bytes from src to dst. Overlapping ranges are handled as if the source were
+     * first copied to a temporary buffer.
+     */
+    public void copy(long dst, long src, long len){
+        var segment = memory;
+        if(src < 0 || src + len > segment.byteSize()){
+            segment = ensureAccessible(src, len);
+        }
+        if(dst < 0 || dst + len > segment.byteSize()){
+            segment = ensureAccessible(dst, len);
+        }
+        MemorySegment.copy(segment, src, segment, dst, len);
+        recordRead(src, len);
+        recordWrite(dst, len);
+    }
+
+    /**
+     * memory.copy between two memories (multi-memory): copy len bytes from src in source to dst in this memory.
+     */
+    public void copy(long dst, Memory source, long src, long len){
+        if(source == this){
+            copy(dst, src, len);
+            return;
+        }
+        var sourceSegment = source.segmentFor(src, len);
+        var segment = segmentFor(dst, len);
+        MemorySegment.copy(sourceSegment, src, segment, dst, len);
+        source.recordRead(src, len);
+        recordWrite(dst, len);
+    }
+
+    /**
+     * memory.fill: set len bytes starting at dst to the low byte of value.
+     */
+    public void fill(long dst, int value, long len){
+        var segment = memory;
+        if(dst < 0 || dst + len > segment.byteSize()){
+            segment = ensureAccessible(dst, len);
+        }
+        segment.asSlice(dst, len).fill((byte) value);
+        recordWrite(dst, len);
+    }
+
+    /**
+     * memory.init: copy len bytes of data, starting at src, into memory at dst.
+     */
+    public void init(long dst, byte[] data, long src, long len){
+        if(src < 0 || len < 0 || src + len > data.length){
+            throw new SegmentationException("Data segment access 0x%08X (length %d) is out of bounds (size %d)".formatted(src, len, data.length));
+        }
+        var segment = memory;
+        if(dst < 0 || dst + len > segment.byteSize()){
+            segment = ensureAccessible(dst, len);
+        }
+        MemorySegment.copy(MemorySegment.ofArray(data), src, segment, dst, len);
+        recordWrite(dst, len);
+    }
+
+    /**
+     * Zero len bytes of memory starting at addr, returning the backing pages to the OS where the
+     * memory's backing supports it (see {@link #releasePages(MemorySegment, long, long)}). Memory never
+     * shrinks, so this is how a guest or host gives back the footprint of regions it no longer uses.
+     * Bytes past the allocated segment already read as zeros and are left unallocated.
+     */
+    public void discard(long addr, long len){
+        var segment = memory;
+        var end = addr + len;
+        if(addr < 0 || len < 0 || end < 0 || end > maxBytes()
+                || (allocationMode == AllocationMode.IMMEDIATE && end > segment.byteSize())){
+            throw new SegmentationException("Discard of 0x%08X (length %d) is out of bounds".formatted(addr, len));
+        }
+        end = Math.min(end, segment.byteSize());
+        if(end > addr){
+            releasePages(segment, addr, end - addr);
+            recordWrite(addr, end - addr);
+        }
+    }
+
+    /**
+     * memory.discard: as {@link #discard(long, long)}, but both the address and length must be
+     * multiples of the wasm page size.
+     */
+    public void discardPages(long addr, long len){
+        if(addr % PAGE_SIZE != 0 || len % PAGE_SIZE != 0){
+            throw new TrapException("Discard of 0x%08X (length %d) is not page aligned".formatted(addr, len));
+        }
+        discard(addr, len);
     }
 
+    /**
+     * Zero a range of the backing segment. Only backings made of private anonymous mappings can
+     * hand pages back to the OS, so the default simply overwrites the range.
+     */
+    protected void releasePages(MemorySegment segment, long addr, long len){
+        segment.asSlice(addr, len).fill((byte) 0);
+    }
+
+    // Every accessor below follows the same shape: a single comparison of the access against
+    // the size of the current segment, with growth (or trapping) moved out of line into
+    // ensureAccessible(). This keeps the common case small enough to inline and free of
+    // exception handling, so the JIT can lay it out as a straight-line load/store. The hooks
+    // only test a final field unless the memory was constructed instrumented.
+
     public byte readI8(int addr){
-        try{
-            return memory.get(WASM_I8, addr);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            return memory.get(WASM_I8, addr);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 1 > segment.byteSize()){
+            segment = ensureAccessible(a, 1);
         }
+        recordRead(a, 1);
+        return segment.get(WASM_I8, a);
     }
 
-    public void writeI8(int addr, short value){
-        try{
-            memory.setAtIndex(WASM_I16, addr, value);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            memory.setAtIndex(WASM_I16, addr, value);
+    public void writeI8(int addr, byte value){
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 1 > segment.byteSize()){
+            segment = ensureAccessible(a, 1);
         }
+        segment.set(WASM_I8, a, value);
+        recordWrite(a, 1);
     }
 
     public short readI16(int addr){
-        try{
-            return memory.getAtIndex(WASM_I16, addr);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            return memory.getAtIndex(WASM_I16, addr);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 2 > segment.byteSize()){
+            segment = ensureAccessible(a, 2);
         }
+        recordRead(a, 2);
+        return segment.get(WASM_I16, a);
     }
 
     public void writeI16(int addr, short value){
-        try{
-            memory.setAtIndex(WASM_I16, addr, value);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            memory.setAtIndex(WASM_I16, addr, value);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 2 > segment.byteSize()){
+            segment = ensureAccessible(a, 2);
         }
+        segment.set(WASM_I16, a, value);
+        recordWrite(a, 2);
     }
 
     public int readI32(int addr){
-        try{
-            return memory.getAtIndex(WASM_I32, addr);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            return memory.getAtIndex(WASM_I32, addr);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 4 > segment.byteSize()){
+            segment = ensureAccessible(a, 4);
         }
+        recordRead(a, 4);
+        return segment.get(WASM_I32, a);
     }
 
     public void writeI32(int addr, int value){
-        try{
-            memory.setAtIndex(WASM_I32, addr, value);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            memory.setAtIndex(WASM_I32, addr, value);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 4 > segment.byteSize()){
+            segment = ensureAccessible(a, 4);
         }
+        segment.set(WASM_I32, a, value);
+        recordWrite(a, 4);
     }
 
     public long readI64(int addr){
-        try{
-            return memory.getAtIndex(WASM_I64, addr);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            return memory.getAtIndex(WASM_I64, addr);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 8 > segment.byteSize()){
+            segment = ensureAccessible(a, 8);
         }
+        recordRead(a, 8);
+        return segment.get(WASM_I64, a);
     }
 
     public void writeI64(int addr, long value){
-        try{
-            memory.setAtIndex(WASM_I64, addr, value);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            memory.setAtIndex(WASM_I64, addr, value);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 8 > segment.byteSize()){
+            segment = ensureAccessible(a, 8);
         }
+        segment.set(WASM_I64, a, value);
+        recordWrite(a, 8);
     }
 
     public float readF32(int addr){
-        try{
-            return memory.getAtIndex(WASM_F32, addr);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            return memory.getAtIndex(WASM_F32, addr);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 4 > segment.byteSize()){
+            segment = ensureAccessible(a, 4);
         }
+        recordRead(a, 4);
+        return segment.get(WASM_F32, a);
     }
 
     public void writeF32(int addr, float value){
-        try{
-            memory.setAtIndex(WASM_F32, addr, value);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            memory.setAtIndex(WASM_F32, addr, value);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 4 > segment.byteSize()){
+            segment = ensureAccessible(a, 4);
         }
+        segment.set(WASM_F32, a, value);
+        recordWrite(a, 4);
     }
 
     public double readF64(int addr){
-        try{
-            return memory.getAtIndex(WASM_F64, addr);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
-            }
-            reallocate(addr);
-            return memory.getAtIndex(WASM_F64, addr);
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 8 > segment.byteSize()){
+            segment = ensureAccessible(a, 8);
         }
+        recordRead(a, 8);
+        return segment.get(WASM_F64, a);
     }
 
     public void writeF64(int addr, double value){
-        try{
-            memory.setAtIndex(WASM_F64, addr, value);
-        }catch (IndexOutOfBoundsException e){
-            if(limits != null && limits.hasMax() && addr > limits.max() * PAGE_SIZE){
-                throw new SegmentationException("Address 0x032%X is out of bounds (max 0x032%X)".formatted(addr, limits.max() * PAGE_SIZE));
+        var a = Integer.toUnsignedLong(addr);
+        var segment = memory;
+        if(a + 8 > segment.byteSize()){
+            segment = ensureAccessible(a, 8);
+        }
+        segment.set(WASM_F64, a, value);
+        recordWrite(a, 8);
+    }
+
+    // memory64 variants of the accessors above. Addresses are unsigned 64-bit values, so negative
+    // longs are addresses beyond any possible segment and take the slow path (and trap).
+
+    public byte readI8(long addr){
+        var segment = memory;
+        if(addr < 0 || addr + 1 > segment.byteSize()){
+            segment = ensureAccessible(addr, 1);
+        }
+        recordRead(addr, 1);
+        return segment.get(WASM_I8, addr);
+    }
+
+    public void writeI8(long addr, byte value){
+        var segment = memory;
+        if(addr < 0 || addr + 1 > segment.byteSize()){
+            segment = ensureAccessible(addr, 1);
+        }
+        segment.set(WASM_I8, addr, value);
+        recordWrite(addr, 1);
+    }
+
+    public short readI16(long addr){
+        var segment = memory;
+        if(addr < 0 || addr + 2 > segment.byteSize()){
+            segment = ensureAccessible(addr, 2);
+        }
+        recordRead(addr, 2);
+        return segment.get(WASM_I16, addr);
+    }
+
+    public void writeI16(long addr, short value){
+        var segment = memory;
+        if(addr < 0 || addr + 2 > segment.byteSize()){
+            segment = ensureAccessible(addr, 2);
+        }
+        segment.set(WASM_I16, addr, value);
+        recordWrite(addr, 2);
+    }
+
+    public int readI32(long addr){
+        var segment = memory;
+        if(addr < 0 || addr + 4 > segment.byteSize()){
+            segment = ensureAccessible(addr, 4);
+        }
+        recordRead(addr, 4);
+        return segment.get(WASM_I32, addr);
+    }
+
+    public void writeI32(long addr, int value){
+        var segment = memory;
+        if(addr < 0 || addr + 4 > segment.byteSize()){
+            segment = ensureAccessible(addr, 4);
+        }
+        segment.set(WASM_I32, addr, value);
+        recordWrite(addr, 4);
+    }
+
+    public long readI64(long addr){
+        var segment = memory;
+        if(addr < 0 || addr + 8 > segment.byteSize()){
+            segment = ensureAccessible(addr, 8);
+        }
+        recordRead(addr, 8);
+        return segment.get(WASM_I64, addr);
+    }
+
+    public void writeI64(long addr, long value){
+        var segment = memory;
+        if(addr < 0 || addr + 8 > segment.byteSize()){
+            segment = ensureAccessible(addr, 8);
+        }
+        segment.set(WASM_I64, addr, value);
+        recordWrite(addr, 8);
+    }
+
+    public float readF32(long addr){
+        var segment = memory;
+        if(addr < 0 || addr + 4 > segment.byteSize()){
+            segment = ensureAccessible(addr, 4);
+        }
+        recordRead(addr, 4);
+        return segment.get(WASM_F32, addr);
+    }
+
+    public void writeF32(long addr, float value){
+        var segment = memory;
+        if(addr < 0 || addr + 4 > segment.byteSize()){
+            segment = ensureAccessible(addr, 4);
+        }
+        segment.set(WASM_F32, addr, value);
+        recordWrite(addr, 4);
+    }
+
+    public double readF64(long addr){
+        var segment = memory;
+        if(addr < 0 || addr + 8 > segment.byteSize()){
+            segment = ensureAccessible(addr, 8);
+        }
+        recordRead(addr, 8);
+        return segment.get(WASM_F64, addr);
+    }
+
+    public void writeF64(long addr, double value){
+        var segment = memory;
+        if(addr < 0 || addr + 8 > segment.byteSize()){
+            segment = ensureAccessible(addr, 8);
+        }
+        segment.set(WASM_F64, addr, value);
+        recordWrite(addr, 8);
+    }
+
+    /**
+     * @return the segment currently backing this memory. Generated code caches this and must
+     * refresh it after any operation that may grow the memory.
+     */
+    public MemorySegment segment(){
+        return memory;
+    }
+
+    /**
+     * Used by generated code when an access misses its cached segment.
+     * @param addr the (unsigned) address being accessed
+     * @param width the width of the access in bytes
+     * @return a segment large enough to satisfy the access
+     */
+    public MemorySegment segmentFor(long addr, long width){
+        var segment = memory;
+        if(addr < 0 || addr + width > segment.byteSize()){
+            segment = ensureAccessible(addr, width);
+        }
+        return segment;
+    }
+
+    /**
+     * Returns a view of len bytes of this memory starting at addr, without copying. The view is
+     * only valid until the memory next grows (growth may move the memory and close the old
+     * segment), so hosts should not hold onto it across calls back into the module. When dirty
+     * page tracking is enabled, the whole range is marked dirty.
+     * @param addr the (unsigned) address of the first byte
+     * @param len the length of the view in bytes
+     * @return a segment covering exactly [addr, addr + len)
+     */
+    public MemorySegment slice(long addr, long len){
+        var slice = segmentFor(addr, len).asSlice(addr, len);
+        // Writes through the view can't be seen, so assume they happen
+        recordRead(addr, len);
+        recordWrite(addr, len);
+        return slice;
+    }
+
+    /**
+     * Same as {@link #slice(long, long)}, but as a little-endian ByteBuffer.
+     */
+    public ByteBuffer asByteBuffer(long addr, int len){
+        return slice(addr, len).asByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Bulk typed transfers between linear memory and Java arrays. Elements are converted
+    // from/to little-endian as they are copied, and the whole range is bounds-checked once.
+
+    public void bulkRead(long addr, byte[] dst, int dstIndex, int count){
+        bulkRead(addr, WASM_I8, dst, dstIndex, count);
+    }
+
+    public void bulkRead(long addr, int[] dst, int dstIndex, int count){
+        bulkRead(addr, WASM_I32, dst, dstIndex, count);
+    }
+
+    public void bulkRead(long addr, long[] dst, int dstIndex, int count){
+        bulkRead(addr, WASM_I64, dst, dstIndex, count);
+    }
+
+    public void bulkRead(long addr, float[] dst, int dstIndex, int count){
+        bulkRead(addr, WASM_F32, dst, dstIndex, count);
+    }
+
+    public void bulkRead(long addr, double[] dst, int dstIndex, int count){
+        bulkRead(addr, WASM_F64, dst, dstIndex, count);
+    }
+
+    public void bulkWrite(long addr, byte[] src, int srcIndex, int count){
+        bulkWrite(addr, WASM_I8, src, srcIndex, count);
+    }
+
+    public void bulkWrite(long addr, int[] src, int srcIndex, int count){
+        bulkWrite(addr, WASM_I32, src, srcIndex, count);
+    }
+
+    public void bulkWrite(long addr, long[] src, int srcIndex, int count){
+        bulkWrite(addr, WASM_I64, src, srcIndex, count);
+    }
+
+    public void bulkWrite(long addr, float[] src, int srcIndex, int count){
+        bulkWrite(addr, WASM_F32, src, srcIndex, count);
+    }
+
+    public void bulkWrite(long addr, double[] src, int srcIndex, int count){
+        bulkWrite(addr, WASM_F64, src, srcIndex, count);
+    }
+
+    protected void bulkRead(long addr, ValueLayout layout, Object dst, int dstIndex, int count){
+        var segment = segmentFor(addr, count * layout.byteSize());
+        MemorySegment.copy(segment, layout, addr, dst, dstIndex, count);
+        recordRead(addr, count * layout.byteSize());
+    }
+
+    protected void bulkWrite(long addr, ValueLayout layout, Object src, int srcIndex, int count){
+        var segment = segmentFor(addr, count * layout.byteSize());
+        MemorySegment.copy(src, srcIndex, segment, layout, addr, count);
+        recordWrite(addr, count * layout.byteSize());
+    }
+
+    // String codecs. Strings cross between linear memory and Java with one bulk copy, and are decoded
+    // and encoded by the JDK's coders (see StringCodec). Lengths and length prefixes are in bytes,
+    // and UTF-16 strings are little-endian.
+
+    /**
+     * @param addr the (unsigned) address of the first byte of the string
+     * @param len the encoded length of the string in bytes
+     * @param charset the string's encoding
+     * @return the decoded string
+     */
+    public String readString(long addr, int len, Charset charset){
+        var segment = segmentFor(addr, len);
+        recordRead(addr, len);
+        return StringCodec.decode(segment, addr, len, charset);
+    }
+
+    /**
+     * Read a string terminated by a NUL code unit (one byte, or two bytes for UTF-16).
+     * @return the decoded string, excluding the terminator
+     * @throws SegmentationException if memory ends before a terminator is found
+     */
+    public String readCString(long addr, Charset charset){
+        var unit = StringCodec.unitSize(charset);
+        var segment = segmentFor(addr, unit);
+        var from = addr;
+        long end;
+        while((end = StringCodec.indexOfTerminator(segment, from, unit)) < 0){
+            // Memory past the allocated segment reads as zeros, if it can be accessed at all
+            from += (segment.byteSize() - from) & -unit;
+            segment = segmentFor(from, unit);
+        }
+        recordRead(addr, end - addr + unit);
+        return StringCodec.decode(segment, addr, Math.toIntExact(end - addr), charset);
+    }
+
+    /**
+     * Read a string preceded by its encoded length in bytes, as an unsigned little-endian i32.
+     */
+    public String readPrefixedString(long addr, Charset charset){
+        var len = readI32(addr);
+        if(len < 0){
+            throw new SegmentationException("String of %d bytes at 0x%08X is out of bounds".formatted(Integer.toUnsignedLong(len), addr));
+        }
+        return readString(addr + Integer.BYTES, len, charset);
+    }
+
+    /**
+     * Write the encoded form of value, without a terminator or length.
+     * @return the number of bytes written
+     */
+    public int writeString(long addr, String value, Charset charset){
+        return writeString(addr, value, charset, false);
+    }
+
+    /**
+     * Write the encoded form of value followed by a NUL code unit.
+     * @return the number of bytes written, including the terminator
+     */
+    public int writeCString(long addr, String value, Charset charset){
+        return writeString(addr, value, charset, true);
+    }
+
+    /**
+     * Write the encoded length of value in bytes, as a little-endian i32, followed by its encoded form.
+     * @return the number of bytes written, including the prefix
+     */
+    public int writePrefixedString(long addr, String value, Charset charset){
+        var bytes = StringCodec.encode(value, charset);
+        segmentFor(addr, Integer.BYTES + (long) bytes.length);
+        writeI32(addr, bytes.length);
+        bulkWrite(addr + Integer.BYTES, bytes, 0, bytes.length);
+        return Integer.BYTES + bytes.length;
+    }
+
+    protected int writeString(long addr, String value, Charset charset, boolean terminate){
+        var bytes = StringCodec.encode(value, charset);
+        var unit = terminate ? StringCodec.unitSize(charset) : 0;
+        // Check the whole range up front, so that a string that doesn't fit writes nothing
+        segmentFor(addr, (long) bytes.length + unit);
+        bulkWrite(addr, bytes, 0, bytes.length);
+        if(terminate){
+            fill(addr + bytes.length, 0, unit);
+        }
+        return bytes.length + unit;
+    }
+
+    public boolean isShared(){
+        return false;
+    }
+
+    // Atomic accesses (threads proposal). Values are passed & returned as longs regardless of width;
+    // narrower results are zero-extended. The JVM offers no atomic read-modify-write on bytes or shorts,
+    // so those are performed with a compare-and-set loop on the enclosing aligned int.
+
+    protected MemorySegment atomicSegment(long addr, int width){
+        if((addr & (width - 1)) != 0){
+            throw new TrapException("Unaligned atomic access at 0x%08X (width %d)".formatted(addr, width));
+        }
+        var segment = memory;
+        if(addr < 0 || addr + width > segment.byteSize()){
+            segment = ensureAccessible(addr, width);
+        }
+        return segment;
+    }
+
+    public long atomicLoad(long addr, int width){
+        var segment = atomicSegment(addr, width);
+        recordRead(addr, width);
+        return switch (width){
+            case 1 -> Byte.toUnsignedLong((byte) ATOMIC_I8.getVolatile(segment, addr));
+            case 2 -> Short.toUnsignedLong((short) ATOMIC_I16.getVolatile(segment, addr >> 1));
+            case 4 -> Integer.toUnsignedLong((int) ATOMIC_I32.getVolatile(segment, addr >> 2));
+            default -> (long) ATOMIC_I64.getVolatile(segment, addr >> 3);
+        };
+    }
+
+    public void atomicStore(long addr, int width, long value){
+        var segment = atomicSegment(addr, width);
+        recordWrite(addr, width);
+        switch (width){
+            case 1 -> ATOMIC_I8.setVolatile(segment, addr, (byte) value);
+            case 2 -> ATOMIC_I16.setVolatile(segment, addr >> 1, (short) value);
+            case 4 -> ATOMIC_I32.setVolatile(segment, addr >> 2, (int) value);
+            default -> ATOMIC_I64.setVolatile(segment, addr >> 3, value);
+        }
+    }
+
+    /**
+     * Atomically apply op to the value at addr.
+     * @return the previous value
+     */
+    public long atomicRmw(long addr, int width, int op, long value){
+        var segment = atomicSegment(addr, width);
+        recordWrite(addr, width);
+        return switch (width){
+            case 4 -> Integer.toUnsignedLong(switch (op){
+                case RMW_ADD -> (int) ATOMIC_I32.getAndAdd(segment, addr >> 2, (int) value);
+                case RMW_SUB -> (int) ATOMIC_I32.getAndAdd(segment, addr >> 2, -(int) value);
+                case RMW_AND -> (int) ATOMIC_I32.getAndBitwiseAnd(segment, addr >> 2, (int) value);
+                case RMW_OR -> (int) ATOMIC_I32.getAndBitwiseOr(segment, addr >> 2, (int) value);
+                case RMW_XOR -> (int) ATOMIC_I32.getAndBitwiseXor(segment, addr >> 2, (int) value);
+                default -> (int) ATOMIC_I32.getAndSet(segment, addr >> 2, (int) value);
+            });
+            case 8 -> switch (op){
+                case RMW_ADD -> (long) ATOMIC_I64.getAndAdd(segment, addr >> 3, value);
+                case RMW_SUB -> (long) ATOMIC_I64.getAndAdd(segment, addr >> 3, -value);
+                case RMW_AND -> (long) ATOMIC_I64.getAndBitwiseAnd(segment, addr >> 3, value);
+                case RMW_OR -> (long) ATOMIC_I64.getAndBitwiseOr(segment, addr >> 3, value);
+                case RMW_XOR -> (long) ATOMIC_I64.getAndBitwiseXor(segment, addr >> 3, value);
+                default -> (long) ATOMIC_I64.getAndSet(segment, addr >> 3, value);
+            };
+            default -> narrowRmw(segment, addr, width, op, 0, value, false);
+        };
+    }
+
+    /**
+     * Atomically replace the value at addr with replacement if it equals expected (wrapped to the access width).
+     * @return the previous value
+     */
+    public long atomicCmpxchg(long addr, int width, long expected, long replacement){
+        var segment = atomicSegment(addr, width);
+        recordWrite(addr, width);
+        return switch (width){
+            case 4 -> Integer.toUnsignedLong((int) ATOMIC_I32.compareAndExchange(segment, addr >> 2, (int) expected, (int) replacement));
+            case 8 -> (long) ATOMIC_I64.compareAndExchange(segment, addr >> 3, expected, replacement);
+            default -> narrowRmw(segment, addr, width, RMW_XCHG, expected, replacement, true);
+        };
+    }
+
+    protected long narrowRmw(MemorySegment segment, long addr, int width, int op, long expected, long value, boolean compare){
+        var wordAddr = addr & ~3L;
+        if(wordAddr + 4 > segment.byteSize()){
+            segment = ensureAccessible(wordAddr, 4);
+        }
+
+        var shift = (int) (addr - wordAddr) * 8;
+        var mask = width == 1 ? 0xFF : 0xFFFF;
+        while(true){
+            var word = (int) ATOMIC_I32.getVolatile(segment, wordAddr >> 2);
+            var old = (word >>> shift) & mask;
+            if(compare && old != ((int) expected & mask)){
+                return old;
+            }
+
+            var updated = switch (op){
+                case RMW_ADD -> old + (int) value;
+                case RMW_SUB -> old - (int) value;
+                case RMW_AND -> old & (int) value;
+                case RMW_OR -> old | (int) value;
+                case RMW_XOR -> old ^ (int) value;
+                default -> (int) value;
+            } & mask;
+
+            var newWord = (word & ~(mask << shift)) | (updated << shift);
+            if(ATOMIC_I32.compareAndSet(segment, wordAddr >> 2, word, newWord)){
+                return old;
+            }
+        }
+    }
+
+    protected static class Waiter {
+        boolean woken;
+    }
+
+    /**
+     * Suspend the calling thread until notified, if the value at addr equals expected.
+     * @param timeoutNanos the maximum time to wait, or a negative value to wait forever
+     * @return {@link #WAIT_OK}, {@link #WAIT_NOT_EQUAL}, or {@link #WAIT_TIMED_OUT}
+     */
+    public int atomicWait(long addr, int width, long expected, long timeoutNanos) throws InterruptedException {
+        if(!isShared()){
+            throw new TrapException("Cannot wait on a memory that is not shared");
+        }
+
+        var waiter = new Waiter();
+        while(true){
+            var queue = waiters.computeIfAbsent(addr, a -> new ArrayDeque<>());
+            synchronized (queue){
+                if(waiters.get(addr) != queue){
+                    // The queue emptied and was dropped before this thread locked it
+                    continue;
+                }
+                // Checking under the queue's lock means a notify after the value changes cannot be missed
+                if(atomicLoad(addr, width) != (width == 4 ? Integer.toUnsignedLong((int) expected) : expected)){
+                    dropIfEmpty(addr, queue);
+                    return WAIT_NOT_EQUAL;
+                }
+
+                queue.addLast(waiter);
+                try{
+                    var deadline = System.nanoTime() + timeoutNanos;
+                    while(!waiter.woken){
+                        if(timeoutNanos < 0){
+                            queue.wait();
+                        }else{
+                            var remaining = deadline - System.nanoTime();
+                            if(remaining <= 0){
+                                return WAIT_TIMED_OUT;
+                            }
+                            TimeUnit.NANOSECONDS.timedWait(queue, remaining);
+                        }
+                    }
+                    return WAIT_OK;
+                }finally{
+                    // A waiter that timed out or was interrupted is still queued, and must not absorb a notify
+                    if(!waiter.woken){
+                        queue.remove(waiter);
+                    }
+                    dropIfEmpty(addr, queue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the queue for addr once no thread waits in it. Must be called holding the queue's lock.
+     */
+    protected void dropIfEmpty(long addr, ArrayDeque<Waiter> queue){
+        if(queue.isEmpty()){
+            waiters.remove(addr, queue);
+        }
+    }
+
+    /**
+     * Wake up to count threads waiting on addr, in the order they began waiting.
+     * @return the number of threads woken
+     */
+    public int atomicNotify(long addr, int count){
+        atomicSegment(addr, 4);
+
+        var queue = waiters.get(addr);
+        if(queue == null){
+            return 0;
+        }
+
+        synchronized (queue){
+            var woken = 0;
+            while(Integer.compareUnsigned(woken, count) < 0 && !queue.isEmpty()){
+                queue.removeFirst().woken = true;
+                woken++;
             }
-            reallocate(addr);
-            memory.setAtIndex(WASM_F64, addr, value);
+            dropIfEmpty(addr, queue);
+            queue.notifyAll();
+            return woken;
+        }
+    }
+
+    /**
+     * Slow path for accesses that fall outside of the currently allocated segment. Depending on
+     * the allocation mode this either grows the allocation to cover the access or traps.
+     * @param addr the (unsigned) address being accessed
+     * @param width the width of the access in bytes
+     * @return a segment large enough to satisfy the access
+     */
+    protected MemorySegment ensureAccessible(long addr, long width){
+        var end = addr + width;
+        if(addr < 0 || end < 0 || end > maxBytes()){
+            throw new SegmentationException("Address 0x%08X is out of bounds (max 0x%08X)".formatted(addr, maxBytes()));
         }
+        reallocate(end);
+        return memory;
     }
 
-    protected synchronized void reallocate(int addr){
-        // reallocate memory to a size that accommodates this address,
+    protected synchronized void reallocate(long end){
+        // reallocate memory to a size that accommodates this access,
         // if the limits/allocation mode allow it
 
+        if(end <= memory.byteSize()){
+            // Another thread got here first
+            return;
+        }
+
+        if(allocationMode == AllocationMode.IMMEDIATE && end > (long) pages * PAGE_SIZE){
+            throw new SegmentationException("Address 0x%08X is out of bounds (size 0x%08X)".formatted(end - 1, (long) pages * PAGE_SIZE));
+        }
+
         var allocSize = allocationMode == AllocationMode.IMMEDIATE
                 ? (long) pages * PAGE_SIZE
-                : calculateOnDemandAllocation(addr);
+                : calculateOnDemandAllocation(end);
 
         if(growBytes(allocSize) == -1){
-            throw new SegmentationException("Cannot expand allocated memory: requested %d, maximum limit is %d".formatted(allocSize, limits.max() * PAGE_SIZE));
+            throw new SegmentationException("Cannot expand allocated memory: requested %d, maximum limit is %d".formatted(allocSize, maxBytes()));
         }
     }
 
@@ -246,24 +1036,116 @@ public class Memory {
         return pages;
     }
 
-    public int grow(int newPages){
-        return growBytes((long) newPages * PAGE_SIZE);
+    public int grow(int deltaPages){
+        if(deltaPages == 0){
+            return pages;
+        }
+        var newPages = (long) pages + Integer.toUnsignedLong(deltaPages);
+        if(newPages > Integer.MAX_VALUE){
+            return -1;
+        }
+        return growBytes(newPages * PAGE_SIZE);
+    }
+
+    /**
+     * memory64 form of {@link #grow(int)}.
+     * @param deltaPages the number of pages to add
+     * @return the previous size in pages, or -1 if the memory cannot grow by deltaPages
+     */
+    public long grow(long deltaPages){
+        if(deltaPages < 0 || deltaPages > Integer.MAX_VALUE){
+            return -1;
+        }
+        return grow((int) deltaPages);
     }
 
     public synchronized int growBytes(long byteSize){
+        if(image != null && byteSize > (long) pages * PAGE_SIZE){
+            // A frozen memory keeps the size its image was captured at
+            return -1;
+        }
+        // Without a max, the address space of the memory's index type still bounds it
+        if(byteSize > maxBytes()){
+            return -1;
+        }
         if(limits != null){
-            if(limits.hasMax() && limits.max() < byteSize * PAGE_SIZE){
+            byteSize = Math.max(byteSize, (long) limits.min() * PAGE_SIZE);
+        }
+
+        if(byteSize > memory.byteSize()){
+            // The governor is charged for everything the resize will allocate, spare capacity included
+            var charge = Math.max(0, committedSizeFor(byteSize) - governedBytes);
+            if(governor != null && !governor.commit(charge)){
                 return -1;
             }
-            byteSize = Math.max(byteSize, (long) limits.min() * PAGE_SIZE);
+            var newMemory = resize(byteSize);
+            if(newMemory == null){
+                if(governor != null){
+                    governor.release(charge);
+                }
+                return -1;
+            }
+            governedBytes += charge;
+            // The bitmap must cover the new segment before any write can reach it
+            if(dirty != null){
+                dirty = Arrays.copyOf(dirty, dirtyWords(newMemory.byteSize()));
+            }
+            // On-demand allocation of a frozen memory's pages (which read as zero) keeps it read-only
+            memory = image != null ? newMemory.asReadOnly() : newMemory;
+        }
+
+        var oldPages = pages;
+        pages = (int) Math.max(pages, (byteSize + PAGE_SIZE - 1) / PAGE_SIZE);
+        if(profile != null && pages != oldPages){
+            profile.recordGrowth(pages);
         }
 
-        var newAllocator = Arena.openShared();
-        var newMemory = newAllocator.allocate(byteSize, alignment);
-        newMemory.fill((byte)0);
+        return oldPages;
+    }
+
+    /**
+     * Produce a segment of (at least) byteSize bytes holding the current contents of memory,
+     * with any newly accessible bytes zeroed. The default strategy allocates a new segment
+     * and copies into it; subclasses may instead extend the existing segment in place.
+     * @param byteSize the new size of memory in bytes
+     * @return the new backing segment, or null if memory cannot be resized
+     */
+    /**
+     * @return the size of the allocation a copying {@link #resize(long)} to byteSize makes, as set by the growth policy
+     */
+    protected long capacitySizeFor(long byteSize){
+        if(growthPolicy == null){
+            return byteSize;
+        }
+        return Math.max(byteSize, Math.min(growthPolicy.capacityFor(capacity.byteSize(), byteSize), maxBytes()));
+    }
+
+    /**
+     * @return the {@link #getCommittedSize() committed size} of this memory once it has grown to byteSize,
+     * which the governor is charged for. Memories that allocate differently from {@link #resize(long)}
+     * override this along with it.
+     */
+    protected long committedSizeFor(long byteSize){
+        return capacity.byteSize() >= byteSize ? capacity.byteSize() : capacitySizeFor(byteSize);
+    }
+
+    protected MemorySegment resize(long byteSize){
+        // Bytes past the accessible size are never written, so spare capacity is still zeroed
+        if(capacity.byteSize() >= byteSize){
+            return capacity.asSlice(0, byteSize);
+        }
 
-        if(memory != null){
-            newMemory.copyFrom(memory);
+        var capacitySize = capacitySizeFor(byteSize);
+        var hugePages = shouldUseHugePages(capacitySize);
+        var newAllocator = openArena();
+        var newCapacity = newAllocator.allocate(capacitySize, hugePages ? Math.max(alignment, NativeMemory.HUGE_PAGE_SIZE) : alignment);
+        // Advise before zeroing, so that the first touch of each range faults in a huge page
+        hugePagesAdvised = hugePages && NativeMemory.adviseHugePages(newCapacity);
+        newCapacity.fill((byte)0);
+        newCapacity.copyFrom(memory);
+        if(memory.byteSize() > 0){
+            reallocations++;
+            bytesCopied += memory.byteSize();
         }
 
         if(allocator != null){
@@ -271,40 +1153,416 @@ public class Memory {
         }
 
         allocator = newAllocator;
-        memory = newMemory;
+        capacity = newCapacity;
+        return newCapacity.asSlice(0, byteSize);
+    }
 
-        var oldPages = pages;
-        pages = (int) (byteSize / PAGE_SIZE + 1);
+    /**
+     * @return the largest number of bytes this memory may ever hold
+     */
+    public long maxBytes(){
+        if(limits == null){
+            return (long) Limits.VALID_RANGE * PAGE_SIZE;
+        }
+        return (long) (limits.hasMax() ? limits.max() : limits.validRange()) * PAGE_SIZE;
+    }
 
-        return oldPages;
+    public MemoryGovernor getGovernor(){
+        return governor;
+    }
+
+    /**
+     * Account this memory's committed bytes against the governor's budget from now on. Any bytes
+     * the memory already holds are charged immediately.
+     * @param governor the governor to attach to
+     * @throws IllegalStateException if the memory already has a governor, or the budget cannot
+     * accommodate its current size
+     */
+    public synchronized void setGovernor(MemoryGovernor governor){
+        if(this.governor != null){
+            throw new IllegalStateException("Memory is already governed");
+        }
+        var current = getCommittedSize();
+        if(!governor.commit(current)){
+            throw new IllegalStateException("Memory budget of %d bytes cannot accommodate %d more".formatted(governor.getBudget(), current));
+        }
+        governor.attach(getReservedSize());
+        this.governor = governor;
+        governedBytes = current;
+    }
+
+    /**
+     * @return the address space reserved (but not necessarily committed) for this memory
+     */
+    public long getReservedSize(){
+        return 0;
+    }
+
+    /**
+     * @return the bytes of memory allocated to this memory, including any spare capacity
+     */
+    public long getCommittedSize(){
+        return Math.max(capacity.byteSize(), memory.byteSize());
+    }
+
+    /**
+     * @return the reserved, committed and (where the OS can report it) resident size of this memory
+     */
+    public MemoryStats stats(){
+        var segment = capacity.byteSize() > memory.byteSize() ? capacity : memory;
+        return new MemoryStats(Math.max(getReservedSize(), getCommittedSize()), getCommittedSize(), NativeMemory.residentBytes(segment));
+    }
+
+    /**
+     * Start tracking which pages of this memory are written, so that {@link #resetToCheckpoint()} and
+     * incremental {@link #checkpoint()}s only touch the pages that changed. Tracking is not supported
+     * for shared memories, since the bitmap is not updated atomically, and the memory must have been
+     * constructed instrumented.
+     * @param pageSize the granularity of tracking: a power of two from 4 KiB up to the 64 KiB wasm page size
+     */
+    public synchronized void trackDirtyPages(int pageSize){
+        if(Integer.bitCount(pageSize) != 1 || pageSize < 4096 || pageSize > PAGE_SIZE){
+            throw new IllegalArgumentException("Dirty page size must be a power of two between 4096 and %d, not %d".formatted(PAGE_SIZE, pageSize));
+        }
+        if(isShared()){
+            throw new IllegalStateException("Dirty page tracking is not supported for shared memories");
+        }
+        if(!instrumented){
+            throw new IllegalStateException("Dirty page tracking requires a memory constructed as instrumented");
+        }
+        dirtyShift = Integer.numberOfTrailingZeros(pageSize);
+        dirty = new long[dirtyWords(memory.byteSize())];
+    }
+
+    public boolean isInstrumented(){
+        return instrumented;
+    }
+
+    public boolean isTrackingDirtyPages(){
+        return dirty != null;
+    }
+
+    /**
+     * @return the size in bytes of the pages tracked by {@link #dirtyPages()}
+     */
+    public int getDirtyPageSize(){
+        return 1 << dirtyShift;
+    }
+
+    /**
+     * Start counting reads and writes to each page of this memory. Profiling is meant for sizing and
+     * diagnosis rather than production use: every access pays for a counter update. The memory must
+     * have been constructed instrumented.
+     * @return the profile collecting this memory's accesses
+     */
+    public synchronized AccessProfile enableAccessProfiling(){
+        if(!instrumented){
+            throw new IllegalStateException("Access profiling requires a memory constructed as instrumented");
+        }
+        if(profile == null){
+            var initialPages = (int) Math.max(pages, (memory.byteSize() + PAGE_SIZE - 1) / PAGE_SIZE);
+            profile = new AccessProfile(initialPages);
+        }
+        return profile;
+    }
+
+    /**
+     * @return the profile collecting this memory's accesses, or null if profiling is not enabled
+     */
+    public AccessProfile getAccessProfile(){
+        return profile;
+    }
+
+    protected void recordRead(long addr, long width){
+        if(!instrumented){
+            return;
+        }
+        var p = profile;
+        if(p != null){
+            p.recordReads(addr, width);
+        }
+    }
+
+    protected void recordWrite(long addr, long width){
+        if(!instrumented){
+            return;
+        }
+        markDirty(addr, width);
+        var p = profile;
+        if(p != null){
+            p.recordWrites(addr, width);
+        }
+    }
+
+    /**
+     * Record a write of width bytes at addr. Called by every store path (and by generated code
+     * that stores to the segment directly); the range must already be within the segment.
+     */
+    public void markDirty(long addr, long width){
+        var bits = dirty;
+        if(bits == null || width <= 0){
+            return;
+        }
+        var last = (addr + width - 1) >>> dirtyShift;
+        for(var page = addr >>> dirtyShift; page <= last; page++){
+            bits[(int) (page >>> 6)] |= 1L << page;
+        }
+    }
+
+    /**
+     * @return the indices (in units of {@link #getDirtyPageSize()}) of pages written since the last checkpoint
+     */
+    public BitSet dirtyPages(){
+        requireDirtyTracking();
+        return BitSet.valueOf(dirty);
+    }
+
+    /**
+     * Record the current contents of memory as the state to return to on {@link #resetToCheckpoint()}.
+     * The first checkpoint (or the first after the memory has grown) copies the whole memory; later
+     * ones copy only the pages dirtied since the previous checkpoint.
+     */
+    public synchronized void checkpoint(){
+        requireDirtyTracking();
+        var segment = memory;
+        if(checkpoint == null || checkpoint.byteSize() < segment.byteSize()){
+            var newAllocator = openArena();
+            var newCheckpoint = newAllocator.allocate(Math.max(segment.byteSize(), 1), alignment);
+            newCheckpoint.copyFrom(segment);
+            if(checkpointAllocator != null){
+                checkpointAllocator.close();
+            }
+            checkpointAllocator = newAllocator;
+            checkpoint = newCheckpoint;
+        }else{
+            var pages = dirtyPages();
+            for(var page = pages.nextSetBit(0); page >= 0; page = pages.nextSetBit(page + 1)){
+                var start = (long) page << dirtyShift;
+                var len = Math.min(getDirtyPageSize(), segment.byteSize() - start);
+                MemorySegment.copy(segment, start, checkpoint, start, len);
+            }
+        }
+        Arrays.fill(dirty, 0);
+    }
+
+    /**
+     * Restore the contents of memory as of the last {@link #checkpoint()}, copying back only the pages
+     * dirtied since then. Memory does not shrink: pages added by growth since the checkpoint are zeroed.
+     */
+    public synchronized void resetToCheckpoint(){
+        requireDirtyTracking();
+        if(checkpoint == null){
+            throw new IllegalStateException("No checkpoint has been taken");
+        }
+        var segment = memory;
+        var pages = dirtyPages();
+        for(var page = pages.nextSetBit(0); page >= 0; page = pages.nextSetBit(page + 1)){
+            var start = (long) page << dirtyShift;
+            var len = Math.min(getDirtyPageSize(), segment.byteSize() - start);
+            var saved = Math.max(0, Math.min(len, checkpoint.byteSize() - start));
+            if(saved > 0){
+                MemorySegment.copy(checkpoint, start, segment, start, saved);
+            }
+            if(saved < len){
+                segment.asSlice(start + saved, len - saved).fill((byte) 0);
+            }
+        }
+        Arrays.fill(dirty, 0);
+    }
+
+    protected void requireDirtyTracking(){
+        if(dirty == null){
+            throw new IllegalStateException("Dirty page tracking is not enabled");
+        }
+    }
+
+    protected int dirtyWords(long byteSize){
+        var trackedPages = (byteSize + (1L << dirtyShift) - 1) >>> dirtyShift;
+        return (int) ((trackedPages + 63) >>> 6);
+    }
+
+    /**
+     * Freeze the current contents of this memory as the template for {@link #fork()}. The image is
+     * captured once, so that every fork starts from the same contents, and from then on this memory
+     * is read-only: writes throw {@link UnsupportedOperationException} and it cannot grow. A frozen
+     * memory therefore always agrees with the image its forks share.
+     * @return the image backing forks of this memory
+     */
+    public synchronized MemoryImage freeze(){
+        if(image == null){
+            image = MemoryImage.capture(this);
+            memory = memory.asReadOnly();
+        }
+        return image;
+    }
+
+    public boolean isFrozen(){
+        return image != null;
+    }
+
+    /**
+     * Create a copy of this memory (as of when it was frozen) that shares its pages until they are written.
+     * @return the forked memory
+     */
+    public Memory fork(){
+        return fork(false);
+    }
+
+    /**
+     * As {@link #fork()}, for a fork that may track dirty pages or profile accesses.
+     * @param instrumented whether the fork is constructed instrumented (see {@link #Memory(Limits, boolean)})
+     * @return the forked memory
+     */
+    public Memory fork(boolean instrumented){
+        return freeze().fork(instrumented);
+    }
+
+    /**
+     * Write the size and contents of this memory to out. Contents are stored sparsely: wasm pages
+     * that are entirely zero are skipped, as is everything past the allocated segment.
+     * @param out the stream to write to
+     */
+    public synchronized void save(DataOutput out) throws IOException {
+        var segment = memory;
+        out.writeInt(pages);
+        out.writeLong(segment.byteSize());
+
+        var zeros = MemorySegment.ofArray(new byte[PAGE_SIZE]);
+        var buffer = new byte[PAGE_SIZE];
+        for(long offset = 0; offset < segment.byteSize(); offset += PAGE_SIZE){
+            var len = (int) Math.min(PAGE_SIZE, segment.byteSize() - offset);
+            var page = segment.asSlice(offset, len);
+            if(page.mismatch(zeros.asSlice(0, len)) == -1){
+                continue;
+            }
+            MemorySegment.copy(page, WASM_I8, 0, buffer, 0, len);
+            out.writeLong(offset);
+            out.writeInt(len);
+            out.write(buffer, 0, len);
+        }
+        out.writeLong(-1);
+    }
+
+    /**
+     * Replace the contents of this memory with those written by {@link #save(DataOutput)}, growing
+     * it to the saved size. Pages not present in the saved form are zeroed.
+     * @param in the stream to read from
+     * @throws IllegalStateException if this memory is already larger than the saved one
+     */
+    public synchronized void restore(DataInput in) throws IOException {
+        var savedPages = in.readInt();
+        var savedBytes = in.readLong();
+        if(savedPages < pages){
+            throw new IllegalStateException("Cannot restore %d pages into a memory of %d pages".formatted(savedPages, pages));
+        }
+        if(savedPages > pages && grow(savedPages - pages) == -1){
+            throw new IllegalStateException("Cannot grow memory to %d pages".formatted(savedPages));
+        }
+        if(savedBytes > 0){
+            segmentFor(0, savedBytes);
+        }
+        fill(0, 0, memory.byteSize());
+
+        var buffer = new byte[PAGE_SIZE];
+        for(var offset = in.readLong(); offset != -1; offset = in.readLong()){
+            var len = in.readInt();
+            in.readFully(buffer, 0, len);
+            bulkWrite(offset, buffer, 0, len);
+        }
+    }
+
+    @Override
+    public synchronized void close(){
+        if(governor != null){
+            governor.release(governedBytes);
+            governor.detach(getReservedSize());
+            governor = null;
+            governedBytes = 0;
+        }
+        if(image != null){
+            image.close();
+            image = null;
+        }
+        if(checkpointAllocator != null){
+            checkpointAllocator.close();
+            checkpointAllocator = null;
+            checkpoint = null;
+        }
+        if(allocator != null){
+            allocator.close();
+            allocator = null;
+        }
+        memory = MemorySegment.NULL;
+        capacity = MemorySegment.NULL;
     }
 
-    protected long calculateOnDemandAllocation(int addr){
-        long count = addr / paddingSize + 1; // number of "paddingSize" segments we must have
-        return count * paddingSize;
+    protected long calculateOnDemandAllocation(long end){
+        long count = (end + paddingSize - 1) / paddingSize; // number of "paddingSize" segments we must have
+        return Math.min(count * paddingSize, maxBytes());
     }
 
+    /**
+     * Adds a memarg offset to a memory64 address. Both are unsigned, so a sum that wraps around is
+     * an address beyond any memory, and traps rather than accessing a low address.
+     * @param addr the (unsigned) address operand
+     * @param offset the (unsigned) static offset
+     * @return the effective address
+     */
+    public static long effectiveAddress(long addr, long offset){
+        var effective = addr + offset;
+        if(Long.compareUnsigned(effective, addr) < 0){
+            throw new SegmentationException("Address 0x%016X + 0x%X is out of bounds".formatted(addr, offset));
+        }
+        return effective;
+    }
+
+    // The i32 helpers widen the address and offset before adding them, as the sum can exceed 32 bits
+
     public static void staticWriteI8(int baseAddr, byte value, Memory mem, int offsetAddr){
-        mem.writeI8(baseAddr + offsetAddr, value);
+        mem.writeI8(Integer.toUnsignedLong(baseAddr) + Integer.toUnsignedLong(offsetAddr), value);
     }
 
     public static void staticWriteI16(int baseAddr, short value, Memory mem, int offsetAddr){
-        mem.writeI16(baseAddr + offsetAddr, value);
+        mem.writeI16(Integer.toUnsignedLong(baseAddr) + Integer.toUnsignedLong(offsetAddr), value);
     }
 
     public static void staticWriteI32(int baseAddr, int value, Memory mem, int offsetAddr){
-        mem.writeI32(baseAddr + offsetAddr, value);
+        mem.writeI32(Integer.toUnsignedLong(baseAddr) + Integer.toUnsignedLong(offsetAddr), value);
     }
 
     public static void staticWriteI64(int baseAddr, long value, Memory mem, int offsetAddr){
-        mem.writeI64(baseAddr + offsetAddr, value);
+        mem.writeI64(Integer.toUnsignedLong(baseAddr) + Integer.toUnsignedLong(offsetAddr), value);
     }
 
     public static void staticWriteF32(int baseAddr, float value, Memory mem, int offsetAddr){
-        mem.writeF32(baseAddr + offsetAddr, value);
+        mem.writeF32(Integer.toUnsignedLong(baseAddr) + Integer.toUnsignedLong(offsetAddr), value);
     }
 
     public static void staticWriteF64(int baseAddr, double value, Memory mem, int offsetAddr){
-        mem.writeF64(baseAddr + offsetAddr, value);
+        mem.writeF64(Integer.toUnsignedLong(baseAddr) + Integer.toUnsignedLong(offsetAddr), value);
+    }
+
+    public static void staticWriteI8(long baseAddr, byte value, Memory mem, long offsetAddr){
+        mem.writeI8(effectiveAddress(baseAddr, offsetAddr), value);
+    }
+
+    public static void staticWriteI16(long baseAddr, short value, Memory mem, long offsetAddr){
+        mem.writeI16(effectiveAddress(baseAddr, offsetAddr), value);
+    }
+
+    public static void staticWriteI32(long baseAddr, int value, Memory mem, long offsetAddr){
+        mem.writeI32(effectiveAddress(baseAddr, offsetAddr), value);
+    }
+
+    public static void staticWriteI64(long baseAddr, long value, Memory mem, long offsetAddr){
+        mem.writeI64(effectiveAddress(baseAddr, offsetAddr), value);
+    }
+
+    public static void staticWriteF32(long baseAddr, float value, Memory mem, long offsetAddr){
+        mem.writeF32(effectiveAddress(baseAddr, offsetAddr), value);
+    }
+
+    public static void staticWriteF64(long baseAddr, double value, Memory mem, long offsetAddr){
+        mem.writeF64(effectiveAddress(baseAddr, offsetAddr), value);
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces a budget on the native memory committed by all of the memories it is attached to
+ * (see {@link WasmConfig#setMemoryGovernor(MemoryGovernor)}). Growth that would exceed the budget
+ * fails - memory.grow returns -1, and on-demand growth traps - unless capacity is released by
+ * another memory within the configured wait time.
+ * <p>
+ * Committed bytes are what the memories have allocated (see {@link Memory#getCommittedSize()}),
+ * including spare capacity held back by a {@link GrowthPolicy} or a pool's size classes. Address
+ * space that a memory has only reserved (see
+ * {@link ReservedMemory}) is counted separately, and does not count against the budget.
+ */
+public class MemoryGovernor {
+
+    protected final long budget;
+    protected final long maxWaitNanos;
+
+    protected long committed;
+    protected long peakCommitted;
+    protected long reserved;
+    protected long memories;
+    protected long waits;
+    protected long denials;
+
+    /**
+     * Create a governor that fails growth as soon as the budget is exhausted.
+     * @param budget the maximum number of bytes that may be committed at once
+     */
+    public MemoryGovernor(long budget){
+        this(budget, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param budget the maximum number of bytes that may be committed at once
+     * @param maxWait how long growth may wait for capacity to be released before failing
+     * @param unit the unit of maxWait
+     */
+    public MemoryGovernor(long budget, long maxWait, TimeUnit unit){
+        this.budget = budget;
+        maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * Charge bytes against the budget, waiting for capacity if necessary.
+     * @param bytes the number of bytes to commit
+     * @return true if the bytes were charged, false if the budget could not accommodate them in time
+     */
+    public synchronized boolean commit(long bytes){
+        if(bytes > budget - committed && bytes <= budget && maxWaitNanos > 0){
+            waits++;
+            var deadline = System.nanoTime() + maxWaitNanos;
+            var remaining = maxWaitNanos;
+            while(bytes > budget - committed && remaining > 0){
+                try{
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+        }
+
+        if(bytes > budget - committed){
+            denials++;
+            return false;
+        }
+        committed += bytes;
+        peakCommitted = Math.max(peakCommitted, committed);
+        return true;
+    }
+
+    /**
+     * Return previously committed bytes to the budget, waking any growth waiting for capacity.
+     */
+    public synchronized void release(long bytes){
+        committed -= bytes;
+        notifyAll();
+    }
+
+    protected synchronized void attach(long reservedBytes){
+        memories++;
+        reserved += reservedBytes;
+    }
+
+    protected synchronized void detach(long reservedBytes){
+        memories--;
+        reserved -= reservedBytes;
+    }
+
+    public long getBudget(){
+        return budget;
+    }
+
+    public synchronized long getCommittedBytes(){
+        return committed;
+    }
+
+    public synchronized long getAvailableBytes(){
+        return budget - committed;
+    }
+
+    public synchronized long getPeakCommittedBytes(){
+        return peakCommitted;
+    }
+
+    public synchronized long getReservedBytes(){
+        return reserved;
+    }
+
+    public synchronized long getMemoryCount(){
+        return memories;
+    }
+
+    /**
+     * @return the number of times growth had to wait for capacity
+     */
+    public synchronized long getWaits(){
+        return waits;
+    }
+
+    /**
+     * @return the number of times growth was refused for lack of capacity
+     */
+    public synchronized long getDenials(){
+        return denials;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A frozen snapshot of a memory's contents, held in an (unlinked) temporary file. Memories forked
+ * from an image map the file privately, so they share its pages until they first write to them,
+ * at which point the OS copies just the written page.
+ */
+public class MemoryImage implements AutoCloseable {
+
+    protected final Limits limits;
+    protected final int pages;
+    protected final long byteSize;
+    protected final long paddingSize;
+    protected final int alignment;
+    protected final Memory.AllocationMode allocationMode;
+    protected final FileChannel channel;
+
+    protected MemoryImage(Memory memory, FileChannel channel){
+        limits = memory.getLimits();
+        pages = memory.size();
+        byteSize = memory.segment().byteSize();
+        paddingSize = memory.getPaddingSize();
+        alignment = memory.getAlignmentConstraint();
+        allocationMode = memory.getAllocationMode();
+        this.channel = channel;
+    }
+
+    /**
+     * Copy the current contents of memory into a new image.
+     * @param memory the memory to snapshot
+     * @return the image
+     */
+    public static MemoryImage capture(Memory memory){
+        try{
+            var file = Files.createTempFile("wasm-memory", ".img");
+            var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+
+            var contents = memory.segment();
+            if(contents.byteSize() > 0){
+                try(var arena = Arena.openConfined()){
+                    var mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, contents.byteSize(), arena.scope());
+                    mapped.copyFrom(contents);
+                }
+            }
+
+            return new MemoryImage(memory, channel);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getByteSize(){
+        return byteSize;
+    }
+
+    /**
+     * @return a new memory with the contents of this image, sharing its pages until written
+     */
+    public Memory fork(){
+        return fork(false);
+    }
+
+    /**
+     * @param instrumented whether the memory is constructed instrumented (see {@link Memory#Memory(Limits, boolean)})
+     * @return a new memory with the contents of this image, sharing its pages until written
+     */
+    public Memory fork(boolean instrumented){
+        return new CopyOnWriteMemory(this, instrumented);
+    }
+
+    protected MemorySegment map(Arena arena){
+        if(byteSize == 0){
+            return MemorySegment.NULL;
+        }
+        try{
+            return channel.map(FileChannel.MapMode.PRIVATE, 0, byteSize, arena.scope());
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close(){
+        // Memories already forked from this image keep their mappings
+        try{
+            channel.close();
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recycles the native segments backing linear memories, so that short-lived instances do not pay
+ * for opening (and, more importantly, closing) a shared arena each time they allocate or grow.
+ * Segments are pooled by power-of-two size class, starting at one wasm page. Released segments are
+ * zeroed before they are handed out again - either on the supplied executor in the background, or
+ * lazily by the thread that acquires them.
+ */
+public class MemoryPool implements AutoCloseable {
+
+    public record PooledSegment(Arena arena, MemorySegment segment, int sizeClass){}
+
+    protected static final int MIN_CLASS_SHIFT = 16; // 64 KiB, one wasm page
+    protected static final int CLASS_COUNT = 64 - MIN_CLASS_SHIFT;
+
+    protected final long maxPooledBytes;
+    protected final int alignment;
+    protected final Executor zeroingExecutor;
+
+    protected final ConcurrentLinkedDeque<PooledSegment>[] clean;
+    protected final ConcurrentLinkedDeque<PooledSegment>[] dirty;
+    protected final AtomicLong pooledBytes;
+
+    protected final LongAdder hits;
+    protected final LongAdder misses;
+    protected final LongAdder evictions;
+
+    protected volatile boolean closed;
+
+    /**
+     * Create a pool that zeroes released segments lazily, on their next acquisition.
+     * @param maxPooledBytes the maximum number of bytes the pool will retain while idle
+     */
+    public MemoryPool(long maxPooledBytes){
+        this(maxPooledBytes, null);
+    }
+
+    /**
+     * @param maxPooledBytes the maximum number of bytes the pool will retain while idle
+     * @param zeroingExecutor executor used to zero released segments in the background, or null to zero lazily
+     */
+    @SuppressWarnings("unchecked")
+    public MemoryPool(long maxPooledBytes, Executor zeroingExecutor){
+        this.maxPooledBytes = maxPooledBytes;
+        this.zeroingExecutor = zeroingExecutor;
+        alignment = Memory.DEFAULT_ALIGNMENT;
+
+        clean = new ConcurrentLinkedDeque[CLASS_COUNT];
+        dirty = new ConcurrentLinkedDeque[CLASS_COUNT];
+        for(int i = 0; i < CLASS_COUNT; i++){
+            clean[i] = new ConcurrentLinkedDeque<>();
+            dirty[i] = new ConcurrentLinkedDeque<>();
+        }
+        pooledBytes = new AtomicLong();
+
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+    }
+
+    public static int sizeClass(long byteSize){
+        if(byteSize <= 1L << MIN_CLASS_SHIFT){
+            return 0;
+        }
+        return 64 - Long.numberOfLeadingZeros(byteSize - 1) - MIN_CLASS_SHIFT;
+    }
+
+    public static long classSize(int sizeClass){
+        return 1L << (sizeClass + MIN_CLASS_SHIFT);
+    }
+
+    /**
+     * @param byteSize the minimum size of the segment
+     * @return a zeroed segment of at least byteSize bytes
+     */
+    public PooledSegment acquire(long byteSize){
+        var sizeClass = sizeClass(byteSize);
+
+        var pooled = clean[sizeClass].pollFirst();
+        if(pooled == null){
+            pooled = dirty[sizeClass].pollFirst();
+            if(pooled != null){
+                pooled.segment().fill((byte) 0);
+            }
+        }
+
+        if(pooled != null){
+            pooledBytes.addAndGet(-pooled.segment().byteSize());
+            hits.increment();
+            return pooled;
+        }
+
+        misses.increment();
+        var arena = Arena.openShared();
+        var segment = arena.allocate(classSize(sizeClass), alignment);
+        segment.fill((byte) 0);
+        return new PooledSegment(arena, segment, sizeClass);
+    }
+
+    /**
+     * Return a segment to the pool. If the pool is full (or closed) the segment is freed instead.
+     * @param pooled a segment previously acquired from this pool
+     */
+    public void release(PooledSegment pooled){
+        var size = pooled.segment().byteSize();
+        if(closed || pooledBytes.addAndGet(size) > maxPooledBytes){
+            pooledBytes.addAndGet(-size);
+            evictions.increment();
+            pooled.arena().close();
+            return;
+        }
+
+        if(zeroingExecutor != null){
+            try{
+                zeroingExecutor.execute(() -> {
+                    if(closed){
+                        evict(pooled);
+                        return;
+                    }
+                    pooled.segment().fill((byte) 0);
+                    offer(clean[pooled.sizeClass()], pooled);
+                });
+            }catch(RejectedExecutionException e){
+                evict(pooled);
+            }
+        }else{
+            offer(dirty[pooled.sizeClass()], pooled);
+        }
+    }
+
+    /**
+     * Pool a released segment. A close() that has already drained the deque would never see it, so
+     * when the pool has closed in the meantime the deque is drained again here.
+     */
+    protected void offer(ConcurrentLinkedDeque<PooledSegment> segments, PooledSegment pooled){
+        segments.offerFirst(pooled);
+        if(closed){
+            drain(segments);
+        }
+    }
+
+    protected void evict(PooledSegment pooled){
+        pooledBytes.addAndGet(-pooled.segment().byteSize());
+        evictions.increment();
+        pooled.arena().close();
+    }
+
+    public long getMaxPooledBytes(){
+        return maxPooledBytes;
+    }
+
+    public long getPooledBytes(){
+        return pooledBytes.get();
+    }
+
+    public long getHits(){
+        return hits.sum();
+    }
+
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    public long getEvictions(){
+        return evictions.sum();
+    }
+
+    @Override
+    public void close(){
+        closed = true;
+        for(int i = 0; i < CLASS_COUNT; i++){
+            drain(clean[i]);
+            drain(dirty[i]);
+        }
+    }
+
+    protected void drain(ConcurrentLinkedDeque<PooledSegment> segments){
+        PooledSegment pooled;
+        while((pooled = segments.pollFirst()) != null){
+            pooledBytes.addAndGet(-pooled.segment().byteSize());
+            pooled.arena().close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+/**
+ * A snapshot of the footprint of a memory.
+ * @param reservedBytes the address space set aside for the memory, which is at least the committed size
+ * @param committedBytes the bytes allocated to (or committed for) the memory
+ * @param residentBytes the bytes of the committed range currently backed by physical memory,
+ *                      or -1 if the OS cannot report residency
+ */
+public record MemoryStats(long reservedBytes, long committedBytes, long residentBytes) {
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * A memory backed by segments borrowed from a {@link MemoryPool}. Growth within the current
+ * segment's size class needs no copy at all; crossing a size class copies into a larger pooled
+ * segment and returns the old one. Closing the memory returns its segment to the pool.
+ */
+public class PooledMemory extends Memory {
+
+    protected final MemoryPool pool;
+    protected MemoryPool.PooledSegment pooled;
+
+    public PooledMemory(Limits limits, MemoryPool pool){
+        this(limits, pool, false);
+    }
+
+    public PooledMemory(Limits limits, MemoryPool pool, boolean instrumented){
+        super(limits, instrumented);
+        this.pool = pool;
+    }
+
+    public MemoryPool getPool(){
+        return pool;
+    }
+
+    @Override
+    public long getCommittedSize(){
+        var segment = pooled;
+        return segment != null ? segment.segment().byteSize() : memory.byteSize();
+    }
+
+    @Override
+    protected long committedSizeFor(long byteSize){
+        var segment = pooled;
+        if(segment != null && segment.segment().byteSize() >= byteSize){
+            return segment.segment().byteSize();
+        }
+        return MemoryPool.classSize(MemoryPool.sizeClass(byteSize));
+    }
+
+    @Override
+    protected MemorySegment resize(long byteSize){
+        if(pooled == null || pooled.segment().byteSize() < byteSize){
+            var next = pool.acquire(byteSize);
+            next.segment().copyFrom(memory);
+            if(pooled != null){
+                reallocations++;
+                bytesCopied += memory.byteSize();
+                pool.release(pooled);
+            }
+            pooled = next;
+        }
+        return pooled.segment().asSlice(0, byteSize);
+    }
+
+    @Override
+    public synchronized void close(){
+        super.close();
+        if(pooled != null){
+            pool.release(pooled);
+            pooled = null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import com.myworldvw.wasm.util.NativeMemory;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * A memory that reserves its entire addressable range (the declared maximum, capped
+ * by a configurable page count) when first allocated, and commits pages to that
+ * reservation as it grows. The base address of the backing segment never moves, so
+ * growing never copies existing contents and costs only the newly committed pages.
+ * <p>
+ * Reservation relies on {@link NativeMemory}, so callers should check {@link #isSupported()}
+ * and fall back to {@link Memory} on platforms where it is unavailable.
+ */
+public class ReservedMemory extends Memory {
+
+    protected final long reservedSize;
+    protected MemorySegment reservation;
+    protected long committed;
+
+    public ReservedMemory(Limits limits, int maxPages){
+        this(limits, maxPages, false);
+    }
+
+    public ReservedMemory(Limits limits, int maxPages, boolean instrumented){
+        super(limits, instrumented);
+        var declaredMax = limits == null ? Limits.VALID_RANGE : limits.hasMax() ? limits.max() : limits.validRange();
+        reservedSize = (long) Math.min(declaredMax, maxPages) * PAGE_SIZE;
+    }
+
+    public static boolean isSupported(){
+        return NativeMemory.isSupported();
+    }
+
+    @Override
+    public long getReservedSize(){
+        return reservedSize;
+    }
+
+    @Override
+    public long getCommittedSize(){
+        return committed;
+    }
+
+    @Override
+    protected long committedSizeFor(long byteSize){
+        return Math.max(committed, NativeMemory.roundToOsPage(byteSize));
+    }
+
+    @Override
+    public MemoryStats stats(){
+        var resident = reservation == null ? 0 : NativeMemory.residentBytes(reservation.asSlice(0, committed));
+        return new MemoryStats(reservedSize, committed, resident);
+    }
+
+    @Override
+    protected void releasePages(MemorySegment segment, long addr, long len){
+        // The reservation is a private anonymous mapping, so released pages read back as zeros.
+        // Only the partial OS pages at either end need to be zeroed by hand.
+        var range = segment.asSlice(addr, len);
+        var released = NativeMemory.release(range);
+        if(released == 0){
+            range.fill((byte) 0);
+            return;
+        }
+        var head = NativeMemory.roundToOsPage(range.address()) - range.address();
+        range.asSlice(0, head).fill((byte) 0);
+        range.asSlice(head + released).fill((byte) 0);
+    }
+
+    @Override
+    public long maxBytes(){
+        return reservedSize;
+    }
+
+    @Override
+    protected MemorySegment resize(long byteSize){
+        if(byteSize > reservedSize){
+            return null;
+        }
+
+        if(reservation == null){
+            allocator = openArena();
+            var hugePages = shouldUseHugePages(reservedSize);
+            // Over-reserve by a huge page so that the usable range can start on a 2 MiB boundary
+            var reserved = NativeMemory.reserve(hugePages ? reservedSize + NativeMemory.HUGE_PAGE_SIZE : reservedSize, allocator);
+            if(hugePages){
+                var base = (reserved.address() + NativeMemory.HUGE_PAGE_SIZE - 1) & -NativeMemory.HUGE_PAGE_SIZE;
+                reserved = reserved.asSlice(base - reserved.address(), reservedSize);
+                hugePagesAdvised = NativeMemory.adviseHugePages(reserved);
+            }
+            reservation = reserved;
+        }
+
+        var commitTo = NativeMemory.roundToOsPage(byteSize);
+        if(commitTo > committed){
+            NativeMemory.commit(reservation, committed, commitTo - committed);
+            committed = commitTo;
+        }
+
+        return reservation.asSlice(0, byteSize);
+    }
+
+    @Override
+    public synchronized void close(){
+        super.close();
+        reservation = null;
+        committed = 0;
+    }
+}
@@ -17,7 +17,7 @@
 
 package com.myworldvw.wasm;
 
-public class SegmentationException extends RuntimeException {
+public class SegmentationException extends TrapException {
 
     public SegmentationException(String msg){
         super(msg);
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import com.myworldvw.wasm.util.NativeMemory;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * A memory that may be accessed by several threads at once (the threads proposal's shared memories).
+ * The backing segment is sized for the declared maximum up front - reserved and committed on demand
+ * where {@link NativeMemory} is available, otherwise fully allocated - so growth never moves or frees
+ * memory that another thread may still be reading through an older (smaller) view of the segment.
+ * Accesses never allocate: anything beyond the current size traps, and the fast path takes no locks.
+ */
+public class SharedMemory extends ReservedMemory {
+
+    public SharedMemory(Limits limits, int maxPages){
+        this(limits, maxPages, false);
+    }
+
+    public SharedMemory(Limits limits, int maxPages, boolean instrumented){
+        super(limits, maxPages, instrumented);
+        if(limits == null || !limits.hasMax()){
+            throw new IllegalArgumentException("Shared memories must declare a maximum size");
+        }
+        allocationMode = AllocationMode.IMMEDIATE;
+        growBytes((long) pages * PAGE_SIZE);
+    }
+
+    @Override
+    public boolean isShared(){
+        return true;
+    }
+
+    @Override
+    protected long committedSizeFor(long byteSize){
+        // Without native reservation, the whole maximum is allocated up front
+        return NativeMemory.isSupported() ? super.committedSizeFor(byteSize) : reservedSize;
+    }
+
+    @Override
+    protected MemorySegment resize(long byteSize){
+        if(NativeMemory.isSupported()){
+            return super.resize(byteSize);
+        }
+
+        if(byteSize > reservedSize){
+            return null;
+        }
+
+        if(reservation == null){
+            allocator = Arena.openShared();
+            reservation = allocator.allocate(reservedSize, alignment);
+            reservation.fill((byte) 0);
+            committed = reservedSize;
+        }
+        return reservation.asSlice(0, byteSize);
+    }
+
+    @Override
+    protected MemorySegment ensureAccessible(long addr, long width){
+        // Another thread may have grown the memory since the caller read it
+        var segment = memory;
+        if(addr >= 0 && addr + width <= segment.byteSize()){
+            return segment;
+        }
+        throw new SegmentationException("Address 0x%08X is out of bounds (size 0x%08X)".formatted(addr, segment.byteSize()));
+    }
+}
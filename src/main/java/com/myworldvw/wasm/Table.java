@@ -18,12 +18,29 @@
 package com.myworldvw.wasm;
 
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Table {
 
+    // Canonical ids of function types. Wasm function types map one to one onto JVM method types,
+    // so structurally equal function types share an id, whichever module they come from.
+    protected static final Map<MethodType, Integer> typeIds = new ConcurrentHashMap<>();
+    protected static final AtomicInteger nextTypeId = new AtomicInteger();
+
     protected MethodHandle[] entries;
+    // Each entry is also held as a target taking the instance it runs in as a leading Object, and that
+    // instance. Targets of a module's functions are shared by all its instances, so call_indirect sites
+    // (which every instance of a module shares) can cache them without holding on to any one instance.
+    protected MethodHandle[] targets;
+    protected Object[] receivers;
+    // The canonical type id of each entry, checked by call_indirect
+    protected int[] entryTypes;
     protected final Optional<Integer> maxSize;
 
     public Table(){
@@ -39,8 +56,25 @@ public class Table {
     }
 
     public void set(int id, MethodHandle handle){
+        set(id, handle, handle != null ? MethodHandles.dropArguments(handle, 0, Object.class) : null, null);
+    }
+
+    /**
+     * Set an entry to a function of a module instance.
+     * @param id the index of the entry
+     * @param target the function, taking the instance as a leading Object (see {@link WasmContext#getFunctionTarget})
+     * @param receiver the instance
+     */
+    public void set(int id, MethodHandle target, Object receiver){
+        set(id, target != null ? target.bindTo(receiver) : null, target, receiver);
+    }
+
+    protected void set(int id, MethodHandle handle, MethodHandle target, Object receiver){
         ensureSize(id);
         entries[id] = handle;
+        targets[id] = target;
+        receivers[id] = receiver;
+        entryTypes[id] = handle != null ? typeId(handle.type()) : -1;
     }
 
     public void setAll(int startId, MethodHandle[] handles){
@@ -51,11 +85,65 @@ public class Table {
         }
     }
 
+    public void setAll(int startId, MethodHandle[] targets, Object receiver){
+        for(int i = targets.length - 1; i >= 0; i--){
+            set(startId + i, targets[i], receiver);
+        }
+    }
+
     public MethodHandle get(int id){
         ensureSize(id);
         return entries[id];
     }
 
+    /**
+     * Get an entry for a call_indirect, which traps if it is not a function of the expected type.
+     * @param id the index of the entry
+     * @param typeId the canonical id of the call's function type
+     * @return the function at that index
+     */
+    public MethodHandle get(int id, int typeId){
+        if(target(id) == null){
+            throw new TrapException("Uninitialized element %d".formatted(id));
+        }
+        if(entryTypes[id] != typeId){
+            throw new TrapException("Indirect call type mismatch: element %d is %s".formatted(id, entries[id].type()));
+        }
+        return entries[id];
+    }
+
+    /**
+     * @return the target of the entry at {@code id}, which may be null. Unlike {@link #get(int)} this
+     * does not grow the table, but traps if {@code id} is out of bounds.
+     */
+    public MethodHandle target(int id){
+        if(entries == null || id < 0 || id >= entries.length){
+            throw new TrapException("Undefined element %d".formatted(id));
+        }
+        return targets[id];
+    }
+
+    /**
+     * @return the instance the entry at {@code id} runs in, to pass to its {@link #target(int)}
+     */
+    public Object receiver(int id){
+        return receivers[id];
+    }
+
+    /**
+     * @return the number of entries in the table
+     */
+    public int size(){
+        return entries == null ? 0 : entries.length;
+    }
+
+    /**
+     * @return the canonical id of a function type
+     */
+    public static int typeId(MethodType type){
+        return typeIds.computeIfAbsent(type, t -> nextTypeId.getAndIncrement());
+    }
+
     protected void ensureSize(int id){
 
         if(entries != null && id < entries.length){
@@ -64,9 +152,15 @@ public class Table {
 
         if(maxSize.map(m -> id < m).orElse(true)){
             if(entries == null){
-                entries = new MethodHandle[Math.max(1, id)];
+                entries = new MethodHandle[id + 1];
+                targets = new MethodHandle[id + 1];
+                receivers = new Object[id + 1];
+                entryTypes = new int[id + 1];
             }else{
-                entries = Arrays.copyOf(entries, id);
+                entries = Arrays.copyOf(entries, id + 1);
+                targets = Arrays.copyOf(targets, id + 1);
+                receivers = Arrays.copyOf(receivers, id + 1);
+                entryTypes = Arrays.copyOf(entryTypes, id + 1);
             }
         }else{
             throw new IllegalArgumentException("Cannot resize to accomodate %d: max size is %d".formatted(id, maxSize.get()));
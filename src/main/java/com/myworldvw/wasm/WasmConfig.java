@@ -17,13 +17,31 @@
 
 package com.myworldvw.wasm;
 
+import com.myworldvw.wasm.binary.Limits;
+
+import java.nio.file.Path;
+
 public class WasmConfig {
 
     protected int trapFlags;
 
     protected String modulePackage;
 
+    protected boolean reserveMemory;
+    protected int maxMemoryPages;
+    protected boolean directMemoryAccess;
+    protected MemoryPool memoryPool;
+    protected Path mappedMemoryDirectory;
+    protected int dirtyPageSize;
+    protected MemoryGovernor memoryGovernor;
+    protected GrowthPolicy growthPolicy;
+    protected boolean accessProfiling;
+    protected long hugePageThreshold;
+    protected Memory.ArenaMode arenaMode;
+
     public WasmConfig(){
+        maxMemoryPages = Limits.VALID_RANGE;
+        arenaMode = Memory.ArenaMode.SHARED;
     }
 
     public String getCompiledModulePackage() {
@@ -40,4 +58,155 @@ public class WasmConfig {
         }
         return name;
     }
+
+    public boolean shouldReserveMemory(){
+        return reserveMemory;
+    }
+
+    /**
+     * When enabled (and supported by the platform), module memories reserve their full
+     * address range up front and commit pages as they grow, so that growth never copies.
+     * @param reserveMemory whether module memories should use reserve-and-commit allocation
+     */
+    public void setReserveMemory(boolean reserveMemory){
+        this.reserveMemory = reserveMemory;
+    }
+
+    public int getMaxMemoryPages(){
+        return maxMemoryPages;
+    }
+
+    /**
+     * Caps the number of pages reserved for a module memory. Memories that declare no maximum,
+     * or a maximum larger than this, reserve this many pages instead.
+     * @param maxMemoryPages the maximum number of 64 KiB pages to reserve per memory
+     */
+    public void setMaxMemoryPages(int maxMemoryPages){
+        this.maxMemoryPages = maxMemoryPages;
+    }
+
+    public boolean useDirectMemoryAccess(){
+        return directMemoryAccess;
+    }
+
+    /**
+     * When enabled, compiled functions cache the memory's backing segment and access it directly
+     * rather than calling through Memory's read/write methods. The cached segment is refreshed
+     * after memory.grow and after every call.
+     * @param directMemoryAccess whether generated code should access memory segments directly
+     */
+    public void setDirectMemoryAccess(boolean directMemoryAccess){
+        this.directMemoryAccess = directMemoryAccess;
+    }
+
+    public MemoryPool getMemoryPool(){
+        return memoryPool;
+    }
+
+    /**
+     * When set, module memories borrow their backing segments from the pool and return them when
+     * the owning instance is discarded (see {@link WasmContext#discard(WasmModule)}).
+     * @param memoryPool the pool to allocate module memories from, or null to allocate directly
+     */
+    public void setMemoryPool(MemoryPool memoryPool){
+        this.memoryPool = memoryPool;
+    }
+
+    public Path getMappedMemoryDirectory(){
+        return mappedMemoryDirectory;
+    }
+
+    /**
+     * When set, each module memory is a shared mapping of the file {@code <module name>.mem} in this
+     * directory, so the memory is paged by the OS and persists across runs. Each live instance owns
+     * its file: while one instance maps it, further instances of the module map {@code <module name>-1.mem},
+     * {@code <module name>-2.mem} and so on (see {@link MappedMemory}).
+     * @param mappedMemoryDirectory the directory holding memory files, or null for anonymous memory
+     */
+    public void setMappedMemoryDirectory(Path mappedMemoryDirectory){
+        this.mappedMemoryDirectory = mappedMemoryDirectory;
+    }
+
+    public int getDirtyPageSize(){
+        return dirtyPageSize;
+    }
+
+    public boolean shouldTrackDirtyPages(){
+        return dirtyPageSize != 0;
+    }
+
+    /**
+     * When set, module memories track which pages are written (see {@link Memory#trackDirtyPages(int)}),
+     * so that instances can be checkpointed and reset in time proportional to the pages they touched.
+     * @param dirtyPageSize the tracking granularity in bytes (4096 up to 65536), or 0 to disable tracking
+     */
+    public void setDirtyPageSize(int dirtyPageSize){
+        this.dirtyPageSize = dirtyPageSize;
+    }
+
+    public MemoryGovernor getMemoryGovernor(){
+        return memoryGovernor;
+    }
+
+    /**
+     * When set, every module memory created with this configuration charges its native allocations
+     * against the governor's budget, and fails to grow once the budget is exhausted.
+     * @param memoryGovernor the governor shared by all module memories, or null for no budget
+     */
+    public void setMemoryGovernor(MemoryGovernor memoryGovernor){
+        this.memoryGovernor = memoryGovernor;
+    }
+
+    public GrowthPolicy getGrowthPolicy(){
+        return growthPolicy;
+    }
+
+    /**
+     * Sets the policy module memories use to size their allocations when growing by copying.
+     * @param growthPolicy the growth policy, or null to allocate exactly what is required
+     */
+    public void setGrowthPolicy(GrowthPolicy growthPolicy){
+        this.growthPolicy = growthPolicy;
+    }
+
+    public boolean shouldProfileMemoryAccess(){
+        return accessProfiling;
+    }
+
+    /**
+     * When enabled, module memories count reads and writes per page (see {@link Memory#enableAccessProfiling()}).
+     * Compiled code then accesses memory through Memory's methods even if direct memory access is enabled,
+     * so that every access is counted.
+     * @param accessProfiling whether module memories should profile their accesses
+     */
+    public void setAccessProfiling(boolean accessProfiling){
+        this.accessProfiling = accessProfiling;
+    }
+
+    public long getHugePageThreshold(){
+        return hugePageThreshold;
+    }
+
+    /**
+     * When set, module memories whose allocations reach this size use 2 MiB-aligned, transparent
+     * huge page backed segments where the platform supports them (see {@link Memory#setHugePageThreshold(long)}).
+     * @param hugePageThreshold the minimum allocation size in bytes, or 0 to disable huge pages
+     */
+    public void setHugePageThreshold(long hugePageThreshold){
+        this.hugePageThreshold = hugePageThreshold;
+    }
+
+    public Memory.ArenaMode getArenaMode(){
+        return arenaMode;
+    }
+
+    /**
+     * Instances that are only ever used from the thread that creates them can allocate their
+     * (non-shared) memories in confined arenas, avoiding the cost of closing a shared arena on every
+     * copying grow and on discard. Any access from another thread then fails with {@link WrongThreadException}.
+     * @param arenaMode the arena mode for module memories
+     */
+    public void setArenaMode(Memory.ArenaMode arenaMode){
+        this.arenaMode = arenaMode;
+    }
 }
@@ -18,19 +18,23 @@
 package com.myworldvw.wasm;
 
 import com.myworldvw.wasm.binary.Import;
+import com.myworldvw.wasm.binary.ImportDescriptor;
+import com.myworldvw.wasm.binary.MemoryType;
 import com.myworldvw.wasm.binary.WasmBinaryModule;
 import com.myworldvw.wasm.binary.WasmFormatException;
 import com.myworldvw.wasm.binary.WasmModuleDecoder;
 import com.myworldvw.wasm.globals.Global;
+import com.myworldvw.wasm.globals.Mutability;
 import com.myworldvw.wasm.jvm.JvmCompiler;
 import com.myworldvw.wasm.jvm.WasmClassLoader;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 public class WasmContext {
@@ -42,6 +46,9 @@ public class WasmContext {
     protected final WasmConfig config;
     protected final WasmClassLoader loader;
 
+    protected static final int CHECKPOINT_MAGIC = 0x7761736D; // "wasm"
+    protected static final int CHECKPOINT_VERSION = 2;
+
     public WasmContext(){
         this(new WasmConfig());
     }
@@ -98,29 +105,261 @@ public class WasmContext {
     }
 
     public WasmModule instantiate(String name, Imports imports) throws InstantiationException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, MissingImportException {
-        var requiredImports = findBinary(name).get().getImportSection();
+        var instance = bind(name, imports);
+        instance.initialize();
+        instance.initializationComplete();
+
+        instantiatedModules.add(instance);
+        return instance;
+    }
+
+    /**
+     * Construct an instance of a module with its memories created, its imports bound and its data
+     * segments set, ready to be initialized.
+     */
+    protected WasmModule bind(String name, Imports imports) throws InstantiationException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, MissingImportException {
+        var binary = findBinary(name).get();
+        var requiredImports = binary.getImportSection();
 
         var instance = compile(name).getConstructor(String.class, Import[].class).newInstance(name, requiredImports);
 
+        var memoryIndex = 0;
         if(requiredImports != null){
             for(var required : requiredImports){
+                if(required.descriptor().type() == ImportDescriptor.Type.MEMORY_TYPE){
+                    // Imported memories come first in the memory index space
+                    instance.importMemory(memoryIndex++, imports.getMemory(required.module(), required.name()));
+                }
+            }
+        }
+        if(binary.getMemorySection() != null){
+            for(var type : binary.getMemorySection()){
+                instance.importMemory(memoryIndex, createMemory(memoryName(name, memoryIndex), type));
+                memoryIndex++;
+            }
+        }
+
+        if(requiredImports != null){
+            for(var required : requiredImports){
+                if(required.descriptor().type() == ImportDescriptor.Type.MEMORY_TYPE){
+                    continue;
+                }
                 var field = fieldForImport(instance, required);
                 switch (required.descriptor().type()){
                     case TYPE_ID -> field.set(instance, imports.getFunction(required.module(), required.name()));
-                    case MEMORY_TYPE -> field.set(instance, imports.getMemory(required.module(), required.name()));
                     case TABLE_TYPE -> field.set(instance, imports.getTable(required.module(), required.name()));
-                    case GLOBAL_TYPE -> field.set(instance, imports.getGlobal(required.module(), required.name()));
+                    case GLOBAL_TYPE -> field.set(instance, importGlobal(imports, required));
                 }
             }
         }
 
-        instance.initialize();
+        instance.setDataSegments(binary.getPassiveDataSegments());
+        return instance;
+    }
+
+    protected static Global<?> importGlobal(Imports imports, Import required) throws MissingImportException {
+        var global = imports.getGlobal(required.module(), required.name());
+        // Compiled code caches the values of immutable globals, so a mutable one cannot stand in for them
+        if(required.descriptor().globalType().mutability() == Mutability.CONST && global.getMutability() != Mutability.CONST){
+            throw new MissingImportException(required.module(), required.name(), "immutable global");
+        }
+        return global;
+    }
+
+    /**
+     * Save the state of an instance to a file, from which {@link #restore(String, Path, Imports)} can
+     * later recreate it without re-running its initialization - in this or another JVM, as long as
+     * the same module is loaded there. Memories are stored sparsely, skipping zero pages. The
+     * instance must not be running while it is checkpointed.
+     * @param instance the instance to save
+     * @param file the file to write, replacing any existing file
+     * @throws IllegalStateException if the instance's table holds a function that is not one of its own,
+     * such as a host handle, which cannot be saved. No file is left behind.
+     */
+    public void checkpoint(WasmModule instance, Path file) throws IOException {
+        var binary = findBinary(instance.getName()).get();
+        try(var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))){
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            instance.saveState(out, ownedMemories(binary), ownsTable(binary));
+        }catch(IOException | RuntimeException e){
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Instantiate a module from a checkpoint written by {@link #checkpoint(WasmModule, Path)}, in place of
+     * running its initialization. Imports are bound as for {@link #instantiate(String, Imports)}; imported
+     * memories and globals are not part of the checkpoint and are used as supplied.
+     * @param name the name of the module, which must be the module the checkpoint was taken from
+     * @param file the checkpoint file
+     * @param imports the imports to bind
+     * @return the restored instance
+     */
+    public WasmModule restore(String name, Path file, Imports imports) throws IOException, InstantiationException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, MissingImportException {
+        var binary = findBinary(name).get();
+        var instance = bind(name, imports);
+        try(var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))){
+            if(in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION){
+                throw new IOException("%s is not a checkpoint of a supported version".formatted(file));
+            }
+            instance.restoreState(in, ownedMemories(binary), ownsTable(binary));
+        }catch(IOException | RuntimeException e){
+            discard(instance);
+            throw e;
+        }
         instance.initializationComplete();
 
         instantiatedModules.add(instance);
         return instance;
     }
 
+    /**
+     * Create a new instance of a module from an initialized instance, without re-running its initialization.
+     * The new instance shares the template's imports, starts with copies of its globals, and has a
+     * copy-on-write fork of its memory, configured (and governed) like the memories of instantiated modules.
+     * Forks are not registered with this context. The first fork
+     * freezes the template's memories (see {@link Memory#freeze()}): the template may still run and
+     * update its globals, but no longer write to memory, so later forks see the same memory as the first.
+     * @param template an initialized module instance
+     * @return the forked instance
+     */
+    public WasmModule fork(WasmModule template) throws InstantiationException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
+        var binary = findBinary(template.getName()).get();
+
+        var ownsMemory = ownedMemories(binary);
+        var ownsTable = ownsTable(binary);
+
+        var instance = template.getClass().getConstructor(String.class, Import[].class)
+                .newInstance(template.getName(), template.getImports());
+        instance.forkFrom(template, ownsMemory, ownsTable, this::forkMemory);
+        instance.initializationComplete();
+
+        return instance;
+    }
+
+    /**
+     * Release an instance created by this context (either instantiated or forked). The instance's
+     * own memory is closed, returning its segment to the memory pool if one is configured.
+     * The instance must not be used afterwards.
+     * @param instance the instance to discard
+     */
+    public void discard(WasmModule instance){
+        instantiatedModules.remove(instance);
+
+        var binary = findBinary(instance.getName()).get();
+        var ownsMemory = ownedMemories(binary);
+        for(int i = 0; i < ownsMemory.length; i++){
+            if(ownsMemory[i]){
+                instance.getMemory(i).close();
+            }
+        }
+    }
+
+    /**
+     * @return for each index in the module's memory index space, whether the module defines that memory
+     */
+    protected static boolean[] ownedMemories(WasmBinaryModule binary){
+        var owned = new boolean[binary.getMemoryTypes().size()];
+        for(int i = binary.getImportedMemoryCount(); i < owned.length; i++){
+            owned[i] = true;
+        }
+        return owned;
+    }
+
+    protected static boolean ownsTable(WasmBinaryModule binary){
+        return binary.getImportSection() == null || Arrays.stream(binary.getImportSection())
+                .noneMatch(i -> i.descriptor().type() == ImportDescriptor.Type.TABLE_TYPE);
+    }
+
+    /**
+     * @return the name identifying memory {@code index} of a module, e.g. for its mapped memory file
+     */
+    protected static String memoryName(String moduleName, int index){
+        return index == 0 ? moduleName : moduleName + "." + index;
+    }
+
+    protected Memory createMemory(String memoryName, MemoryType type){
+        return configureMemory(allocateMemory(memoryName, type));
+    }
+
+    /**
+     * Fork a memory for a forked instance. Forks are configured like the memories instances create
+     * (see {@link #configureMemory(Memory)}), so they count against the memory governor's budget.
+     */
+    protected Memory forkMemory(Memory template){
+        return configureMemory(template.fork(isInstrumented()));
+    }
+
+    /**
+     * Apply the growth, arena, governor, tracking and profiling settings of the config to a new memory.
+     */
+    protected Memory configureMemory(Memory memory){
+        memory.setGrowthPolicy(config.getGrowthPolicy());
+        memory.setHugePageThreshold(config.getHugePageThreshold());
+        if(!memory.isShared()){
+            memory.setArenaMode(config.getArenaMode());
+        }
+        if(config.getMemoryGovernor() != null){
+            try{
+                memory.setGovernor(config.getMemoryGovernor());
+            }catch (IllegalStateException e){
+                memory.close();
+                throw e;
+            }
+        }
+        if(config.shouldTrackDirtyPages() && !memory.isShared()){
+            memory.trackDirtyPages(config.getDirtyPageSize());
+        }
+        if(config.shouldProfileMemoryAccess()){
+            memory.enableAccessProfiling();
+        }
+        return memory;
+    }
+
+    protected Memory allocateMemory(String memoryName, MemoryType type){
+        var instrumented = isInstrumented();
+        if(type.limits().shared()){
+            return new SharedMemory(type.limits(), config.getMaxMemoryPages(), config.shouldProfileMemoryAccess());
+        }
+        if(config.getMappedMemoryDirectory() != null){
+            return mapMemory(memoryName, type, instrumented);
+        }
+        if(config.shouldReserveMemory() && ReservedMemory.isSupported()){
+            return new ReservedMemory(type.limits(), config.getMaxMemoryPages(), instrumented);
+        }
+        if(config.getMemoryPool() != null){
+            return new PooledMemory(type.limits(), config.getMemoryPool(), instrumented);
+        }
+        return new Memory(type.limits(), instrumented);
+    }
+
+    /**
+     * @return whether memories are constructed instrumented: only memories that will track dirty pages or
+     * profile accesses carry the hooks for them
+     */
+    protected boolean isInstrumented(){
+        return config.shouldTrackDirtyPages() || config.shouldProfileMemoryAccess();
+    }
+
+    /**
+     * Map a memory to a file of its own in the mapped memory directory: the first of
+     * {@code <memory name>.mem}, {@code <memory name>-1.mem}, {@code <memory name>-2.mem}... that no
+     * live memory has mapped. The first instance of a module always owns the unnumbered file, so its
+     * contents carry over to the next run, while further live instances get numbered files of their own.
+     */
+    protected MappedMemory mapMemory(String memoryName, MemoryType type, boolean instrumented){
+        for(int instance = 0; ; instance++){
+            var fileName = instance == 0 ? memoryName + ".mem" : "%s-%d.mem".formatted(memoryName, instance);
+            try{
+                return new MappedMemory(type.limits(), config.getMappedMemoryDirectory().resolve(fileName), instrumented);
+            }catch(MemoryFileInUseException e){
+                // Owned by a live instance, in this process or another
+            }
+        }
+    }
+
     protected Field fieldForImport(WasmModule instance, Import i){
         return Arrays.stream(instance.getClass().getDeclaredFields())
                 .filter(f -> {
@@ -210,6 +449,38 @@ public class WasmContext {
         return getFunctionHandle(module, functionId).get();
     }
 
+    /**
+     * Get a function of a module as a table entry target (see {@link Table#set(int, MethodHandle, Object)}):
+     * a handle taking the instance to run in as a leading Object, followed by the function's parameters.
+     * Targets are shared by all instances of the module.
+     * @param module an instance of the module
+     * @param functionId the id of the function
+     * @return the function's target
+     */
+    public static MethodHandle getFunctionTarget(WasmModule module, int functionId){
+        return functionTargets.get(module.getClass())[functionId];
+    }
+
+    protected static final ClassValue<MethodHandle[]> functionTargets = new ClassValue<>() {
+        @Override
+        protected MethodHandle[] computeValue(Class<?> moduleClass){
+            var functions = Arrays.stream(moduleClass.getDeclaredMethods())
+                    .filter(m -> m.isAnnotationPresent(WasmFunction.class))
+                    .toList();
+            var targets = new MethodHandle[functions.stream().mapToInt(m -> m.getAnnotation(WasmFunction.class).id()).max().orElse(-1) + 1];
+            try{
+                for(var m : functions){
+                    m.setAccessible(true);
+                    var handle = MethodHandles.lookup().unreflect(m);
+                    targets[m.getAnnotation(WasmFunction.class).id()] = handle.asType(handle.type().changeParameterType(0, Object.class));
+                }
+            }catch(IllegalAccessException e){
+                throw new IllegalStateException(e);
+            }
+            return targets;
+        }
+    };
+
     public static WasmContext createFromResources(String... resourcePaths) throws WasmFormatException, IOException {
         return createFromResources(new WasmConfig(), resourcePaths);
     }
@@ -18,6 +18,17 @@
 package com.myworldvw.wasm;
 
 import com.myworldvw.wasm.binary.Import;
+import com.myworldvw.wasm.globals.Global;
+import com.myworldvw.wasm.globals.Mutability;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
 
 public abstract class WasmModule {
 
@@ -26,12 +37,14 @@ public abstract class WasmModule {
     protected volatile Memory memory0;
     protected volatile Table table0;
     protected final Import[] imports;
+    protected byte[][] dataSegments;
 
     public WasmModule(String name, Import[] imports){
         this.name = name;
         memory0 = new Memory();
         table0 = new Table();
         this.imports = imports;
+        dataSegments = new byte[0][];
     }
 
     public String getName(){
@@ -49,6 +62,40 @@ public abstract class WasmModule {
         return memory0;
     }
 
+    /**
+     * Sets memory {@code index} of this module. Memory 0 is {@link #memory0}; further memories
+     * (multi-memory) are held in fields of the compiled module class.
+     */
+    public void importMemory(int index, Memory memory){
+        if(index == 0){
+            importMemory(memory);
+            return;
+        }
+        if(locked){
+            throw new IllegalStateException("Module %s has already been initialized".formatted(name));
+        }
+        try{
+            getClass().getField(memoryFieldName(index)).set(this, memory);
+        }catch(NoSuchFieldException | IllegalAccessException e){
+            throw new IllegalArgumentException("Module %s has no memory %d".formatted(name, index), e);
+        }
+    }
+
+    public Memory getMemory(int index){
+        if(index == 0){
+            return memory0;
+        }
+        try{
+            return (Memory) getClass().getField(memoryFieldName(index)).get(this);
+        }catch(NoSuchFieldException | IllegalAccessException e){
+            throw new IllegalArgumentException("Module %s has no memory %d".formatted(name, index), e);
+        }
+    }
+
+    public static String memoryFieldName(int index){
+        return "memory" + index;
+    }
+
     public void importTable(Table table){
         if(locked){
             throw new IllegalStateException("Module %s has already been initialized".formatted(name));
@@ -64,10 +111,244 @@ public abstract class WasmModule {
         return imports;
     }
 
+    public void setDataSegments(byte[][] dataSegments){
+        this.dataSegments = dataSegments.clone();
+    }
+
+    public byte[] getDataSegment(int id){
+        return dataSegments[id];
+    }
+
+    public void dropDataSegment(int id){
+        dataSegments[id] = new byte[0];
+    }
+
     public void initializationComplete(){
         locked = true;
     }
 
-    public abstract void initialize();
+    public void initialize(){
+        initializeGlobals();
+        initializeElements();
+        initializeData();
+    }
+
+    public abstract void initializeGlobals();
+
+    public abstract void initializeElements();
+
+    public abstract void initializeData();
+
+    /**
+     * Initialize this (freshly constructed) instance from the state of an initialized instance of
+     * the same module, as an alternative to initialize(). Imports are shared with the template,
+     * local globals are copied, and the memories are forked. Data segments are not re-applied - the
+     * forked memories already hold the template's contents.
+     * @param template an initialized instance of the same module
+     * @param ownsMemory for each memory index, whether the module defines (rather than imports) that memory
+     * @param ownsTable whether the module defines (rather than imports) its table
+     */
+    public void forkFrom(WasmModule template, boolean[] ownsMemory, boolean ownsTable){
+        forkFrom(template, ownsMemory, ownsTable, Memory::fork);
+    }
+
+    /**
+     * As {@link #forkFrom(WasmModule, boolean[], boolean)}, forking each memory the module defines with forkMemory.
+     * @param forkMemory creates the fork of one of the template's memories
+     */
+    public void forkFrom(WasmModule template, boolean[] ownsMemory, boolean ownsTable, UnaryOperator<Memory> forkMemory){
+        if(template.getClass() != getClass()){
+            throw new IllegalArgumentException("Cannot fork %s from an instance of %s".formatted(getClass().getName(), template.getClass().getName()));
+        }
+
+        for(int i = 0; i < ownsMemory.length; i++){
+            importMemory(i, ownsMemory[i] ? forkMemory.apply(template.getMemory(i)) : template.getMemory(i));
+        }
+        setDataSegments(template.dataSegments);
+        if(!ownsTable){
+            importTable(template.getTable());
+        }
+
+        try{
+            for(var field : getClass().getDeclaredFields()){
+                if(field.isAnnotationPresent(WasmImport.class)){
+                    field.set(this, field.get(template));
+                }else if(Global.class.isAssignableFrom(field.getType())){
+                    field.setAccessible(true);
+                    field.set(this, ((Global<?>) field.get(template)).copy());
+                }else if(field.getType().isPrimitive()){
+                    // The cached value of an immutable global
+                    field.setAccessible(true);
+                    field.set(this, field.get(template));
+                }
+            }
+        }catch(IllegalAccessException e){
+            throw new IllegalStateException(e);
+        }
+
+        if(ownsTable){
+            initializeElements();
+        }
+    }
+
+    /**
+     * Write the state of this instance that guest code can change: the contents of the memories it
+     * defines, its own globals, which data segments have been dropped, and the contents of the table it
+     * defines. Imported memories, globals and tables belong to the host and are not written. Table entries
+     * are written as the index of the function they refer to, so they must all be functions of this instance.
+     * @param out the stream to write to
+     * @param ownsMemory for each memory index, whether the module defines (rather than imports) that memory
+     * @param ownsTable whether the module defines (rather than imports) its table
+     * @throws IllegalStateException if the table holds a function that is not one of this instance's, such as a host handle
+     */
+    public void saveState(DataOutput out, boolean[] ownsMemory, boolean ownsTable) throws IOException {
+        out.writeUTF(getClass().getName());
+
+        out.writeInt(ownsMemory.length);
+        for(int i = 0; i < ownsMemory.length; i++){
+            out.writeBoolean(ownsMemory[i]);
+            if(ownsMemory[i]){
+                getMemory(i).save(out);
+            }
+        }
+
+        var globals = ownGlobals();
+        out.writeInt(globals.size());
+        for(var entry : globals.entrySet()){
+            out.writeUTF(entry.getKey());
+            var value = entry.getValue().getBoxed();
+            if(value instanceof Integer i){
+                out.writeByte(0);
+                out.writeInt(i);
+            }else if(value instanceof Long l){
+                out.writeByte(1);
+                out.writeLong(l);
+            }else if(value instanceof Float f){
+                out.writeByte(2);
+                out.writeInt(Float.floatToRawIntBits(f));
+            }else{
+                out.writeByte(3);
+                out.writeLong(Double.doubleToRawLongBits((Double) value));
+            }
+        }
+
+        out.writeInt(dataSegments.length);
+        for(var segment : dataSegments){
+            out.writeBoolean(segment.length == 0);
+        }
+
+        if(ownsTable){
+            var functionIds = new IdentityHashMap<MethodHandle, Integer>();
+            var targets = WasmContext.functionTargets.get(getClass());
+            for(int i = 0; i < targets.length; i++){
+                functionIds.put(targets[i], i);
+            }
+
+            out.writeInt(table0.size());
+            for(int i = 0; i < table0.size(); i++){
+                var target = table0.target(i);
+                if(target == null){
+                    out.writeInt(-1);
+                    continue;
+                }
+                var functionId = table0.receiver(i) == this ? functionIds.get(target) : null;
+                if(functionId == null){
+                    throw new IllegalStateException("Element %d of the table of module %s is not a function of the module, so it cannot be saved"
+                            .formatted(i, name));
+                }
+                out.writeInt(functionId);
+            }
+        }
+    }
+
+    /**
+     * Initialize this (freshly constructed) instance from state written by {@link #saveState}, as an
+     * alternative to initialize(). Imports must already be bound, and memories and data segments set,
+     * exactly as for initialize().
+     * @param in the stream to read from
+     * @param ownsMemory for each memory index, whether the module defines (rather than imports) that memory
+     * @param ownsTable whether the module defines (rather than imports) its table
+     * @throws IllegalArgumentException if the state was saved from a different module
+     */
+    @SuppressWarnings("unchecked")
+    public void restoreState(DataInput in, boolean[] ownsMemory, boolean ownsTable) throws IOException {
+        var className = in.readUTF();
+        if(!className.equals(getClass().getName())){
+            throw new IllegalArgumentException("Cannot restore %s from the state of %s".formatted(getClass().getName(), className));
+        }
+
+        // Immutable globals keep their initial values, which may depend on imported globals
+        initializeGlobals();
+
+        var memoryCount = in.readInt();
+        if(memoryCount != ownsMemory.length){
+            throw new IllegalArgumentException("Saved state has %d memories, module %s has %d".formatted(memoryCount, name, ownsMemory.length));
+        }
+        for(int i = 0; i < memoryCount; i++){
+            var owned = in.readBoolean();
+            if(owned != ownsMemory[i]){
+                throw new IllegalArgumentException("Memory %d of module %s is %s".formatted(i, name, owned ? "imported" : "defined"));
+            }
+            if(owned){
+                getMemory(i).restore(in);
+            }
+        }
+
+        var globals = ownGlobals();
+        var globalCount = in.readInt();
+        for(int i = 0; i < globalCount; i++){
+            var fieldName = in.readUTF();
+            Object value = switch (in.readByte()){
+                case 0 -> in.readInt();
+                case 1 -> in.readLong();
+                case 2 -> Float.intBitsToFloat(in.readInt());
+                default -> Double.longBitsToDouble(in.readLong());
+            };
+            var global = (Global<Object>) globals.get(fieldName);
+            if(global == null){
+                throw new IllegalArgumentException("Module %s has no global %s".formatted(name, fieldName));
+            }
+            if(global.getMutability() == Mutability.VAR){
+                global.setBoxed(value);
+            }
+        }
+
+        var segmentCount = in.readInt();
+        for(int i = 0; i < segmentCount; i++){
+            if(in.readBoolean()){
+                dropDataSegment(i);
+            }
+        }
+
+        if(ownsTable){
+            var tableSize = in.readInt();
+            for(int i = 0; i < tableSize; i++){
+                var functionId = in.readInt();
+                if(functionId < 0){
+                    table0.set(i, null);
+                }else{
+                    table0.set(i, WasmContext.getFunctionTarget(this, functionId), this);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the globals this module defines (rather than imports), by field name
+     */
+    protected Map<String, Global<?>> ownGlobals(){
+        var globals = new TreeMap<String, Global<?>>();
+        try{
+            for(var field : getClass().getDeclaredFields()){
+                if(!field.isAnnotationPresent(WasmImport.class) && Global.class.isAssignableFrom(field.getType())){
+                    field.setAccessible(true);
+                    globals.put(field.getName(), (Global<?>) field.get(this));
+                }
+            }
+        }catch(IllegalAccessException e){
+            throw new IllegalStateException(e);
+        }
+        return globals;
+    }
 
 }
@@ -32,7 +32,9 @@ public interface CodeVisitor {
     void visitCall(byte opcode, int target);
     void visitParametric(byte opcode);
     void visitVar(byte opcode, int id);
-    void visitMemory(byte opcode, int align, int offset);
+    void visitMemory(byte opcode, int memory, int align, long offset);
+    void visitAtomic(int opcode, int memory, int align, long offset);
+    void visitBulkMemory(int opcode, int segmentId, int memory, int sourceMemory);
     void visitConst(byte opcode, long immediate);
     void visitNumeric(byte opcode);
 
@@ -19,26 +19,42 @@ package com.myworldvw.wasm.binary;
 
 import com.myworldvw.wasm.util.Require;
 
-public record Limits(int min, int max) implements Validatable {
+public record Limits(int min, int max, boolean is64, boolean shared) implements Validatable {
 
     public static final int NO_MAX = -1;
     public static final int VALID_RANGE = 1 << 16;
+    // memory64 allows up to 2^48 pages, but page counts are held in an int (which still allows 128 TiB)
+    public static final int VALID_RANGE_64 = Integer.MAX_VALUE;
 
     Limits(int min){
         this(min, NO_MAX);
     }
 
+    public Limits(int min, int max){
+        this(min, max, false, false);
+    }
+
+    public Limits(int min, int max, boolean is64){
+        this(min, max, is64, false);
+    }
+
     public boolean hasMax(){
         return max != NO_MAX;
     }
 
+    public int validRange(){
+        return is64 ? VALID_RANGE_64 : VALID_RANGE;
+    }
+
     @Override
     public void validate() throws ValidationFailure {
-        Require.satisfies(min, i -> i <= VALID_RANGE,
-                "min (%d) must be within range %d", min, VALID_RANGE);
+        var range = validRange();
+        Require.satisfies(min, i -> i >= 0 && i <= range,
+                "min (%d) must be within range %d", min, range);
         if(hasMax()){
-            Require.satisfies(max, i -> i <= VALID_RANGE, "max (%d) must be within range %d", max, VALID_RANGE);
+            Require.satisfies(max, i -> i >= 0 && i <= range, "max (%d) must be within range %d", max, range);
             Require.satisfies(max, i -> i >= min, "max (%d) must be >= min (%d)", max, min);
         }
+        Require.satisfies(this, l -> !l.shared() || l.hasMax(), "shared memories must declare a max");
     }
 }
@@ -17,4 +17,9 @@
 
 package com.myworldvw.wasm.binary;
 
-public record MemoryType(Limits limits) {}
+public record MemoryType(Limits limits) {
+
+    public boolean is64(){
+        return limits.is64();
+    }
+}
@@ -38,6 +38,7 @@ public class WasmBinaryModule {
     protected byte[] elementSection;
     protected Code[] codeSection;
     protected byte[] dataSection;
+    protected Integer dataCount;
 
     public WasmBinaryModule(String name){
         this.name = name;
@@ -140,6 +141,43 @@ public class WasmBinaryModule {
         codeSection = section;
     }
 
+    public Integer getDataCount() {
+        return dataCount;
+    }
+
+    public void setDataCount(Integer dataCount){
+        this.dataCount = dataCount;
+    }
+
+    /**
+     * Decodes the contents of every data segment, indexed by data segment id, for use by
+     * memory.init. Active segments are dropped once they have initialized memory, so their
+     * entries are empty; only passive segments carry their bytes.
+     * @return the per-segment data, or an empty array if there is no data section
+     */
+    public byte[][] getPassiveDataSegments(){
+        if(dataSection == null){
+            return new byte[0][];
+        }
+
+        var decoder = new WasmDataDecoder(dataSection);
+        var segments = new byte[decoder.decodeDataCount()][];
+        for(int i = 0; i < segments.length; i++){
+            var mode = decoder.decodeSegmentMode();
+            if(mode == WasmDataDecoder.PASSIVE){
+                segments[i] = decoder.decodeData();
+            }else{
+                if(mode == WasmDataDecoder.ACTIVE_EXPLICIT){
+                    decoder.decodeMemoryId();
+                }
+                decoder.skipOffsetExpr();
+                decoder.decodeData();
+                segments[i] = new byte[0];
+            }
+        }
+        return segments;
+    }
+
     public void setDataSection(byte[] section){
         dataSection = section;
     }
@@ -208,4 +246,51 @@ public class WasmBinaryModule {
         }
         return Optional.empty();
     }
+
+    /**
+     * @return the types of all memories in the module's memory index space: imported memories first,
+     * followed by those defined in the memory section
+     */
+    public List<MemoryType> getMemoryTypes(){
+        var types = new ArrayList<MemoryType>();
+        if(importSection != null){
+            Arrays.stream(importSection)
+                    .filter(i -> i.descriptor().type() == ImportDescriptor.Type.MEMORY_TYPE)
+                    .map(i -> i.descriptor().memoryType())
+                    .forEach(types::add);
+        }
+        if(memorySection != null){
+            types.addAll(Arrays.asList(memorySection));
+        }
+        return types;
+    }
+
+    /**
+     * @return the number of memories imported by the module, which precede its own in the memory index space
+     */
+    public int getImportedMemoryCount(){
+        if(importSection == null){
+            return 0;
+        }
+        return (int) Arrays.stream(importSection)
+                .filter(i -> i.descriptor().type() == ImportDescriptor.Type.MEMORY_TYPE)
+                .count();
+    }
+
+    public Optional<MemoryType> getMemoryType(){
+        return getMemoryType(0);
+    }
+
+    public Optional<MemoryType> getMemoryType(int index){
+        var types = getMemoryTypes();
+        return index < types.size() ? Optional.of(types.get(index)) : Optional.empty();
+    }
+
+    public boolean isMemory64(){
+        return isMemory64(0);
+    }
+
+    public boolean isMemory64(int index){
+        return getMemoryType(index).map(MemoryType::is64).orElse(false);
+    }
 }
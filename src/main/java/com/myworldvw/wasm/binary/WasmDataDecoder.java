@@ -32,14 +32,43 @@ public class WasmDataDecoder {
         code.order(ByteOrder.LITTLE_ENDIAN);
     }
 
+    // Segment modes (the leading flag of each data segment)
+    public static final int ACTIVE = 0;
+    public static final int PASSIVE = 1;
+    public static final int ACTIVE_EXPLICIT = 2;
+
     public int decodeDataCount(){
         return decodeU32();
     }
 
+    public int decodeSegmentMode(){
+        var mode = decodeU32();
+        if(mode < ACTIVE || mode > ACTIVE_EXPLICIT){
+            throw new WasmFormatException((byte) mode, "data segment mode");
+        }
+        return mode;
+    }
+
     public int decodeMemoryId(){
         return decodeU32();
     }
 
+    /**
+     * Skips over an offset expression without evaluating it. Offset expressions are
+     * constant expressions: a single const or global.get followed by end.
+     */
+    public void skipOffsetExpr(){
+        var opcode = code.get();
+        switch (opcode){
+            case WasmOpcodes.I32_CONST, WasmOpcodes.I64_CONST -> Leb128.decodeSigned(code, 64);
+            case WasmOpcodes.GLOBAL_GET -> decodeU32();
+            default -> throw new WasmFormatException(opcode, "constant expression");
+        }
+        if(code.get() != WasmOpcodes.END){
+            throw new WasmFormatException("Offset expression must be a single constant");
+        }
+    }
+
     public void decodeOffsetExpr(JvmCodeVisitor visitor){
         var decoder = new WasmFunctionDecoder(code);
         decoder.decodeExpression(visitor);
@@ -48,7 +77,7 @@ public class WasmDataDecoder {
     public byte[] decodeData(){
         var size = decodeU32();
         var data = new byte[size];
-        System.arraycopy(code.array(), code.position(), data, 0, size);
+        code.get(data);
         return data;
     }
 
@@ -60,12 +60,15 @@ public class WasmFunctionDecoder {
             switch (opcode){
                 case UNREACHABLE, NOP, RETURN -> visitor.visitCtrl(opcode);
                 case END -> {
-                    if(blockTypes.isEmpty() && type != null){
-                        visitor.exitFunction();
-                    }else if(!blockTypes.empty()){
-                        visitor.exitBlock();
-                        blockTypes.pop();
+                    if(blockTypes.isEmpty()){
+                        // End of the function body or constant expression
+                        if(type != null){
+                            visitor.exitFunction();
+                        }
+                        return;
                     }
+                    visitor.exitBlock();
+                    blockTypes.pop();
                 }
                 case BLOCK, LOOP, IF -> {
                     var blockType = decodeBlockType();
@@ -120,11 +123,46 @@ public class WasmFunctionDecoder {
                         I64_STORE_8,
                         I64_STORE_16,
                         I64_STORE_32-> {
-                    visitor.visitMemory(opcode, decodeU32(), decodeU32());
+                    var memArg = decodeMemArg();
+                    visitor.visitMemory(opcode, memArg.memory(), memArg.align(), memArg.offset());
                 }
                 case MEMORY_SIZE, MEMORY_GROW -> {
-                    visitor.visitMemory(opcode, -1, -1);
-                    code.get(); // Drop trailing 0x00
+                    visitor.visitMemory(opcode, decodeU32(), -1, -1);
+                }
+                case MISC_PREFIX -> {
+                    var miscOpcode = decodeU32();
+                    switch (miscOpcode){
+                        case MEMORY_INIT -> {
+                            var dataId = decodeU32();
+                            var memory = decodeU32();
+                            visitor.visitBulkMemory(miscOpcode, dataId, memory, memory);
+                        }
+                        case DATA_DROP -> visitor.visitBulkMemory(miscOpcode, decodeU32(), -1, -1);
+                        case MEMORY_COPY -> {
+                            var destination = decodeU32();
+                            var source = decodeU32();
+                            visitor.visitBulkMemory(miscOpcode, -1, destination, source);
+                        }
+                        case MEMORY_FILL, MEMORY_DISCARD -> {
+                            var memory = decodeU32();
+                            visitor.visitBulkMemory(miscOpcode, -1, memory, memory);
+                        }
+                        default -> throw new WasmFormatException("0x%02X is not a supported 0xFC-prefixed opcode".formatted(miscOpcode));
+                    }
+                }
+                case ATOMIC_PREFIX -> {
+                    var atomicOpcode = decodeU32();
+                    if((atomicOpcode > ATOMIC_FENCE && atomicOpcode < I32_ATOMIC_LOAD) || atomicOpcode < 0
+                            || atomicOpcode > I64_ATOMIC_RMW_CMPXCHG_32_U){
+                        throw new WasmFormatException("0x%02X is not a valid atomic opcode".formatted(atomicOpcode));
+                    }
+                    if(atomicOpcode == ATOMIC_FENCE){
+                        code.get(); // Drop trailing 0x00
+                        visitor.visitAtomic(atomicOpcode, 0, -1, -1);
+                    }else{
+                        var memArg = decodeMemArg();
+                        visitor.visitAtomic(atomicOpcode, memArg.memory(), memArg.align(), memArg.offset());
+                    }
                 }
                 case I32_CONST -> {
                     visitor.visitConst(opcode, decodeI32());
@@ -285,6 +323,22 @@ public class WasmFunctionDecoder {
         return Leb128.decodeSigned(code, 64);
     }
 
+    protected record MemArg(int memory, int align, long offset){}
+
+    /**
+     * Decodes a memarg. Under the multi-memory proposal, bit 6 of the alignment flags
+     * indicates that an explicit memory index follows it.
+     */
+    protected MemArg decodeMemArg() throws WasmFormatException {
+        var align = decodeU32();
+        var memory = 0;
+        if((align & 0x40) != 0){
+            align &= ~0x40;
+            memory = decodeU32();
+        }
+        return new MemArg(memory, align, decodeU64());
+    }
+
     protected int decodeU32() throws WasmFormatException {
         return (int) Leb128.decodeUnsigned(code);
     }
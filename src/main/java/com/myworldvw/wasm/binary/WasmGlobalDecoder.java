@@ -23,6 +23,7 @@ import com.myworldvw.wasm.util.Leb128;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.OptionalLong;
 
 public class WasmGlobalDecoder {
 
@@ -69,6 +70,7 @@ public class WasmGlobalDecoder {
 
     public boolean decodeInitializer(JvmCodeVisitor visitor){
         if(code.hasRemaining() && peek() == WasmOpcodes.END){
+            code.get();
             return false;
         }
 
@@ -77,6 +79,29 @@ public class WasmGlobalDecoder {
         return true;
     }
 
+    /**
+     * Check whether the next initializer is a single constant instruction, without consuming it.
+     * @return the constant's immediate, as passed to {@link JvmCodeVisitor#visitConst(byte, long)}
+     */
+    public OptionalLong peekConstantInitializer(){
+        var start = code.position();
+        try{
+            long immediate;
+            switch (code.get()){
+                case WasmOpcodes.I32_CONST -> immediate = Leb128.decodeSigned(code, 32);
+                case WasmOpcodes.I64_CONST -> immediate = Leb128.decodeSigned(code, 64);
+                case WasmOpcodes.F32_CONST -> immediate = Float.floatToIntBits(code.getFloat());
+                case WasmOpcodes.F64_CONST -> immediate = Double.doubleToLongBits(code.getDouble());
+                default -> {
+                    return OptionalLong.empty();
+                }
+            }
+            return code.get() == WasmOpcodes.END ? OptionalLong.of(immediate) : OptionalLong.empty();
+        }finally{
+            code.position(start);
+        }
+    }
+
     public int decodeU32() throws WasmFormatException {
         return (int) Leb128.decodeUnsigned(code);
     }
@@ -134,12 +134,25 @@ public class WasmModuleDecoder {
     }
 
     public Limits decodeLimits() throws WasmFormatException {
+        // Flag bits: 0x01 has max, 0x02 shared (threads), 0x04 64-bit (memory64)
         var value = wasm.get();
-        return switch (value){
-            case 0x00 -> new Limits(decodeU32());
-            case 0x01 -> new Limits(decodeU32(), decodeU32());
-            default -> throw new WasmFormatException(value, "limit flag");
-        };
+        if((value & ~0x07) != 0){
+            throw new WasmFormatException(value, "limit flag");
+        }
+
+        var hasMax = (value & 0x01) != 0;
+        var shared = (value & 0x02) != 0;
+        var is64 = (value & 0x04) != 0;
+
+        // memory64 limits are u64, but we cannot address more pages than fit in an int
+        var min = is64 ? decodePages64() : decodeU32();
+        var max = hasMax ? (is64 ? decodePages64() : decodeU32()) : Limits.NO_MAX;
+        return new Limits(min, max, is64, shared);
+    }
+
+    protected int decodePages64() throws WasmFormatException {
+        var pages = Leb128.decodeUnsigned(wasm);
+        return pages < 0 || pages > Limits.VALID_RANGE_64 ? Limits.VALID_RANGE_64 : (int) pages;
     }
 
     public ImportDescriptor decodeImportDescriptor() throws WasmFormatException {
@@ -237,6 +250,7 @@ public class WasmModuleDecoder {
                 case 0x09 -> module.setElementSection(decodeElementSection());
                 case 0x0A -> module.setCodeSection(decodeCodeSection());
                 case 0x0B -> module.setDataSection(decodeDataSection());
+                case 0x0C -> module.setDataCount(decodeDataCountSection());
                 default -> throw new WasmFormatException(id, "module section");
             }
         }
@@ -305,6 +319,11 @@ public class WasmModuleDecoder {
         return decodeVec(Code[]::new, this::decodeCode);
     }
 
+    public int decodeDataCountSection() throws WasmFormatException {
+        var sectionSize = decodeU32();
+        return decodeU32();
+    }
+
     public byte[] decodeDataSection() throws WasmFormatException {
         var sectionSize = decodeU32();
         return readBytes(sectionSize);
@@ -70,4 +70,9 @@ public class F32Global extends Global<Float> {
         return value;
     }
 
+    @Override
+    public F32Global copy(){
+        return new F32Global(mutability, value);
+    }
+
 }
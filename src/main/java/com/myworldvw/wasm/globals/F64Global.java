@@ -69,4 +69,9 @@ public class F64Global extends Global<Double> {
     public double getValue(){
         return value;
     }
+
+    @Override
+    public F64Global copy(){
+        return new F64Global(mutability, value);
+    }
 }
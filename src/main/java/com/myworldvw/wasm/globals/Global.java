@@ -40,4 +40,9 @@ public abstract class Global<T> {
     public abstract void setBoxed(T value);
     public abstract T getBoxed();
 
+    /**
+     * @return an independent global holding the current value of this one
+     */
+    public abstract Global<T> copy();
+
 }
@@ -69,4 +69,9 @@ public class I32Global extends Global<Integer> {
     public int getValue(){
         return value;
     }
+
+    @Override
+    public I32Global copy(){
+        return new I32Global(mutability, value);
+    }
 }
@@ -69,4 +69,9 @@ public class I64Global extends Global<Long> {
     public long getValue(){
         return value;
     }
+
+    @Override
+    public I64Global copy(){
+        return new I64Global(mutability, value);
+    }
 }
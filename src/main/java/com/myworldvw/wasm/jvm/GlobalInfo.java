@@ -18,5 +18,26 @@
 package com.myworldvw.wasm.jvm;
 
 import com.myworldvw.wasm.binary.GlobalType;
+import com.myworldvw.wasm.globals.Mutability;
 
-public record GlobalInfo(String module, String name, String fieldName, GlobalType type) {}
+import java.util.OptionalLong;
+
+/**
+ * @param constant for an immutable global with a constant initializer, the constant's immediate,
+ *                 which global.get emits in place of reading the global
+ */
+public record GlobalInfo(String module, String name, String fieldName, GlobalType type, OptionalLong constant) {
+
+    /**
+     * @return whether global.get reads the value cached in {@link #valueFieldName()}: immutable globals
+     * that are imported, or whose initializer is not a constant, have their value cached in a plain
+     * field of the instance once they are initialized.
+     */
+    public boolean isCached(){
+        return type.mutability() == Mutability.CONST && constant.isEmpty();
+    }
+
+    public String valueFieldName(){
+        return fieldName + "$value";
+    }
+}
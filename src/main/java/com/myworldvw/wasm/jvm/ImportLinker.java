@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm.jvm;
+
+import java.lang.invoke.*;
+
+/**
+ * Bootstrap for the invokedynamic call sites through which compiled modules call their imported
+ * functions. A compiled module class is shared by all instances (and forks) of the module, which may
+ * bind different host functions, so a call site cannot simply be constant. Instead each site is
+ * linked to the first function it sees behind an identity check against the instance's import field.
+ * While that check holds the bound function is a constant to the JIT and can inline into wasm code
+ * like an ordinary Java call. If an instance with another function reaches the site, it falls back
+ * to invoking the field's handle, as an uncached call would.
+ */
+public class ImportLinker {
+
+    protected static final MethodHandle IS_SAME;
+    protected static final MethodHandle RESOLVE;
+
+    static {
+        try{
+            var lookup = MethodHandles.lookup();
+            IS_SAME = lookup.findStatic(ImportLinker.class, "isSame",
+                    MethodType.methodType(boolean.class, MethodHandle.class, MethodHandle.class));
+            RESOLVE = lookup.findVirtual(ImportCallSite.class, "resolve",
+                    MethodType.methodType(MethodHandle.class, Object.class));
+        }catch(ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * @param lookup the lookup of the compiled module class
+     * @param name the name of the import's {@link MethodHandle} field in the module class
+     * @param type the type of the call: the module instance followed by the imported function's parameters
+     * @return the call site for one call of the import
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type) throws ReflectiveOperationException {
+        var field = lookup.findGetter(lookup.lookupClass(), name, MethodHandle.class)
+                .asType(MethodType.methodType(MethodHandle.class, type.parameterType(0)));
+        return new ImportCallSite(type, field);
+    }
+
+    protected static boolean isSame(MethodHandle expected, MethodHandle actual){
+        return expected == actual;
+    }
+
+    protected static class ImportCallSite extends MutableCallSite {
+
+        protected final MethodHandle field;
+        protected final MethodHandle generic;
+        protected final MethodType functionType;
+        protected volatile boolean linked;
+
+        protected ImportCallSite(MethodType type, MethodHandle field){
+            super(type);
+            this.field = field;
+            functionType = type.dropParameterTypes(0, 1);
+
+            // (instance, args...) -> instance.field.invokeExact(args...)
+            var invoker = MethodHandles.exactInvoker(functionType);
+            generic = MethodHandles.filterArguments(invoker, 0, field);
+
+            // Until linked, read the field through resolve(), which links this site to what it finds
+            var resolve = RESOLVE.bindTo(this).asType(field.type());
+            setTarget(MethodHandles.filterArguments(invoker, 0, resolve));
+        }
+
+        protected MethodHandle resolve(Object instance) throws Throwable {
+            var function = (MethodHandle) field.invoke(instance);
+            synchronized (this){
+                if(!linked){
+                    linked = true;
+                    // A handle of the wrong type (or no handle) is left to invokeExact to report
+                    if(function != null && function.type().equals(functionType)){
+                        var test = MethodHandles.filterArguments(IS_SAME.bindTo(function), 0, field);
+                        var target = MethodHandles.dropArguments(function, 0, type().parameterType(0));
+                        // Instances bound to any other function take the generic path
+                        setTarget(MethodHandles.guardWithTest(test, target, generic));
+                    }else{
+                        setTarget(generic);
+                    }
+                }
+            }
+            return function;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm.jvm;
+
+import com.myworldvw.wasm.Table;
+
+import java.lang.invoke.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bootstrap for the invokedynamic call sites compiled for call_indirect. Each site keeps an inline
+ * cache of the functions it has called, guarded on the identity of the {@link Table#target(int) target}
+ * of the table entry it is called with: while the entry's target is a cached one, that target is invoked
+ * as a constant the JIT can inline, with the entry's instance, and without repeating the signature check.
+ * Targets of a module's functions are shared by all its instances, so instances and forks of a module
+ * hit the same cache entries, and the cache holds no instance. Once a site has seen more than
+ * {@link #CACHE_SIZE} targets it is megamorphic, and every call looks up and checks its entry.
+ */
+public class IndirectCallLinker {
+
+    public static final int CACHE_SIZE = 4;
+
+    protected static final MethodHandle CHECKED_GET;
+    protected static final MethodHandle TARGET;
+    protected static final MethodHandle RECEIVER;
+    protected static final MethodHandle IS_SAME;
+    protected static final MethodHandle RESOLVE;
+
+    static {
+        try{
+            var lookup = MethodHandles.lookup();
+            CHECKED_GET = lookup.findVirtual(Table.class, "get",
+                    MethodType.methodType(MethodHandle.class, int.class, int.class));
+            TARGET = lookup.findVirtual(Table.class, "target",
+                    MethodType.methodType(MethodHandle.class, int.class));
+            RECEIVER = lookup.findVirtual(Table.class, "receiver",
+                    MethodType.methodType(Object.class, int.class));
+            IS_SAME = lookup.findStatic(IndirectCallLinker.class, "isSame",
+                    MethodType.methodType(boolean.class, MethodHandle.class, MethodHandle.class));
+            RESOLVE = lookup.findVirtual(IndirectCallSite.class, "resolve",
+                    MethodType.methodType(MethodHandle.class, Table.class, int.class));
+        }catch(ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * @param lookup the lookup of the compiled module class
+     * @param name unused
+     * @param type the type of the call: the function's parameters, then the element index and the table
+     * @return the call site for one call_indirect
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type){
+        return new IndirectCallSite(type);
+    }
+
+    protected static boolean isSame(MethodHandle expected, MethodHandle actual){
+        return expected == actual;
+    }
+
+    protected static class IndirectCallSite extends MutableCallSite {
+
+        protected final MethodType functionType;
+        protected final int typeId;
+        protected final MethodHandle generic;
+        protected final MethodHandle cacheMiss;
+        protected final List<MethodHandle> cached;
+
+        protected IndirectCallSite(MethodType type){
+            super(type);
+            functionType = type.dropParameterTypes(type.parameterCount() - 2, type.parameterCount());
+            typeId = Table.typeId(functionType);
+            cached = new ArrayList<>(CACHE_SIZE);
+
+            var invoker = MethodHandles.exactInvoker(functionType);
+            generic = dispatch(invoker, fromTable(MethodHandles.insertArguments(CHECKED_GET, 2, typeId)));
+            cacheMiss = dispatch(invoker, fromTable(RESOLVE.bindTo(this).asType(
+                    MethodType.methodType(MethodHandle.class, Table.class, int.class))));
+            setTarget(cacheMiss);
+        }
+
+        /**
+         * @param tableAccess (table, index) -> value
+         * @return (index, table) -> value, taking its arguments in the order they are on the stack
+         */
+        protected static MethodHandle fromTable(MethodHandle tableAccess){
+            return MethodHandles.permuteArguments(tableAccess,
+                    MethodType.methodType(tableAccess.type().returnType(), int.class, Table.class), 1, 0);
+        }
+
+        /**
+         * @param invoker (value, args...) -> result
+         * @param select (index, table) -> value
+         * @return (args..., index, table) -> invoker(select(index, table), args...)
+         */
+        protected MethodHandle dispatch(MethodHandle invoker, MethodHandle select){
+            var params = functionType.parameterCount();
+            invoker = MethodHandles.dropArguments(invoker, params + 1, int.class, Table.class);
+
+            var reorder = new int[params + 3];
+            reorder[0] = params;
+            for(int i = 0; i < params; i++){
+                reorder[i + 1] = i;
+            }
+            reorder[params + 1] = params + 1;
+            reorder[params + 2] = params + 2;
+            var invokerType = type().insertParameterTypes(params, invoker.type().parameterType(0));
+
+            return MethodHandles.foldArguments(MethodHandles.permuteArguments(invoker, invokerType, reorder), params, select);
+        }
+
+        /**
+         * @return (args..., index, table) -> whether the target of the entry at index is {@code target}
+         */
+        protected MethodHandle isTarget(MethodHandle target){
+            var test = MethodHandles.filterReturnValue(fromTable(TARGET), IS_SAME.bindTo(target));
+            return MethodHandles.dropArguments(test, 0, functionType.parameterList());
+        }
+
+        protected synchronized MethodHandle resolve(Table table, int index){
+            var function = table.get(index, typeId);
+            var target = table.target(index);
+            if(cached.contains(target)){
+                // Another thread cached it while this one was looking it up
+                return function;
+            }
+            if(cached.size() == CACHE_SIZE){
+                setTarget(generic);
+                return function;
+            }
+            cached.add(target);
+
+            // The signature was checked on the way into the cache, so a hit only compares identity
+            var chain = cacheMiss;
+            for(var entry : cached){
+                var call = dispatch(entry, fromTable(RECEIVER));
+                chain = MethodHandles.guardWithTest(isTarget(entry), call, chain);
+            }
+            setTarget(chain);
+            return function;
+        }
+    }
+}
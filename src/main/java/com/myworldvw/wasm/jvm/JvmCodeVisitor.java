@@ -18,6 +18,9 @@
 package com.myworldvw.wasm.jvm;
 
 import com.myworldvw.wasm.Memory;
+import com.myworldvw.wasm.Table;
+import com.myworldvw.wasm.TrapException;
+import com.myworldvw.wasm.WasmConfig;
 import com.myworldvw.wasm.WasmModule;
 import com.myworldvw.wasm.binary.*;
 import org.objectweb.asm.Label;
@@ -25,7 +28,9 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
-import java.lang.invoke.MethodHandle;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
 import java.util.*;
 
 import static com.myworldvw.wasm.binary.WasmOpcodes.*;
@@ -35,6 +40,7 @@ public class JvmCodeVisitor implements CodeVisitor {
     enum BlockType {BLOCK, LOOP, IF}
     record BlockInfo(BlockType type, int stackDepth, Label label){}
 
+    protected final WasmConfig config;
     protected final WasmBinaryModule module;
     protected final String moduleClassName;
     protected final FunctionInfo[] functionTable;
@@ -47,7 +53,25 @@ public class JvmCodeVisitor implements CodeVisitor {
     protected final Deque<ValueType> operands;
     protected ValueType[] locals;
 
-    public JvmCodeVisitor(WasmBinaryModule module, String moduleClassName, FunctionInfo[] functionTable, List<GlobalInfo> globalTable, MethodVisitor code){
+    // JVM local variable slots for each wasm param/local (i64/f64 take two slots),
+    // followed by the scratch slots used by direct memory access.
+    protected int[] localSlots;
+    protected int nextSlot;
+    protected boolean directMemory;
+    protected boolean trackDirtyPages;
+    // The memory targeted by the instruction being compiled, and whether it is 64-bit addressed
+    protected int memoryIndex;
+    protected boolean memory64;
+    protected int segmentSlot;
+    protected int addressSlot;
+    protected final Map<ValueType, List<Integer>> scratchSlots;
+    // A comparison whose i32 result has not been materialized: its operands are on the JVM stack, and this
+    // is the JVM jump opcode that branches when the comparison holds (0 when nothing is pending). A following
+    // br_if, if or select consumes it as a single conditional jump; anything else materializes it as 0/1.
+    protected int pendingJump;
+
+    public JvmCodeVisitor(WasmConfig config, WasmBinaryModule module, String moduleClassName, FunctionInfo[] functionTable, List<GlobalInfo> globalTable, MethodVisitor code){
+        this.config = config;
         this.module = module;
         this.moduleClassName = moduleClassName;
         this.functionTable = functionTable;
@@ -56,6 +80,8 @@ public class JvmCodeVisitor implements CodeVisitor {
         blockTypes = new ArrayDeque<>();
         blockLabels = new ArrayDeque<>();
         operands = new ArrayDeque<>();
+        scratchSlots = new EnumMap<>(ValueType.class);
+        selectMemory(0);
     }
 
     public Optional<ValueType> peek(){
@@ -84,30 +110,52 @@ public class JvmCodeVisitor implements CodeVisitor {
     @Override
     public void visitLocals(ValueType[] locals) {
         this.locals = locals;
-        for(int i = signature.params().length + 1; i < locals.length; i++){
-            switch (locals[i]){
+
+        var params = signature.params();
+        localSlots = new int[params.length + locals.length];
+        nextSlot = 1; // 0 is always 'this' ref
+        for(int i = 0; i < localSlots.length; i++){
+            localSlots[i] = nextSlot;
+            nextSlot += slotWidth(paramOrLocal(i));
+        }
+
+        for(int i = params.length; i < localSlots.length; i++){
+            switch (paramOrLocal(i)){
                 case I32 -> {
                     code.visitLdcInsn(0);
-                    code.visitVarInsn(Opcodes.ISTORE, i + 1); // +1 because 0 is always 'this' ref
+                    code.visitVarInsn(Opcodes.ISTORE, localSlots[i]);
                 }
                 case F32 -> {
                     code.visitLdcInsn(0f);
-                    code.visitVarInsn(Opcodes.FSTORE, i + 1); // +1 because 0 is always 'this' ref
+                    code.visitVarInsn(Opcodes.FSTORE, localSlots[i]);
                 }
                 case I64 -> {
                     code.visitLdcInsn(0L);
-                    code.visitVarInsn(Opcodes.LSTORE, i + 1); // +1 because 0 is always 'this' ref
+                    code.visitVarInsn(Opcodes.LSTORE, localSlots[i]);
                 }
                 case F64 -> {
                     code.visitLdcInsn(0d);
-                    code.visitVarInsn(Opcodes.DSTORE, i + 1); // +1 because 0 is always 'this' ref
+                    code.visitVarInsn(Opcodes.DSTORE, localSlots[i]);
                 }
             }
         }
+
+        // Profiled memories count accesses in Memory's methods, so they can't be bypassed
+        directMemory = config.useDirectMemoryAccess() && !config.shouldProfileMemoryAccess() && hasMemory();
+        trackDirtyPages = config.shouldTrackDirtyPages();
+        if(directMemory){
+            // Cache the memory's backing segment in a local for the body of the function,
+            // so that loads & stores compile to plain segment accesses. It is refreshed
+            // whenever the memory may have been reallocated (grow or any call).
+            segmentSlot = allocateSlot(1);
+            addressSlot = allocateSlot(2);
+            refreshSegment();
+        }
     }
 
     @Override
     public void exitBlock() {
+        materializeCondition();
         // Exiting an internal block
         var block = blockLabels.pop();
         if(block.type() == BlockType.BLOCK || block.type() == BlockType.IF){
@@ -120,6 +168,7 @@ public class JvmCodeVisitor implements CodeVisitor {
 
     @Override
     public void exitFunction(){
+        materializeCondition();
         // Exiting the function body
         makeReturn();
     }
@@ -131,6 +180,9 @@ public class JvmCodeVisitor implements CodeVisitor {
 
     @Override
     public void visitBlock(byte opcode, Optional<ValueType> blockType) {
+        // An if consumes the condition as its jump, anything else needs it as a value
+        var condition = opcode == IF ? takeCondition() : 0;
+        materializeCondition();
 
         if(opcode == ELSE){
             return;
@@ -154,8 +206,7 @@ public class JvmCodeVisitor implements CodeVisitor {
         blockLabels.push(new BlockInfo(infoType, operands.size(), label));
 
         if(opcode == IF){
-            code.visitJumpInsn(Opcodes.IFLE, label);
-            pop();
+            code.visitJumpInsn(negate(condition), label);
         }
     }
 
@@ -164,19 +215,16 @@ public class JvmCodeVisitor implements CodeVisitor {
         var target = getJumpTarget(labelId);
         switch (opcode){
             case BR -> {
+                materializeCondition();
                 code.visitJumpInsn(Opcodes.GOTO, target.label());
             }
-            case BR_IF -> {
-                code.visitLdcInsn(0);
-                code.visitJumpInsn(Opcodes.IFNE, target.label());
-                code.visitJumpInsn(Opcodes.IFNE, target.label());
-                pop();
-            }
+            case BR_IF -> code.visitJumpInsn(takeCondition(), target.label());
         }
     }
 
     @Override
     public void visitTableBranch(byte opcode, int[] labelIds, int defaultTarget) {
+        materializeCondition();
         // This is only triggered by a BR_TABLE, so no need to test the opcode
         // There is a single integer operand indexing into the label ids.
         var labels = Arrays.stream(labelIds)
@@ -189,6 +237,7 @@ public class JvmCodeVisitor implements CodeVisitor {
 
     @Override
     public void visitCtrl(byte opcode) {
+        materializeCondition();
         switch (opcode){
             case UNREACHABLE, NOP -> {}
             case RETURN -> makeReturn();
@@ -197,27 +246,41 @@ public class JvmCodeVisitor implements CodeVisitor {
 
     @Override
     public void visitCall(byte opcode, int target) {
-        var function = functionTable[target];
+        materializeCondition();
+        FunctionType type = null;
         switch (opcode) {
             case CALL -> {
                 // Invoke target via the module's static invoker helper for that function
+                var function = functionTable[target];
+                type = function.type();
                 code.visitVarInsn(Opcodes.ALOAD, 0);
                 code.visitMethodInsn(Opcodes.INVOKESTATIC, moduleClassName,
                         "call$" + function.name(),
-                        JvmCompiler.invokerHelperDescriptor(function.type(), moduleClassName), false);
+                        JvmCompiler.invokerHelperDescriptor(type, moduleClassName), false);
             }
             case CALL_INDIRECT -> {
-                JvmCompiler.getFromTable(code, target);
-                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MethodHandle.class),
-                        "invokeExact", JvmCompiler.typeToDescriptor(function.type()), false);
+                // target is the index of the call's type. The element index is on top of the
+                // arguments; the call site looks it up in the table (see IndirectCallLinker).
+                type = module.getTypeSection()[target];
+                code.visitVarInsn(Opcodes.ALOAD, 0);
+                code.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(WasmModule.class), "table0", Type.getDescriptor(Table.class));
+                code.visitInvokeDynamicInsn("callIndirect", JvmCompiler.indirectCallDescriptor(type),
+                        JvmCompiler.INDIRECT_CALL_BOOTSTRAP);
+                pop();
             }
         }
+        for(int i = 0; i < type.params().length; i++){
+            pop();
+        }
+        type.returnType().ifPresent(this::push);
+        refreshSegment();
     }
 
     @Override
     public void visitParametric(byte opcode) {
         switch (opcode){
             case DROP -> {
+                materializeCondition();
                 switch (operands.peek()){
                     case I32, F32 -> code.visitInsn(Opcodes.POP);
                     case I64, F64 -> code.visitInsn(Opcodes.POP2);
@@ -229,22 +292,18 @@ public class JvmCodeVisitor implements CodeVisitor {
 
                 // last operand is always an i32, so the first two operands will determine
                 // the type of the select expression
-                pop();
-                pop();
-                var opType = pop();
-                var jvmType = JvmCompiler.toJvmType(opType);
-                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
-                    "select", Type.getMethodDescriptor(jvmType, jvmType, jvmType, Type.INT_TYPE), false);
+                select(takeCondition());
             }
         }
     }
 
     @Override
     public void visitVar(byte opcode, int id) {
+        materializeCondition();
         switch (opcode){
             case LOCAL_GET -> {
                 var type = paramOrLocal(id);
-                id = id + 1; // offset by 1 since l0 is always 'this'
+                id = localSlots[id];
 
                 push(type);
                 switch (type){
@@ -256,7 +315,7 @@ public class JvmCodeVisitor implements CodeVisitor {
             }
             case LOCAL_SET -> {
                 var type = paramOrLocal(id);
-                id = id + 1; // offset by 1 since l0 is always 'this'
+                id = localSlots[id];
 
                 pop();
                 switch (type){
@@ -269,7 +328,7 @@ public class JvmCodeVisitor implements CodeVisitor {
             case LOCAL_TEE -> {
 
                 var type = paramOrLocal(id);
-                id = id + 1; // offset by 1 since l0 is always 'this'
+                id = localSlots[id];
 
                 switch (operands.peek()){
                     case I32, F32 -> code.visitInsn(Opcodes.DUP);
@@ -284,8 +343,19 @@ public class JvmCodeVisitor implements CodeVisitor {
             }
             case GLOBAL_GET -> {
                 var global = globalTable.get(id);
+                if(global.constant().isPresent()){
+                    // Immutable with a constant initializer, so the value is known now
+                    visitConst(constOpcode(global.type().valueType()), global.constant().getAsLong());
+                    return;
+                }
                 push(global.type().valueType());
-                makeGlobalAccess(true, global.fieldName(), global.type());
+                if(global.isCached()){
+                    code.visitVarInsn(Opcodes.ALOAD, 0);
+                    code.visitFieldInsn(Opcodes.GETFIELD, moduleClassName, global.valueFieldName(),
+                            JvmCompiler.toJvmType(global.type().valueType()).getDescriptor());
+                }else{
+                    makeGlobalAccess(true, global.fieldName(), global.type());
+                }
             }
             case GLOBAL_SET -> {
                 var global = globalTable.get(id);
@@ -296,7 +366,9 @@ public class JvmCodeVisitor implements CodeVisitor {
     }
 
     @Override
-    public void visitMemory(byte opcode, int align, int offset) {
+    public void visitMemory(byte opcode, int memory, int align, long offset) {
+        materializeCondition();
+        selectMemory(memory);
         switch (opcode){
             case I32_LOAD -> makeILoad(ValueType.I32, 32, align, offset, true);
             case I64_LOAD -> makeILoad(ValueType.I64, 64, align, offset, true);
@@ -325,20 +397,285 @@ public class JvmCodeVisitor implements CodeVisitor {
                 pushMemory();
                 code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class), "size",
                         Type.getMethodDescriptor(Type.INT_TYPE), false);
-                push(ValueType.I32);
+                if(memory64){
+                    code.visitInsn(Opcodes.I2L);
+                }
+                push(addressValueType());
             }
             case MEMORY_GROW -> {
-                pushMemory();
+                pushMemoryUnderAddress();
                 code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class), "grow",
-                        Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), false);
+                        Type.getMethodDescriptor(addressType(), addressType()), false);
+                pop();
+                push(addressValueType());
+                refreshSegment();
+            }
+        }
+    }
+
+    @Override
+    public void visitAtomic(int opcode, int memory, int align, long offset) {
+        materializeCondition();
+        selectMemory(memory);
+        switch (opcode){
+            case ATOMIC_FENCE -> code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(VarHandle.class),
+                    "fullFence", Type.getMethodDescriptor(Type.VOID_TYPE), false);
+            case MEMORY_ATOMIC_NOTIFY -> {
+                // stack: addr, count
+                var countSlot = scratchSlot(ValueType.I32);
+                code.visitVarInsn(Opcodes.ISTORE, countSlot);
+                pushMemoryAndAddress(offset);
+                code.visitVarInsn(Opcodes.ILOAD, countSlot);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class), "atomicNotify",
+                        Type.getMethodDescriptor(Type.INT_TYPE, Type.LONG_TYPE, Type.INT_TYPE), false);
+                pop();
+                pop();
+                push(ValueType.I32);
+            }
+            case MEMORY_ATOMIC_WAIT32, MEMORY_ATOMIC_WAIT64 -> {
+                // stack: addr, expected, timeout
+                var type = opcode == MEMORY_ATOMIC_WAIT32 ? ValueType.I32 : ValueType.I64;
+                var timeoutSlot = scratchSlot(ValueType.I64, 1);
+                var expectedSlot = scratchSlot(type);
+                code.visitVarInsn(Opcodes.LSTORE, timeoutSlot);
+                code.visitVarInsn(JvmCompiler.storeOpcode(type), expectedSlot);
+                pushMemoryAndAddress(offset);
+                code.visitLdcInsn(type == ValueType.I32 ? 4 : 8);
+                loadAsLong(type, expectedSlot);
+                code.visitVarInsn(Opcodes.LLOAD, timeoutSlot);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class), "atomicWait",
+                        Type.getMethodDescriptor(Type.INT_TYPE, Type.LONG_TYPE, Type.INT_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
+                pop();
+                pop();
                 pop();
                 push(ValueType.I32);
             }
+            default -> {
+                // Loads, stores, and each read-modify-write op come in groups of 7 forms:
+                // i32, i64, i32 8_u, i32 16_u, i64 8_u, i64 16_u, i64 32_u
+                var group = (opcode - I32_ATOMIC_LOAD) / 7;
+                var form = (opcode - I32_ATOMIC_LOAD) % 7;
+                var type = switch (form){
+                    case 0, 2, 3 -> ValueType.I32;
+                    default -> ValueType.I64;
+                };
+                var width = switch (form){
+                    case 0 -> 4;
+                    case 1 -> 8;
+                    case 2, 4 -> 1;
+                    case 3, 5 -> 2;
+                    default -> 4;
+                };
+                makeAtomicAccess(group, type, width, offset);
+            }
+        }
+        // Atomic accesses may have grown an on-demand memory
+        refreshSegment();
+    }
+
+    @Override
+    public void visitBulkMemory(int opcode, int segmentId, int memory, int sourceMemory) {
+        materializeCondition();
+        var memoryType = Type.getType(Memory.class);
+        switch (opcode){
+            case MEMORY_COPY -> {
+                // stack: dst, src, len. The length is only 64-bit when both memories are.
+                var destinationType = selectMemory(memory);
+                var sourceType = selectMemory(sourceMemory);
+                var lengthType = destinationType == ValueType.I64 && sourceType == ValueType.I64 ? ValueType.I64 : ValueType.I32;
+                storeScratch(lengthType, 2);
+                storeScratch(sourceType, 1);
+                storeScratch(destinationType, 0);
+
+                selectMemory(memory);
+                pushMemory();
+                loadUnsigned(destinationType, 0);
+                if(sourceMemory == memory){
+                    loadUnsigned(sourceType, 1);
+                    loadUnsigned(lengthType, 2);
+                    code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, memoryType.getInternalName(), "copy",
+                            Type.getMethodDescriptor(Type.VOID_TYPE, Type.LONG_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
+                }else{
+                    selectMemory(sourceMemory);
+                    pushMemory();
+                    loadUnsigned(sourceType, 1);
+                    loadUnsigned(lengthType, 2);
+                    code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, memoryType.getInternalName(), "copy",
+                            Type.getMethodDescriptor(Type.VOID_TYPE, Type.LONG_TYPE, memoryType, Type.LONG_TYPE, Type.LONG_TYPE), false);
+                }
+            }
+            case MEMORY_FILL -> {
+                // stack: dst, value, len
+                var address = selectMemory(memory);
+                storeScratch(address, 2);
+                var valueSlot = scratchSlot(ValueType.I32, memory64 ? 0 : 3);
+                code.visitVarInsn(Opcodes.ISTORE, valueSlot);
+                storeScratch(address, 0);
+                pushMemory();
+                loadUnsigned(address, 0);
+                code.visitVarInsn(Opcodes.ILOAD, valueSlot);
+                loadUnsigned(address, 2);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, memoryType.getInternalName(), "fill",
+                        Type.getMethodDescriptor(Type.VOID_TYPE, Type.LONG_TYPE, Type.INT_TYPE, Type.LONG_TYPE), false);
+            }
+            case MEMORY_DISCARD -> {
+                // stack: addr, len
+                var address = selectMemory(memory);
+                storeScratch(address, 1);
+                storeScratch(address, 0);
+                pushMemory();
+                loadUnsigned(address, 0);
+                loadUnsigned(address, 1);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, memoryType.getInternalName(), "discardPages",
+                        Type.getMethodDescriptor(Type.VOID_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
+                pop();
+                pop();
+                return;
+            }
+            case MEMORY_INIT -> {
+                // stack: dst, src (i32), len (i32)
+                var address = selectMemory(memory);
+                var lenSlot = scratchSlot(ValueType.I32, 4);
+                var srcSlot = scratchSlot(ValueType.I32, 5);
+                code.visitVarInsn(Opcodes.ISTORE, lenSlot);
+                code.visitVarInsn(Opcodes.ISTORE, srcSlot);
+                storeScratch(address, 0);
+                pushMemory();
+                loadUnsigned(address, 0);
+
+                code.visitVarInsn(Opcodes.ALOAD, 0);
+                code.visitLdcInsn(segmentId);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(WasmModule.class), "getDataSegment",
+                        Type.getMethodDescriptor(Type.getType(byte[].class), Type.INT_TYPE), false);
+
+                code.visitVarInsn(Opcodes.ILOAD, srcSlot);
+                toUnsignedLong();
+                code.visitVarInsn(Opcodes.ILOAD, lenSlot);
+                toUnsignedLong();
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, memoryType.getInternalName(), "init",
+                        Type.getMethodDescriptor(Type.VOID_TYPE, Type.LONG_TYPE, Type.getType(byte[].class), Type.LONG_TYPE, Type.LONG_TYPE), false);
+            }
+            case DATA_DROP -> {
+                code.visitVarInsn(Opcodes.ALOAD, 0);
+                code.visitLdcInsn(segmentId);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(WasmModule.class), "dropDataSegment",
+                        Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE), false);
+                return;
+            }
+        }
+        pop();
+        pop();
+        pop();
+        // The operation may have grown an on-demand memory
+        refreshSegment();
+    }
+
+    protected void storeScratch(ValueType type, int index){
+        code.visitVarInsn(JvmCompiler.storeOpcode(type), scratchSlot(type, index));
+    }
+
+    /**
+     * Loads an address (or length) from a scratch slot as a 64-bit value, zero-extending i32s.
+     */
+    protected void loadUnsigned(ValueType type, int index){
+        code.visitVarInsn(JvmCompiler.loadOpcode(type), scratchSlot(type, index));
+        if(type == ValueType.I32){
+            toUnsignedLong();
+        }
+    }
+
+    protected void toUnsignedLong(){
+        code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Integer.class), "toUnsignedLong",
+                Type.getMethodDescriptor(Type.LONG_TYPE, Type.INT_TYPE), false);
+    }
+
+    protected void makeAtomicAccess(int group, ValueType type, int width, long offset){
+        var memoryType = Type.getType(Memory.class);
+        switch (group){
+            case 0 -> {
+                // load - stack: addr
+                pushMemoryAndAddress(offset);
+                code.visitLdcInsn(width);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, memoryType.getInternalName(), "atomicLoad",
+                        Type.getMethodDescriptor(Type.LONG_TYPE, Type.LONG_TYPE, Type.INT_TYPE), false);
+                fromLong(type);
+                pop();
+            }
+            case 1 -> {
+                // store - stack: addr, value
+                var valueSlot = scratchSlot(type);
+                code.visitVarInsn(JvmCompiler.storeOpcode(type), valueSlot);
+                pushMemoryAndAddress(offset);
+                code.visitLdcInsn(width);
+                loadAsLong(type, valueSlot);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, memoryType.getInternalName(), "atomicStore",
+                        Type.getMethodDescriptor(Type.VOID_TYPE, Type.LONG_TYPE, Type.INT_TYPE, Type.LONG_TYPE), false);
+                pop();
+                pop();
+                return;
+            }
+            case 8 -> {
+                // cmpxchg - stack: addr, expected, replacement
+                var replacementSlot = scratchSlot(type, 1);
+                var expectedSlot = scratchSlot(type);
+                code.visitVarInsn(JvmCompiler.storeOpcode(type), replacementSlot);
+                code.visitVarInsn(JvmCompiler.storeOpcode(type), expectedSlot);
+                pushMemoryAndAddress(offset);
+                code.visitLdcInsn(width);
+                loadAsLong(type, expectedSlot);
+                loadAsLong(type, replacementSlot);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, memoryType.getInternalName(), "atomicCmpxchg",
+                        Type.getMethodDescriptor(Type.LONG_TYPE, Type.LONG_TYPE, Type.INT_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
+                fromLong(type);
+                pop();
+                pop();
+                pop();
+            }
+            default -> {
+                // rmw - stack: addr, value
+                var valueSlot = scratchSlot(type);
+                code.visitVarInsn(JvmCompiler.storeOpcode(type), valueSlot);
+                pushMemoryAndAddress(offset);
+                code.visitLdcInsn(width);
+                code.visitLdcInsn(group - 2); // add, sub, and, or, xor, xchg map onto Memory.RMW_*
+                loadAsLong(type, valueSlot);
+                code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, memoryType.getInternalName(), "atomicRmw",
+                        Type.getMethodDescriptor(Type.LONG_TYPE, Type.LONG_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.LONG_TYPE), false);
+                fromLong(type);
+                pop();
+                pop();
+            }
+        }
+        push(type);
+    }
+
+    /**
+     * Consumes the address on top of the stack, leaving the memory followed by the
+     * 64-bit effective address.
+     */
+    protected void pushMemoryAndAddress(long offset){
+        pushEffectiveAddress(offset);
+        pushMemory();
+        code.visitInsn(Opcodes.DUP_X2);
+        code.visitInsn(Opcodes.POP);
+    }
+
+    protected void loadAsLong(ValueType type, int slot){
+        code.visitVarInsn(JvmCompiler.loadOpcode(type), slot);
+        if(type == ValueType.I32){
+            code.visitInsn(Opcodes.I2L);
+        }
+    }
+
+    protected void fromLong(ValueType type){
+        if(type == ValueType.I32){
+            code.visitInsn(Opcodes.L2I);
         }
     }
 
     @Override
     public void visitConst(byte opcode, long immediate) {
+        materializeCondition();
         switch (opcode){
             case I32_CONST -> {
                 code.visitLdcInsn((int) immediate);
@@ -359,142 +696,74 @@ public class JvmCodeVisitor implements CodeVisitor {
         }
     }
 
+    protected static byte constOpcode(ValueType t){
+        return switch (t){
+            case I32 -> I32_CONST;
+            case I64 -> I64_CONST;
+            case F32 -> F32_CONST;
+            case F64 -> F64_CONST;
+        };
+    }
+
     @Override
     public void visitNumeric(byte opcode) {
+        if(opcode == I32_EQZ && pendingJump != 0){
+            // eqz of a pending comparison is its negation
+            pendingJump = negate(pendingJump);
+            return;
+        }
+        materializeCondition();
+
         switch (opcode){
             // I32 Tests & Comparisons
             case I32_EQZ -> {
-                code.visitLdcInsn(0);
+                pop();
                 push(ValueType.I32);
-                testIntEquality(ValueType.I32);
-            }
-            case I32_EQ -> testIntEquality(ValueType.I32);
-            case I32_NE -> testIntInequality(ValueType.I32);
-            case I32_LT_S -> {
-                compare(ValueType.I32, true);
-                comparisonHelper(Opcodes.IFLT);
-            }
-            case I32_LT_U -> {
-                compare(ValueType.I32, false);
-                comparisonHelper(Opcodes.IFLT);
-            }
-            case I32_GT_S -> {
-                compare(ValueType.I32, true);
-                comparisonHelper(Opcodes.IFGT);
-            }
-            case I32_GT_U -> {
-                compare(ValueType.I32, false);
-                comparisonHelper(Opcodes.IFGT);
-            }
-            case I32_LE_S -> {
-                compare(ValueType.I32, true);
-                comparisonHelper(Opcodes.IFLE);
-            }
-            case I32_LE_U -> {
-                compare(ValueType.I32, false);
-                comparisonHelper(Opcodes.IFLE);
-            }
-            case I32_GE_S -> {
-                compare(ValueType.I32, true);
-                comparisonHelper(Opcodes.IFGE);
-            }
-            case I32_GE_U -> {
-                compare(ValueType.I32, false);
-                comparisonHelper(Opcodes.IFGE);
-            }
+                pendingJump = Opcodes.IFEQ;
+            }
+            case I32_EQ -> compareInts(Opcodes.IF_ICMPEQ);
+            case I32_NE -> compareInts(Opcodes.IF_ICMPNE);
+            case I32_LT_S -> compareInts(Opcodes.IF_ICMPLT);
+            case I32_LT_U -> compareToZero(ValueType.I32, false, Opcodes.IFLT);
+            case I32_GT_S -> compareInts(Opcodes.IF_ICMPGT);
+            case I32_GT_U -> compareToZero(ValueType.I32, false, Opcodes.IFGT);
+            case I32_LE_S -> compareInts(Opcodes.IF_ICMPLE);
+            case I32_LE_U -> compareToZero(ValueType.I32, false, Opcodes.IFLE);
+            case I32_GE_S -> compareInts(Opcodes.IF_ICMPGE);
+            case I32_GE_U -> compareToZero(ValueType.I32, false, Opcodes.IFGE);
 
             // I64 Tests & Comparisons
             case I64_EQZ -> {
-                code.visitLdcInsn(0);
+                code.visitInsn(Opcodes.LCONST_0);
                 push(ValueType.I64);
-                testIntEquality(ValueType.I64);
-            }
-            case I64_EQ -> testIntEquality(ValueType.I64);
-            case I64_NE -> testIntInequality(ValueType.I64);
-            case I64_LT_S -> {
-                compare(ValueType.I64, true);
-                comparisonHelper(Opcodes.IFLT);
-            }
-            case I64_LT_U -> {
-                compare(ValueType.I64, false);
-                comparisonHelper(Opcodes.IFLT);
-            }
-            case I64_GT_S -> {
-                compare(ValueType.I64, true);
-                comparisonHelper(Opcodes.IFGT);
-            }
-            case I64_GT_U -> {
-                compare(ValueType.I64, false);
-                comparisonHelper(Opcodes.IFGT);
-            }
-            case I64_LE_S -> {
-                compare(ValueType.I64, true);
-                comparisonHelper(Opcodes.IFLE);
-            }
-            case I64_LE_U -> {
-                compare(ValueType.I64, false);
-                comparisonHelper(Opcodes.IFLE);
-            }
-            case I64_GE_S -> {
-                compare(ValueType.I64, true);
-                comparisonHelper(Opcodes.IFGE);
-            }
-            case I64_GE_U -> {
-                compare(ValueType.I64, false);
-                comparisonHelper(Opcodes.IFGE);
-            }
+                compareToZero(ValueType.I64, true, Opcodes.IFEQ);
+            }
+            case I64_EQ -> compareToZero(ValueType.I64, true, Opcodes.IFEQ);
+            case I64_NE -> compareToZero(ValueType.I64, true, Opcodes.IFNE);
+            case I64_LT_S -> compareToZero(ValueType.I64, true, Opcodes.IFLT);
+            case I64_LT_U -> compareToZero(ValueType.I64, false, Opcodes.IFLT);
+            case I64_GT_S -> compareToZero(ValueType.I64, true, Opcodes.IFGT);
+            case I64_GT_U -> compareToZero(ValueType.I64, false, Opcodes.IFGT);
+            case I64_LE_S -> compareToZero(ValueType.I64, true, Opcodes.IFLE);
+            case I64_LE_U -> compareToZero(ValueType.I64, false, Opcodes.IFLE);
+            case I64_GE_S -> compareToZero(ValueType.I64, true, Opcodes.IFGE);
+            case I64_GE_U -> compareToZero(ValueType.I64, false, Opcodes.IFGE);
 
             // F32 Tests & Comparisons
-            case F32_EQ -> {
-                compare(ValueType.F32, false);
-                comparisonHelper(Opcodes.IFEQ);
-            }
-            case F32_NE -> {
-                compare(ValueType.F32, false);
-                comparisonHelper(Opcodes.IFNE);
-            }
-            case F32_LT -> {
-                compare(ValueType.F32, false);
-                comparisonHelper(Opcodes.IFLT);
-            }
-            case F32_GT -> {
-                compare(ValueType.F32, false);
-                comparisonHelper(Opcodes.IFGT);
-            }
-            case F32_LE -> {
-                compare(ValueType.F32, false);
-                comparisonHelper(Opcodes.IFLE);
-            }
-            case F32_GE -> {
-                compare(ValueType.F32, false);
-                comparisonHelper(Opcodes.IFGE);
-            }
+            case F32_EQ -> compareToZero(ValueType.F32, true, Opcodes.IFEQ);
+            case F32_NE -> compareToZero(ValueType.F32, true, Opcodes.IFNE);
+            case F32_LT -> compareToZero(ValueType.F32, true, Opcodes.IFLT);
+            case F32_GT -> compareToZero(ValueType.F32, true, Opcodes.IFGT);
+            case F32_LE -> compareToZero(ValueType.F32, true, Opcodes.IFLE);
+            case F32_GE -> compareToZero(ValueType.F32, true, Opcodes.IFGE);
 
             // F64 Tests & Comparisons
-            case F64_EQ -> {
-                compare(ValueType.F64, false);
-                comparisonHelper(Opcodes.IFEQ);
-            }
-            case F64_NE -> {
-                compare(ValueType.F64, false);
-                comparisonHelper(Opcodes.IFNE);
-            }
-            case F64_LT -> {
-                compare(ValueType.F64, false);
-                comparisonHelper(Opcodes.IFLT);
-            }
-            case F64_GT -> {
-                compare(ValueType.F64, false);
-                comparisonHelper(Opcodes.IFGT);
-            }
-            case F64_LE -> {
-                compare(ValueType.F64, false);
-                comparisonHelper(Opcodes.IFLE);
-            }
-            case F64_GE -> {
-                compare(ValueType.F64, false);
-                comparisonHelper(Opcodes.IFGE);
-            }
+            case F64_EQ -> compareToZero(ValueType.F64, true, Opcodes.IFEQ);
+            case F64_NE -> compareToZero(ValueType.F64, true, Opcodes.IFNE);
+            case F64_LT -> compareToZero(ValueType.F64, true, Opcodes.IFLT);
+            case F64_GT -> compareToZero(ValueType.F64, true, Opcodes.IFGT);
+            case F64_LE -> compareToZero(ValueType.F64, true, Opcodes.IFLE);
+            case F64_GE -> compareToZero(ValueType.F64, true, Opcodes.IFGE);
 
             // I32 Math
             case I32_CLZ -> clz(ValueType.I32);
@@ -634,88 +903,139 @@ public class JvmCodeVisitor implements CodeVisitor {
         return locals[id - signature.params().length];
     }
 
-    protected void testIntEquality(ValueType t){
-        var testSuccess = new Label();
-        var end = new Label();
+    protected static int slotWidth(ValueType t){
+        return t == ValueType.I64 || t == ValueType.F64 ? 2 : 1;
+    }
 
-        code.visitJumpInsn(Opcodes.IF_ICMPEQ, testSuccess);
-        code.visitLdcInsn(0);
-        code.visitJumpInsn(Opcodes.GOTO, end);
-        code.visitLabel(testSuccess);
-        code.visitLdcInsn(1);
-        code.visitLabel(end);
+    protected int allocateSlot(int width){
+        var slot = nextSlot;
+        nextSlot += width;
+        return slot;
+    }
 
-        if(t == ValueType.I64){
-            code.visitInsn(Opcodes.I2L);
+    protected int scratchSlot(ValueType t){
+        return scratchSlot(t, 0);
+    }
+
+    protected int scratchSlot(ValueType t, int index){
+        var slots = scratchSlots.computeIfAbsent(t, k -> new ArrayList<>());
+        while(slots.size() <= index){
+            slots.add(allocateSlot(slotWidth(t)));
         }
+        return slots.get(index);
+    }
 
+    /**
+     * Defer a comparison of the two i32s on top of the stack, to be tested with the given IF_ICMPxx.
+     */
+    protected void compareInts(int jumpOpcode){
         pop();
         pop();
-        push(t);
+        push(ValueType.I32);
+        pendingJump = jumpOpcode;
     }
 
-    protected void testIntInequality(ValueType t){
-        testIntEquality(t);
-
+    /**
+     * Reduce the two operands on top of the stack to an int ordered like them, and defer testing it
+     * against zero with the given IFxx. For floats, the NaN-biased compare is chosen so that
+     * every ordered comparison involving NaN fails, and ne succeeds, as wasm requires.
+     */
+    protected void compareToZero(ValueType t, boolean signed, int jumpOpcode){
+        var nanIsLess = jumpOpcode == Opcodes.IFGT || jumpOpcode == Opcodes.IFGE;
         switch (t){
-            case I32 -> {
-                code.visitLdcInsn(1);
-                code.visitInsn(Opcodes.IXOR);
-            }
+            case I32 -> code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Integer.class), signed ? "compare" : "compareUnsigned",
+                    Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE), false);
             case I64 -> {
-                code.visitLdcInsn(1L);
-                code.visitInsn(Opcodes.LXOR);
+                if(signed){
+                    code.visitInsn(Opcodes.LCMP);
+                }else{
+                    code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Long.class), "compareUnsigned",
+                            Type.getMethodDescriptor(Type.INT_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
+                }
             }
+            case F32 -> code.visitInsn(nanIsLess ? Opcodes.FCMPL : Opcodes.FCMPG);
+            case F64 -> code.visitInsn(nanIsLess ? Opcodes.DCMPL : Opcodes.DCMPG);
         }
-
-    }
-
-    protected void compare(ValueType t, boolean signed){
-
-        var method = signed ? "compare" : "compareUnsigned";
-
-        switch (t){
-            case I32 -> code.visitMethodInsn(
-                    Opcodes.INVOKESTATIC,
-                    Type.getInternalName(Integer.class),
-                    method,
-                    Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE), false);
-
-            case I64 -> code.visitMethodInsn(
-                    Opcodes.INVOKESTATIC,
-                    Type.getInternalName(Long.class),
-                    method,
-                    Type.getMethodDescriptor(Type.INT_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
-
-            case F32 -> code.visitMethodInsn(
-                    Opcodes.INVOKESTATIC,
-                    Type.getInternalName(Float.class),
-                    "compare",
-                    Type.getMethodDescriptor(Type.INT_TYPE, Type.FLOAT_TYPE, Type.FLOAT_TYPE), false);
-
-            case F64 -> code.visitMethodInsn(
-                    Opcodes.INVOKESTATIC,
-                    Type.getInternalName(Double.class),
-                    "compare",
-                    Type.getMethodDescriptor(Type.INT_TYPE, Type.DOUBLE_TYPE, Type.DOUBLE_TYPE), false);
-        }
-
         pop();
         pop();
         push(ValueType.I32);
+        pendingJump = jumpOpcode;
+    }
 
+    /**
+     * Take the i32 on top of the stack as a branch condition.
+     * @return the JVM jump opcode that branches when the condition is true
+     */
+    protected int takeCondition(){
+        pop();
+        var jump = pendingJump;
+        pendingJump = 0;
+        return jump != 0 ? jump : Opcodes.IFNE;
     }
 
-    protected void comparisonHelper(int opcode){
+    /**
+     * Push a pending comparison's result as an i32 0 or 1, for instructions that consume it as a value.
+     */
+    protected void materializeCondition(){
+        if(pendingJump == 0){
+            return;
+        }
         var trueBranch = new Label();
         var end = new Label();
-        code.visitJumpInsn(opcode, trueBranch);
+        code.visitJumpInsn(pendingJump, trueBranch);
+        pendingJump = 0;
         code.visitLdcInsn(0);
         code.visitJumpInsn(Opcodes.GOTO, end);
         code.visitLabel(trueBranch);
         code.visitLdcInsn(1);
         code.visitLabel(end);
+    }
 
+    protected static int negate(int jumpOpcode){
+        return switch (jumpOpcode){
+            case Opcodes.IFEQ -> Opcodes.IFNE;
+            case Opcodes.IFNE -> Opcodes.IFEQ;
+            case Opcodes.IFLT -> Opcodes.IFGE;
+            case Opcodes.IFGE -> Opcodes.IFLT;
+            case Opcodes.IFGT -> Opcodes.IFLE;
+            case Opcodes.IFLE -> Opcodes.IFGT;
+            case Opcodes.IF_ICMPEQ -> Opcodes.IF_ICMPNE;
+            case Opcodes.IF_ICMPNE -> Opcodes.IF_ICMPEQ;
+            case Opcodes.IF_ICMPLT -> Opcodes.IF_ICMPGE;
+            case Opcodes.IF_ICMPGE -> Opcodes.IF_ICMPLT;
+            case Opcodes.IF_ICMPGT -> Opcodes.IF_ICMPLE;
+            case Opcodes.IF_ICMPLE -> Opcodes.IF_ICMPGT;
+            default -> throw new IllegalArgumentException("Not a conditional jump: " + jumpOpcode);
+        };
+    }
+
+    /**
+     * select, with its condition (either a pending comparison or an i32 on the stack) as a jump:
+     * keep whichever of the two values below the condition's operands it selects.
+     */
+    protected void select(int jumpOpcode){
+        pop();
+        var opType = pop();
+        var wide = slotWidth(opType) == 2;
+        var keepFirst = new Label();
+        var end = new Label();
+
+        code.visitJumpInsn(jumpOpcode, keepFirst);
+        // Drop the first value from under the second
+        if(wide){
+            code.visitInsn(Opcodes.DUP2_X2);
+            code.visitInsn(Opcodes.POP2);
+            code.visitInsn(Opcodes.POP2);
+        }else{
+            code.visitInsn(Opcodes.SWAP);
+            code.visitInsn(Opcodes.POP);
+        }
+        code.visitJumpInsn(Opcodes.GOTO, end);
+        code.visitLabel(keepFirst);
+        code.visitInsn(wide ? Opcodes.POP2 : Opcodes.POP);
+        code.visitLabel(end);
+
+        push(opType);
     }
 
     protected void clz(ValueType t){
@@ -815,7 +1135,7 @@ public class JvmCodeVisitor implements CodeVisitor {
                     code.visitInsn(Opcodes.IDIV);
                 }else{
                     code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Integer.class),
-                            "divideUnsigned", Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), false);
+                            "divideUnsigned", Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE), false);
                 }
             }
             case I64 -> {
@@ -823,7 +1143,7 @@ public class JvmCodeVisitor implements CodeVisitor {
                     code.visitInsn(Opcodes.LDIV);
                 }else{
                     code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Long.class),
-                            "divideUnsigned", Type.getMethodDescriptor(Type.LONG_TYPE, Type.LONG_TYPE), false);
+                            "divideUnsigned", Type.getMethodDescriptor(Type.LONG_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
                 }
             }
         }
@@ -840,7 +1160,7 @@ public class JvmCodeVisitor implements CodeVisitor {
                     code.visitInsn(Opcodes.IREM);
                 }else{
                     code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Integer.class),
-                            "remainderUnsigned", Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), false);
+                            "remainderUnsigned", Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE), false);
                 }
             }
             case I64 -> {
@@ -848,7 +1168,7 @@ public class JvmCodeVisitor implements CodeVisitor {
                     code.visitInsn(Opcodes.LREM);
                 }else{
                     code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Long.class),
-                            "remainderUnsigned", Type.getMethodDescriptor(Type.LONG_TYPE, Type.LONG_TYPE), false);
+                            "remainderUnsigned", Type.getMethodDescriptor(Type.LONG_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
                 }
             }
         }
@@ -1086,42 +1406,64 @@ public class JvmCodeVisitor implements CodeVisitor {
     }
 
     protected void trunc(ValueType i, ValueType f, boolean signed){
-        // Note: this operator accounts for signed vs unsigned representations
-        // of the result, but should the result fall outside of the range
-        // able to be represented by the result type, behavior is undefined.
-
-        var fFlag = f == ValueType.F32 ? 0b0000 : 0b0010;
-        var iFlag = i == ValueType.I32 ? 0b0000 : 0b0001;
-
-        var flag = fFlag | iFlag;
-        var sign = signed ? 1 : 0;
+        // Range-check in double precision (every f32 widens exactly), trapping on NaN and on values
+        // whose truncation does not fit, then cast. Both bounds are exclusive and exact doubles.
+        if(f == ValueType.F32){
+            code.visitInsn(Opcodes.F2D);
+        }
+        double lower;
+        double upper;
+        if(i == ValueType.I32){
+            lower = signed ? -0x1p31 - 1 : -1.0;
+            upper = signed ? 0x1p31 : 0x1p32;
+        }else{
+            lower = signed ? Math.nextDown(-0x1p63) : -1.0;
+            upper = signed ? 0x1p63 : 0x1p64;
+        }
 
-        switch (flag){
-            case 0b0000 -> {
-                // F32 -> I32
-                code.visitLdcInsn(sign);
-                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
-                        "truncateF32ToI32", Type.getMethodDescriptor(Type.INT_TYPE, Type.FLOAT_TYPE, Type.INT_TYPE), false);
-            }
-            case 0b0001 -> {
-                // F32 -> I64
-                code.visitLdcInsn(sign);
-                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
-                        "truncateF32ToI64", Type.getMethodDescriptor(Type.LONG_TYPE, Type.FLOAT_TYPE, Type.INT_TYPE), false);
-            }
-            case 0b0010 -> {
-                // F64 -> I32
-                code.visitLdcInsn(sign);
-                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
-                        "truncateF64ToI32", Type.getMethodDescriptor(Type.INT_TYPE, Type.DOUBLE_TYPE, Type.INT_TYPE), false);
-            }
-            case 0b0011 -> {
-                // F64 -> I64
-                code.visitLdcInsn(sign);
-                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
-                        "truncateF64ToI64", Type.getMethodDescriptor(Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.INT_TYPE), false);
+        var trap = new Label();
+        var end = new Label();
+        code.visitInsn(Opcodes.DUP2);
+        code.visitLdcInsn(lower);
+        code.visitInsn(Opcodes.DCMPL); // NaN compares below the lower bound
+        code.visitJumpInsn(Opcodes.IFLE, trap);
+        code.visitInsn(Opcodes.DUP2);
+        code.visitLdcInsn(upper);
+        code.visitInsn(Opcodes.DCMPG);
+        code.visitJumpInsn(Opcodes.IFGE, trap);
+
+        if(i == ValueType.I32){
+            if(signed){
+                code.visitInsn(Opcodes.D2I);
+            }else{
+                code.visitInsn(Opcodes.D2L);
+                code.visitInsn(Opcodes.L2I);
             }
+        }else if(signed){
+            code.visitInsn(Opcodes.D2L);
+        }else{
+            // D2L saturates at 2^63, so the upper half of the range is offset into it and back
+            var high = new Label();
+            code.visitInsn(Opcodes.DUP2);
+            code.visitLdcInsn(0x1p63);
+            code.visitInsn(Opcodes.DCMPL);
+            code.visitJumpInsn(Opcodes.IFGE, high);
+            code.visitInsn(Opcodes.D2L);
+            code.visitJumpInsn(Opcodes.GOTO, end);
+            code.visitLabel(high);
+            code.visitLdcInsn(0x1p63);
+            code.visitInsn(Opcodes.DSUB);
+            code.visitInsn(Opcodes.D2L);
+            code.visitLdcInsn(Long.MIN_VALUE);
+            code.visitInsn(Opcodes.LXOR);
         }
+        code.visitJumpInsn(Opcodes.GOTO, end);
+
+        code.visitLabel(trap);
+        code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
+                "invalidTruncation", Type.getMethodDescriptor(Type.getType(TrapException.class), Type.DOUBLE_TYPE), false);
+        code.visitInsn(Opcodes.ATHROW);
+        code.visitLabel(end);
 
         pop();
         push(i);
@@ -1140,42 +1482,52 @@ public class JvmCodeVisitor implements CodeVisitor {
     }
 
     protected void fConvert(ValueType f, ValueType i, boolean signed){
-
-        var fFlag = f == ValueType.F32 ? 0b0000 : 0b0010;
-        var iFlag = i == ValueType.I32 ? 0b0000 : 0b0001;
-
-        var flag = fFlag | iFlag;
-        var sign = signed ? 1 : 0;
-
-        switch (flag){
-            case 0b0000 -> {
-                // I32 -> F32
-                code.visitLdcInsn(sign);
-                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
-                        "convertI32ToF32", Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE), false);
-            }
-            case 0b0001 -> {
-                // I32 -> F64
-                code.visitLdcInsn(sign);
-                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
-                        "convertI32ToF64", Type.getMethodDescriptor(Type.LONG_TYPE, Type.INT_TYPE, Type.INT_TYPE), false);
-            }
-            case 0b0010 -> {
-                // I64 -> F32
-                code.visitLdcInsn(sign);
-                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
-                        "convertI64ToF32", Type.getMethodDescriptor(Type.FLOAT_TYPE, Type.LONG_TYPE, Type.INT_TYPE), false);
-            }
-            case 0b0011 -> {
-                // I64 -> F64
-                code.visitLdcInsn(sign);
-                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Runtime.class),
-                        "convertI64ToF64", Type.getMethodDescriptor(Type.DOUBLE_TYPE, Type.LONG_TYPE, Type.INT_TYPE), false);
+        var toFloat = f == ValueType.F32;
+        if(i == ValueType.I32){
+            if(signed){
+                code.visitInsn(toFloat ? Opcodes.I2F : Opcodes.I2D);
+            }else{
+                toUnsignedLong();
+                code.visitInsn(toFloat ? Opcodes.L2F : Opcodes.L2D);
+            }
+        }else if(signed){
+            code.visitInsn(toFloat ? Opcodes.L2F : Opcodes.L2D);
+        }else{
+            // Values with the top bit set are halved for the signed conversion, keeping the low bit
+            // as a sticky bit so that rounding is unchanged, then doubled back exactly
+            var slot = scratchSlot(ValueType.I64);
+            var high = new Label();
+            var end = new Label();
+            code.visitVarInsn(Opcodes.LSTORE, slot);
+            code.visitVarInsn(Opcodes.LLOAD, slot);
+            code.visitInsn(Opcodes.LCONST_0);
+            code.visitInsn(Opcodes.LCMP);
+            code.visitJumpInsn(Opcodes.IFLT, high);
+            code.visitVarInsn(Opcodes.LLOAD, slot);
+            code.visitInsn(toFloat ? Opcodes.L2F : Opcodes.L2D);
+            code.visitJumpInsn(Opcodes.GOTO, end);
+            code.visitLabel(high);
+            code.visitVarInsn(Opcodes.LLOAD, slot);
+            code.visitInsn(Opcodes.ICONST_1);
+            code.visitInsn(Opcodes.LUSHR);
+            code.visitVarInsn(Opcodes.LLOAD, slot);
+            code.visitInsn(Opcodes.LCONST_1);
+            code.visitInsn(Opcodes.LAND);
+            code.visitInsn(Opcodes.LOR);
+            if(toFloat){
+                code.visitInsn(Opcodes.L2F);
+                code.visitLdcInsn(2f);
+                code.visitInsn(Opcodes.FMUL);
+            }else{
+                code.visitInsn(Opcodes.L2D);
+                code.visitLdcInsn(2d);
+                code.visitInsn(Opcodes.DMUL);
             }
+            code.visitLabel(end);
         }
 
         pop();
-        push(i);
+        push(f);
     }
 
     protected void reinterpret(ValueType r, ValueType o){
@@ -1207,64 +1559,215 @@ public class JvmCodeVisitor implements CodeVisitor {
         push(r);
     }
 
+    /**
+     * Targets subsequent memory instructions at the given memory.
+     * @return the value type of the memory's addresses
+     */
+    protected ValueType selectMemory(int index){
+        memoryIndex = index;
+        memory64 = module.isMemory64(index);
+        return addressValueType();
+    }
+
     protected void pushMemory(){
-        code.visitVarInsn(Opcodes.ALOAD, 0);
-        code.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(WasmModule.class), "memory0", Type.getDescriptor(Memory.class));
+        JvmCompiler.getMemory(code, moduleClassName, memoryIndex);
+    }
+
+    /**
+     * Only memory 0 has its segment cached for direct access; any others go through Memory's methods.
+     */
+    protected boolean useDirectAccess(){
+        return directMemory && memoryIndex == 0;
+    }
+
+    protected boolean hasMemory(){
+        return module.getMemoryType().isPresent();
+    }
+
+    /**
+     * @return the JVM type of memory addresses - long for memory64, int otherwise
+     */
+    protected Type addressType(){
+        return memory64 ? Type.LONG_TYPE : Type.INT_TYPE;
+    }
+
+    protected ValueType addressValueType(){
+        return memory64 ? ValueType.I64 : ValueType.I32;
+    }
+
+    /**
+     * Slides the memory reference underneath the address on top of the stack.
+     */
+    protected void pushMemoryUnderAddress(){
+        pushMemory();
+        if(memory64){
+            code.visitInsn(Opcodes.DUP_X2);
+            code.visitInsn(Opcodes.POP);
+        }else{
+            code.visitInsn(Opcodes.SWAP);
+        }
+    }
+
+    /**
+     * Pushes a memarg offset in the form matching the address type.
+     */
+    protected void pushOffset(long offset){
+        if(memory64){
+            code.visitLdcInsn(offset);
+        }else{
+            code.visitLdcInsn((int) offset);
+        }
+    }
+
+    /**
+     * Consumes the address on top of the stack, leaving the 64-bit effective address (address + offset).
+     * i32 addresses are widened before the offset is added, so the sum cannot wrap; memory64 sums that
+     * wrap trap.
+     */
+    protected void pushEffectiveAddress(long offset){
+        if(!memory64){
+            toUnsignedLong();
+            if(offset != 0){
+                code.visitLdcInsn(offset);
+                code.visitInsn(Opcodes.LADD);
+            }
+        }else if(offset != 0){
+            code.visitLdcInsn(offset);
+            code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Memory.class), "effectiveAddress",
+                    Type.getMethodDescriptor(Type.LONG_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
+        }
+    }
+
+    protected void refreshSegment(){
+        if(!directMemory){
+            return;
+        }
+        JvmCompiler.getMemory(code, moduleClassName, 0);
+        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class), "segment",
+                Type.getMethodDescriptor(Type.getType(MemorySegment.class)), false);
+        code.visitVarInsn(Opcodes.ASTORE, segmentSlot);
+    }
+
+    /**
+     * Consumes the i32 address on top of the stack, leaving the 64-bit effective address (address + offset)
+     * in the address slot and a segment covering the access in the segment slot. Accesses that fall outside
+     * of the cached segment call out to the memory to grow or trap, and then continue with the new segment.
+     */
+    protected void prepareDirectAccess(long offset, int width){
+        pushEffectiveAddress(offset);
+        code.visitVarInsn(Opcodes.LSTORE, addressSlot);
+
+        var inBounds = new Label();
+        var outOfBounds = new Label();
+        if(memory64){
+            // 64-bit addresses at or above 2^63 appear negative, and must trap rather than index backwards
+            code.visitVarInsn(Opcodes.LLOAD, addressSlot);
+            code.visitInsn(Opcodes.LCONST_0);
+            code.visitInsn(Opcodes.LCMP);
+            code.visitJumpInsn(Opcodes.IFLT, outOfBounds);
+        }
+        code.visitVarInsn(Opcodes.LLOAD, addressSlot);
+        code.visitLdcInsn((long) width);
+        code.visitInsn(Opcodes.LADD);
+        code.visitVarInsn(Opcodes.ALOAD, segmentSlot);
+        code.visitMethodInsn(Opcodes.INVOKEINTERFACE, Type.getInternalName(MemorySegment.class), "byteSize",
+                Type.getMethodDescriptor(Type.LONG_TYPE), true);
+        code.visitInsn(Opcodes.LCMP);
+        code.visitJumpInsn(Opcodes.IFLE, inBounds);
+
+        code.visitLabel(outOfBounds);
+        pushMemory();
+        code.visitVarInsn(Opcodes.LLOAD, addressSlot);
+        code.visitLdcInsn((long) width);
+        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class), "segmentFor",
+                Type.getMethodDescriptor(Type.getType(MemorySegment.class), Type.LONG_TYPE, Type.LONG_TYPE), false);
+        code.visitVarInsn(Opcodes.ASTORE, segmentSlot);
+
+        code.visitLabel(inBounds);
+        code.visitVarInsn(Opcodes.ALOAD, segmentSlot);
+    }
+
+    /**
+     * Emits a direct load from the prepared segment & address. Leaves the raw value (int for
+     * widths of 32 bits or less) on the stack.
+     */
+    protected void makeDirectLoad(String layoutField, Class<? extends ValueLayout> layoutType, Type valueType, int width, long offset){
+        prepareDirectAccess(offset, width);
+        code.visitFieldInsn(Opcodes.GETSTATIC, Type.getInternalName(Memory.class), layoutField, Type.getDescriptor(layoutType));
+        code.visitVarInsn(Opcodes.LLOAD, addressSlot);
+        code.visitMethodInsn(Opcodes.INVOKEINTERFACE, Type.getInternalName(MemorySegment.class), "get",
+                Type.getMethodDescriptor(valueType, Type.getType(layoutType), Type.LONG_TYPE), true);
+    }
+
+    /**
+     * Emits a direct store of the value on top of the stack (already narrowed to the stored width),
+     * with the i32 address beneath it.
+     */
+    protected void makeDirectStore(String layoutField, Class<? extends ValueLayout> layoutType, Type valueType, ValueType scratchType, int width, long offset){
+        var valueSlot = scratchSlot(scratchType);
+        code.visitVarInsn(valueType.getOpcode(Opcodes.ISTORE), valueSlot);
+        prepareDirectAccess(offset, width);
+        code.visitFieldInsn(Opcodes.GETSTATIC, Type.getInternalName(Memory.class), layoutField, Type.getDescriptor(layoutType));
+        code.visitVarInsn(Opcodes.LLOAD, addressSlot);
+        code.visitVarInsn(valueType.getOpcode(Opcodes.ILOAD), valueSlot);
+        code.visitMethodInsn(Opcodes.INVOKEINTERFACE, Type.getInternalName(MemorySegment.class), "set",
+                Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(layoutType), Type.LONG_TYPE, valueType), true);
+
+        if(trackDirtyPages){
+            // Stores that bypass Memory have to record the page they touched themselves
+            pushMemory();
+            code.visitVarInsn(Opcodes.LLOAD, addressSlot);
+            code.visitLdcInsn((long) width);
+            code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class), "markDirty",
+                    Type.getMethodDescriptor(Type.VOID_TYPE, Type.LONG_TYPE, Type.LONG_TYPE), false);
+        }
     }
 
-    protected void makeILoad(ValueType target, int storedWidth, int align, int offset, boolean signed){
+    protected void makeILoad(ValueType target, int storedWidth, int align, long offset, boolean signed){
         // At some point in the future we may use the 'align' argument, but the underlying memory segment
         // already handles enforcing alignment for us so we can safely ignore it for now.
-        pushMemory();
-        code.visitInsn(Opcodes.SWAP);
-        code.visitLdcInsn(offset);
-        code.visitInsn(Opcodes.IADD);
-        switch (target){
-            case I32 -> {
-                switch (storedWidth){
-                    case 8 -> {
-                        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                                "readI8", Type.getMethodDescriptor(Type.BYTE_TYPE, Type.INT_TYPE), false);
-                        code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Byte.class),
-                                signed ? "intValue" : "toUnsignedInt", Type.getMethodDescriptor(Type.INT_TYPE, Type.BYTE_TYPE), false);
-                    }
-                    case 16 -> {
-                        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                                "readI16", Type.getMethodDescriptor(Type.SHORT_TYPE, Type.INT_TYPE), false);
-                        code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Short.class),
-                                signed ? "intValue" : "toUnsignedInt", Type.getMethodDescriptor(Type.INT_TYPE, Type.SHORT_TYPE), false);
-                    }
-                    case 32 -> {
-                        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                                "readI32", Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), false);
-                    }
-                }
+        if(useDirectAccess()){
+            switch (storedWidth){
+                case 8 -> makeDirectLoad("WASM_I8", ValueLayout.OfByte.class, Type.BYTE_TYPE, 1, offset);
+                case 16 -> makeDirectLoad("WASM_I16", ValueLayout.OfShort.class, Type.SHORT_TYPE, 2, offset);
+                case 32 -> makeDirectLoad("WASM_I32", ValueLayout.OfInt.class, Type.INT_TYPE, 4, offset);
+                case 64 -> makeDirectLoad("WASM_I64", ValueLayout.OfLong.class, Type.LONG_TYPE, 8, offset);
             }
-            case I64 -> {
-                switch (storedWidth){
-                    case 8 -> {
-                        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                                "readI8", Type.getMethodDescriptor(Type.BYTE_TYPE, Type.INT_TYPE), false);
-                        code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Byte.class),
-                                signed ? "longValue" : "toUnsignedLong", Type.getMethodDescriptor(Type.LONG_TYPE, Type.BYTE_TYPE), false);
-                    }
-                    case 16 -> {
-                        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                                "readI16", Type.getMethodDescriptor(Type.SHORT_TYPE, Type.INT_TYPE), false);
-                        code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Short.class),
-                                signed ? "longValue" : "toUnsignedLong", Type.getMethodDescriptor(Type.LONG_TYPE, Type.SHORT_TYPE), false);
-                    }
-                    case 32 -> {
-                        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                                "readI32", Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), false);
-                        code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Integer.class),
-                                signed ? "longValue" : "toUnsignedLong", Type.getMethodDescriptor(Type.LONG_TYPE, Type.INT_TYPE), false);
-                    }
-                    case 64 -> {
-                        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                                "readI64", Type.getMethodDescriptor(Type.LONG_TYPE, Type.INT_TYPE), false);
-                    }
+        }else{
+            pushMemoryAndAddress(offset);
+            switch (storedWidth){
+                case 8 -> code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
+                        "readI8", Type.getMethodDescriptor(Type.BYTE_TYPE, Type.LONG_TYPE), false);
+                case 16 -> code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
+                        "readI16", Type.getMethodDescriptor(Type.SHORT_TYPE, Type.LONG_TYPE), false);
+                case 32 -> code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
+                        "readI32", Type.getMethodDescriptor(Type.INT_TYPE, Type.LONG_TYPE), false);
+                case 64 -> code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
+                        "readI64", Type.getMethodDescriptor(Type.LONG_TYPE, Type.LONG_TYPE), false);
+            }
+        }
+
+        // Bytes and shorts are sign-extended to int when loaded onto the JVM stack,
+        // so only the unsigned and 64-bit forms need any further work.
+        if(!signed){
+            switch (storedWidth){
+                case 8 -> {
+                    code.visitIntInsn(Opcodes.SIPUSH, 0xFF);
+                    code.visitInsn(Opcodes.IAND);
                 }
+                case 16 -> {
+                    code.visitLdcInsn(0xFFFF);
+                    code.visitInsn(Opcodes.IAND);
+                }
+            }
+        }
+
+        if(target == ValueType.I64 && storedWidth < 64){
+            if(!signed && storedWidth == 32){
+                code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Integer.class),
+                        "toUnsignedLong", Type.getMethodDescriptor(Type.LONG_TYPE, Type.INT_TYPE), false);
+            }else{
+                code.visitInsn(Opcodes.I2L);
             }
         }
 
@@ -1272,7 +1775,7 @@ public class JvmCodeVisitor implements CodeVisitor {
         push(target);
     }
 
-    protected void makeIStore(ValueType target, int storedWidth, int align, int offset){
+    protected void makeIStore(ValueType target, int storedWidth, int align, long offset){
         // Note that stores can shorten but never widen the value - that is,
         // a 32-bit can be stored as 16 or 8, but never 64 (likewise for 64-bit)
         // stack: addr, value
@@ -1308,35 +1811,58 @@ public class JvmCodeVisitor implements CodeVisitor {
             }
         }
 
-        // Shuffling the stack around is quite tricky (especially when dealing with 64-bit values), so use the
-        // helper methods. Performance with this should be OK since the JIT will most likely just inline it.
-        pushMemory();
-        code.visitLdcInsn(offset);
-        code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Memory.class), storageMethod,
-                Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, storageType, Type.getType(Memory.class), Type.INT_TYPE), false);
+        if(useDirectAccess()){
+            switch (storedWidth){
+                case 8 -> makeDirectStore("WASM_I8", ValueLayout.OfByte.class, Type.BYTE_TYPE, ValueType.I32, 1, offset);
+                case 16 -> makeDirectStore("WASM_I16", ValueLayout.OfShort.class, Type.SHORT_TYPE, ValueType.I32, 2, offset);
+                case 32 -> makeDirectStore("WASM_I32", ValueLayout.OfInt.class, Type.INT_TYPE, ValueType.I32, 4, offset);
+                case 64 -> makeDirectStore("WASM_I64", ValueLayout.OfLong.class, Type.LONG_TYPE, ValueType.I64, 8, offset);
+            }
+        }else{
+            // Shuffling the stack around is quite tricky (especially when dealing with 64-bit values), so use the
+            // helper methods. Performance with this should be OK since the JIT will most likely just inline it.
+            pushMemory();
+            pushOffset(offset);
+            code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Memory.class), storageMethod,
+                    Type.getMethodDescriptor(Type.VOID_TYPE, addressType(), storageType, Type.getType(Memory.class), addressType()), false);
+        }
 
         pop();
         pop();
     }
 
-    protected void makeFLoad(ValueType target, int align, int offset){
-        pushMemory();
-        code.visitInsn(Opcodes.SWAP);
-        code.visitLdcInsn(offset);
-        code.visitInsn(Opcodes.IADD);
+    protected void makeFLoad(ValueType target, int align, long offset){
+        if(useDirectAccess()){
+            switch (target){
+                case F32 -> makeDirectLoad("WASM_F32", ValueLayout.OfFloat.class, Type.FLOAT_TYPE, 4, offset);
+                case F64 -> makeDirectLoad("WASM_F64", ValueLayout.OfDouble.class, Type.DOUBLE_TYPE, 8, offset);
+            }
+        }else{
+            pushMemoryAndAddress(offset);
 
-        switch (target){
-            case F32 -> code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                    "readF32", Type.getMethodDescriptor(Type.FLOAT_TYPE, Type.INT_TYPE), false);
-            case F64 -> code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                    "readF64", Type.getMethodDescriptor(Type.DOUBLE_TYPE, Type.INT_TYPE), false);
+            switch (target){
+                case F32 -> code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
+                        "readF32", Type.getMethodDescriptor(Type.FLOAT_TYPE, Type.LONG_TYPE), false);
+                case F64 -> code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
+                        "readF64", Type.getMethodDescriptor(Type.DOUBLE_TYPE, Type.LONG_TYPE), false);
+            }
         }
 
         pop();
         push(target);
     }
 
-    protected void makeFStore(ValueType target, int align, int offset){
+    protected void makeFStore(ValueType target, int align, long offset){
+
+        if(useDirectAccess()){
+            switch (target){
+                case F32 -> makeDirectStore("WASM_F32", ValueLayout.OfFloat.class, Type.FLOAT_TYPE, ValueType.F32, 4, offset);
+                case F64 -> makeDirectStore("WASM_F64", ValueLayout.OfDouble.class, Type.DOUBLE_TYPE, ValueType.F64, 8, offset);
+            }
+            pop();
+            pop();
+            return;
+        }
 
         String storageMethod = "";
         Type storageType = Type.DOUBLE_TYPE;
@@ -1353,9 +1879,9 @@ public class JvmCodeVisitor implements CodeVisitor {
         }
 
         pushMemory();
-        code.visitLdcInsn(offset);
+        pushOffset(offset);
         code.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Memory.class), storageMethod,
-                Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, storageType, Type.getType(Memory.class), Type.INT_TYPE), false);
+                Type.getMethodDescriptor(Type.VOID_TYPE, addressType(), storageType, Type.getType(Memory.class), addressType()), false);
 
         pop();
         pop();
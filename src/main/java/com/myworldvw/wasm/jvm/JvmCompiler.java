@@ -21,18 +21,33 @@ import com.myworldvw.wasm.*;
 import com.myworldvw.wasm.binary.*;
 import com.myworldvw.wasm.globals.*;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
+import java.lang.invoke.CallSite;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
 
 public class JvmCompiler {
 
+    protected static final Handle IMPORT_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+            Type.getInternalName(ImportLinker.class), "bootstrap",
+            Type.getMethodDescriptor(Type.getType(CallSite.class), Type.getType(MethodHandles.Lookup.class),
+                    Type.getType(String.class), Type.getType(MethodType.class)), false);
+
+    protected static final Handle INDIRECT_CALL_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+            Type.getInternalName(IndirectCallLinker.class), "bootstrap",
+            Type.getMethodDescriptor(Type.getType(CallSite.class), Type.getType(MethodHandles.Lookup.class),
+                    Type.getType(String.class), Type.getType(MethodType.class)), false);
+
     protected final WasmConfig config;
     protected final WasmClassLoader loader;
 
@@ -41,12 +56,17 @@ public class JvmCompiler {
         this.loader = loader;
     }
 
-    public static void getFromTable(MethodVisitor code, int id){
+    /**
+     * Pushes memory {@code index} of the module instance in local 0. Memory 0 lives in {@link WasmModule},
+     * additional memories (multi-memory) in fields of the compiled module class.
+     */
+    public static void getMemory(MethodVisitor code, String moduleClassName, int index){
         code.visitVarInsn(Opcodes.ALOAD, 0);
-        code.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(WasmModule.class), "table0", Type.getDescriptor(Table.class));
-        code.visitLdcInsn(id);
-        code.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Table.class), "get",
-                Type.getMethodDescriptor(Type.getType(MethodHandle.class), Type.INT_TYPE), false);
+        if(index == 0){
+            code.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(WasmModule.class), "memory0", Type.getDescriptor(Memory.class));
+        }else{
+            code.visitFieldInsn(Opcodes.GETFIELD, moduleClassName, WasmModule.memoryFieldName(index), Type.getDescriptor(Memory.class));
+        }
     }
 
     public String getInternalClassName(String name){
@@ -84,25 +104,33 @@ public class JvmCompiler {
         constructor.visitEnd();
         constructor.visitMaxs(0, 0);
 
-        var initializer = moduleWriter.visitMethod(Opcodes.ACC_PUBLIC, "initialize",
-                Type.getMethodDescriptor(Type.VOID_TYPE), null, null);
-        initializer.visitCode();
+        // Memories beyond the first get a field each, set when the module is instantiated
+        var memoryCount = module.getMemoryTypes().size();
+        for(int i = 1; i < memoryCount; i++){
+            moduleWriter.visitField(Opcodes.ACC_PUBLIC, WasmModule.memoryFieldName(i), Type.getDescriptor(Memory.class), null, null)
+                    .visitEnd();
+        }
+
+        // Initialization is split into globals, elements and data so that a fork of an
+        // initialized instance can rebuild its tables without re-running data initialization.
+        var globalsInit = beginInitializer(moduleWriter, "initializeGlobals");
+        var elementsInit = beginInitializer(moduleWriter, "initializeElements");
+        var dataInit = beginInitializer(moduleWriter, "initializeData");
 
         // generate global fields (and initialization code for local globals)
-        var globals = generateGlobals(moduleWriter, moduleName, initializer, module, functions);
+        var globals = generateGlobals(moduleWriter, moduleName, globalsInit, module, functions);
 
         if(module.getElementSection() != null){
-            generateElements(moduleName, initializer, module, functions, globals);
+            generateElements(moduleName, elementsInit, module, functions, globals);
         }
 
         if(module.getDataSection() != null){
-            generateData(moduleName, initializer, module, functions, globals);
+            generateData(moduleName, dataInit, module, functions, globals);
         }
 
-        initializer.visitInsn(Opcodes.RETURN);
-
-        initializer.visitEnd();
-        initializer.visitMaxs(0, 0);
+        endInitializer(globalsInit);
+        endInitializer(elementsInit);
+        endInitializer(dataInit);
 
         // Visit functions. Exported functions will be public and annotated with @WasmExport,
         // non-exported functions should be private. Note that imported functions may also be exported.
@@ -128,7 +156,7 @@ public class JvmCompiler {
             var invoker = moduleWriter.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC,
                     "call$" + function.name(), invokerHelperDescriptor(function.type(), moduleName), null, null);
 
-            invoker.visitVarInsn(Opcodes.ALOAD, function.type().params().length); // index of appended module ref
+            invoker.visitVarInsn(Opcodes.ALOAD, paramSlots(function.type())); // index of appended module ref
 
             loadParams(invoker, function.type(), true);
 
@@ -182,20 +210,18 @@ public class JvmCompiler {
             methodWriter.visitCode();
 
             if(function.imported()){
-                // If imported, get the MethodHandle and invoke it
+                // If imported, invoke the bound MethodHandle through an invokedynamic call site,
+                // which lets the JIT treat it as a constant (see ImportLinker)
                 methodWriter.visitVarInsn(Opcodes.ALOAD, 0);
-                methodWriter.visitFieldInsn(Opcodes.GETFIELD,
-                        moduleName, function.name(), Type.getDescriptor(MethodHandle.class));
 
                 loadParams(methodWriter, type, false);
-                methodWriter.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MethodHandle.class),
-                        "invokeExact", typeToDescriptor(type), false);
+                methodWriter.visitInvokeDynamicInsn(function.name(), importCallDescriptor(type, moduleName), IMPORT_BOOTSTRAP);
                 makeReturn(methodWriter, type.returnType());
             }else{
                 // If local, compile the function body
                 var code = module.getCodeSection();
                 var decoder = new WasmFunctionDecoder(code[i - firstLocalFunctionId], module.typeForFunction(id));
-                decoder.decode(new JvmCodeVisitor(module, moduleName, functions, globals, methodWriter));
+                decoder.decode(new JvmCodeVisitor(config, module, moduleName, functions, globals, methodWriter));
             }
 
             methodWriter.visitMaxs(0, 0);
@@ -207,6 +233,19 @@ public class JvmCompiler {
         return moduleWriter.toByteArray();
     }
 
+    protected MethodVisitor beginInitializer(ClassWriter moduleWriter, String name){
+        var initializer = moduleWriter.visitMethod(Opcodes.ACC_PUBLIC, name,
+                Type.getMethodDescriptor(Type.VOID_TYPE), null, null);
+        initializer.visitCode();
+        return initializer;
+    }
+
+    protected void endInitializer(MethodVisitor initializer){
+        initializer.visitInsn(Opcodes.RETURN);
+        initializer.visitEnd();
+        initializer.visitMaxs(0, 0);
+    }
+
     public FunctionInfo[] buildFunctionTable(WasmBinaryModule module){
         var functions = new ArrayList<FunctionInfo>();
 
@@ -256,7 +295,11 @@ public class JvmCompiler {
                 // WasmContext will initialize, so we don't need to
                 var fieldName = generateGlobalField(moduleWriter, id, i.descriptor().globalType(), i, export.orElse(null));
 
-                globals.add(new GlobalInfo(i.module(), i.name(), fieldName, i.descriptor().globalType()));
+                var global = new GlobalInfo(i.module(), i.name(), fieldName, i.descriptor().globalType(), OptionalLong.empty());
+                globals.add(global);
+                if(global.isCached()){
+                    cacheGlobalValue(moduleWriter, moduleClassName, moduleInit, global);
+                }
 
                 id++;
             }
@@ -270,6 +313,9 @@ public class JvmCompiler {
             for(int i = 0; i < localGlobalCount; i++, id++){
                 var export = module.getExportedGlobalName(new GlobalId(id));
                 var type = decoder.decodeGlobalType();
+                var constant = type.mutability() == Mutability.CONST
+                        ? decoder.peekConstantInitializer()
+                        : OptionalLong.empty();
                 var fieldName = generateGlobalField(moduleWriter, id, type, null, export.orElse(null));
 
                 var jvmStorageType = switch (type.valueType()){
@@ -292,7 +338,7 @@ public class JvmCompiler {
                 };
 
                 moduleInit.visitVarInsn(Opcodes.ALOAD, 0);
-                var ranInit = decoder.decodeInitializer(new JvmCodeVisitor(module, moduleClassName, functions, globals, moduleInit));
+                var ranInit = decoder.decodeInitializer(new JvmCodeVisitor(config, module, moduleClassName, functions, globals, moduleInit));
 
                 var params = ranInit
                         ? new Type[]{Type.getType(jvmParamType)}
@@ -304,7 +350,11 @@ public class JvmCompiler {
                         false);
                 moduleInit.visitFieldInsn(Opcodes.PUTFIELD, moduleClassName, fieldName, Type.getDescriptor(jvmStorageType));
 
-                globals.add(new GlobalInfo(null, null, fieldName, type));
+                var global = new GlobalInfo(null, null, fieldName, type, constant);
+                globals.add(global);
+                if(global.isCached()){
+                    cacheGlobalValue(moduleWriter, moduleClassName, moduleInit, global);
+                }
             }
 
         }
@@ -317,6 +367,28 @@ public class JvmCompiler {
         return globals;
     }
 
+    /**
+     * Make the field holding the value of an immutable global that global.get reads, and initialize it
+     * from the (initialized) global. Reading it saves the call and the volatile read of the global's value.
+     */
+    public static void cacheGlobalValue(ClassWriter moduleWriter, String moduleClassName, MethodVisitor moduleInit, GlobalInfo global){
+        var valueType = toJvmType(global.type().valueType());
+        moduleWriter.visitField(Opcodes.ACC_PRIVATE, global.valueFieldName(), valueType.getDescriptor(), null, null)
+                .visitEnd();
+
+        moduleInit.visitVarInsn(Opcodes.ALOAD, 0);
+        moduleInit.visitVarInsn(Opcodes.ALOAD, 0);
+        moduleInit.visitFieldInsn(Opcodes.GETFIELD, moduleClassName, global.fieldName(),
+                Type.getDescriptor(globalType(global.type().valueType())));
+        moduleInit.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+                Type.getInternalName(globalType(global.type().valueType())),
+                "getValue",
+                Type.getMethodDescriptor(valueType),
+                false
+        );
+        moduleInit.visitFieldInsn(Opcodes.PUTFIELD, moduleClassName, global.valueFieldName(), valueType.getDescriptor());
+    }
+
     public String generateGlobalField(ClassWriter moduleWriter, int id, GlobalType type, Import i, String exportName){
         var imported = i != null;
         var exported = exportName != null;
@@ -354,7 +426,7 @@ public class JvmCompiler {
                 methodName, globalAccessorHelperDescriptor(set, global.type().valueType(), moduleClassName), null, null);
 
         // Get the global from the module field, and invoke setValue()
-        var moduleParam = set ? 1 : 0;
+        var moduleParam = set ? toJvmType(global.type().valueType()).getSize() : 0;
         invoker.visitVarInsn(Opcodes.ALOAD, moduleParam);
         invoker.visitFieldInsn(Opcodes.GETFIELD, moduleClassName, global.fieldName(),
                 Type.getDescriptor(globalType(global.type().valueType())));
@@ -396,31 +468,32 @@ public class JvmCompiler {
                     "getTable", Type.getMethodDescriptor(Type.getType(Table.class)), false);
 
             // Evaluate offset
-            decoder.decodeOffsetExpr(new JvmCodeVisitor(module, moduleClassName, functions, globals, moduleInit));
+            decoder.decodeOffsetExpr(new JvmCodeVisitor(config, module, moduleClassName, functions, globals, moduleInit));
 
             var idVec = decoder.decodeIds();
 
-            // Build MethodHandle[] of the functions
+            // Build MethodHandle[] of the functions' targets
             moduleInit.visitLdcInsn(idVec.length);
-            moduleInit.visitTypeInsn(Opcodes.ANEWARRAY, Type.getDescriptor(MethodHandle.class));
+            moduleInit.visitTypeInsn(Opcodes.ANEWARRAY, Type.getInternalName(MethodHandle.class));
             for(int id = 0; id < idVec.length; id++){
                 moduleInit.visitInsn(Opcodes.DUP);
                 moduleInit.visitLdcInsn(id);
 
-                // Get method handle
+                // Get the function's target, which the table pairs with this instance
                 moduleInit.visitVarInsn(Opcodes.ALOAD, 0);
                 moduleInit.visitLdcInsn(idVec[id]);
                 moduleInit.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(WasmContext.class),
-                        "getFunctionHandleDirect",
+                        "getFunctionTarget",
                         Type.getMethodDescriptor(Type.getType(MethodHandle.class),
                                 Type.getType(WasmModule.class), Type.getType(int.class)), false);
 
                 moduleInit.visitInsn(Opcodes.AASTORE);
             }
 
+            moduleInit.visitVarInsn(Opcodes.ALOAD, 0);
             moduleInit.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Table.class),
                     "setAll",
-                    Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, Type.getType(MethodHandle[].class)), false);
+                    Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, Type.getType(MethodHandle[].class), Type.getType(Object.class)), false);
         }
     }
 
@@ -430,15 +503,20 @@ public class JvmCompiler {
         var dataCount = decoder.decodeDataCount();
         for(int i = 0; i < dataCount; i++){
 
-            // Unused for now, since there is at most one memory segment per module
-            var memoryId = decoder.decodeMemoryId();
-
-            moduleInit.visitVarInsn(Opcodes.ALOAD, 0);
+            var mode = decoder.decodeSegmentMode();
+            if(mode == WasmDataDecoder.PASSIVE){
+                // Passive segments are only copied into memory by memory.init
+                decoder.decodeData();
+                continue;
+            }
+            var memoryId = 0;
+            if(mode == WasmDataDecoder.ACTIVE_EXPLICIT){
+                memoryId = decoder.decodeMemoryId();
+            }
 
-            moduleInit.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(WasmModule.class),
-                    "getMemory", Type.getMethodDescriptor(Type.getType(Memory.class)), false);
+            getMemory(moduleInit, moduleClassName, memoryId);
 
-            decoder.decodeOffsetExpr(new JvmCodeVisitor(module, moduleClassName, functions, globals, moduleInit));
+            decoder.decodeOffsetExpr(new JvmCodeVisitor(config, module, moduleClassName, functions, globals, moduleInit));
 
             var data = decoder.decodeData();
             moduleInit.visitLdcInsn(data.length);
@@ -454,8 +532,10 @@ public class JvmCompiler {
                 moduleInit.visitInsn(Opcodes.BASTORE);
             }
 
+            // memory64 offset expressions produce an i64 address
+            var addressType = module.isMemory64(memoryId) ? Type.LONG_TYPE : Type.INT_TYPE;
             moduleInit.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Memory.class),
-                    "bulkSet", Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, Type.getType(byte[].class)),
+                    "bulkSet", Type.getMethodDescriptor(Type.VOID_TYPE, addressType, Type.getType(byte[].class)),
                     false);
         }
 
@@ -509,19 +589,46 @@ public class JvmCompiler {
         return Type.getMethodDescriptor(rType, pTypes);
     }
 
+    /**
+     * The descriptor of an imported function's invokedynamic call site: the module instance,
+     * followed by the function's parameters.
+     */
+    public static String importCallDescriptor(FunctionType type, String moduleClassName){
+        var types = toJvmTypes(type.params());
+        var pTypes = new Type[types.length + 1];
+        pTypes[0] = Type.getType(JvmCompiler.classNameToDescriptor(moduleClassName));
+        System.arraycopy(types, 0, pTypes, 1, types.length);
+
+        var rType = type.isVoid() ? Type.VOID_TYPE : JvmCompiler.toJvmType(type.results()[0]);
+        return Type.getMethodDescriptor(rType, pTypes);
+    }
+
+    /**
+     * The descriptor of a call_indirect's invokedynamic call site: the function's parameters,
+     * followed by the element index and the table.
+     */
+    public static String indirectCallDescriptor(FunctionType type){
+        var types = toJvmTypes(type.params());
+        var pTypes = Arrays.copyOf(types, types.length + 2);
+        pTypes[types.length] = Type.INT_TYPE;
+        pTypes[types.length + 1] = Type.getType(Table.class);
+
+        var rType = type.isVoid() ? Type.VOID_TYPE : JvmCompiler.toJvmType(type.results()[0]);
+        return Type.getMethodDescriptor(rType, pTypes);
+    }
+
     public static void loadParams(MethodVisitor code, FunctionType type, boolean isStatic){
-        var offset = isStatic ? 0 : 1;
-        for(int i = 0; i < type.params().length; i++){
-            var pType = type.params()[i];
-            switch (pType){
-                case I32 -> code.visitVarInsn(Opcodes.ILOAD, i + offset);
-                case I64 -> code.visitVarInsn(Opcodes.LLOAD, i + offset);
-                case F32 -> code.visitVarInsn(Opcodes.FLOAD, i + offset);
-                case F64 -> code.visitVarInsn(Opcodes.DLOAD, i + offset);
-            }
+        var slot = isStatic ? 0 : 1;
+        for(var pType : type.params()){
+            code.visitVarInsn(loadOpcode(pType), slot);
+            slot += JvmCodeVisitor.slotWidth(pType);
         }
     }
 
+    public static int paramSlots(FunctionType type){
+        return Arrays.stream(type.params()).mapToInt(JvmCodeVisitor::slotWidth).sum();
+    }
+
     public static int loadOpcode(ValueType type){
         return switch (type){
                 case I32 -> Opcodes.ILOAD;
@@ -531,6 +638,15 @@ public class JvmCompiler {
             };
     }
 
+    public static int storeOpcode(ValueType type){
+        return switch (type){
+                case I32 -> Opcodes.ISTORE;
+                case I64 -> Opcodes.LSTORE;
+                case F32 -> Opcodes.FSTORE;
+                case F64 -> Opcodes.DSTORE;
+            };
+    }
+
     public static void makeReturn(MethodVisitor code, Optional<ValueType> rType){
         rType.ifPresentOrElse(
                 t -> {
@@ -27,9 +27,9 @@ public class Leb128 {
 
         while(true){
             byte b = in.get();
-            result |= (long) (b & 0b0111_111) << shift;
+            result |= (long) (b & 0x7F) << shift;
 
-            if((b & 0x1000_0000) == 0){
+            if((b & 0x80) == 0){
                 return result;
             }
 
@@ -44,11 +44,11 @@ public class Leb128 {
         byte b;
         do {
             b = in.get();
-            result |= (long) (b & 0b0111_111) << shift;
+            result |= (long) (b & 0x7F) << shift;
             shift += 7;
-        } while((b & 0x1000_0000) != 0);
+        } while((b & 0x80) != 0);
 
-        if ((shift < bitLength) && (b & 0x0100_0000) != 0){
+        if ((shift < 64) && (b & 0x40) != 0){
             // extend sign
             result |= (~0L << shift);
         }
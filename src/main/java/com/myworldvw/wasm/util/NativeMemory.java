@@ -0,0 +1,263 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm.util;
+
+import java.lang.foreign.*;
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Thin wrapper around the handful of libc virtual memory calls (mmap, munmap, mprotect, madvise)
+ * needed to reserve a large address range up front and commit it incrementally. These
+ * are only available on Linux - callers must check {@link #isSupported()} first and fall
+ * back to plain arena allocation otherwise.
+ */
+public class NativeMemory {
+
+    public static final int PROT_NONE = 0x0;
+    public static final int PROT_READ = 0x1;
+    public static final int PROT_WRITE = 0x2;
+
+    public static final int MAP_PRIVATE = 0x02;
+    public static final int MAP_ANONYMOUS = 0x20;
+    public static final int MAP_NORESERVE = 0x4000;
+
+    public static final int MADV_DONTNEED = 4;
+    public static final int MADV_HUGEPAGE = 14;
+
+    public static final int SC_PAGESIZE = 30;
+    public static final long DEFAULT_OS_PAGE_SIZE = 4096;
+
+    // The granularity the OS maps memory in, queried from sysconf - 4 KiB on most systems,
+    // but 16 KiB or 64 KiB on some arm64 kernels
+    public static final long OS_PAGE_SIZE;
+    public static final long HUGE_PAGE_SIZE = 2 * 1024 * 1024;
+
+    private static final MethodHandle MMAP;
+    private static final MethodHandle MUNMAP;
+    private static final MethodHandle MPROTECT;
+    private static final MethodHandle MADVISE;
+    private static final MethodHandle MINCORE;
+
+    static {
+        MethodHandle mmap = null;
+        MethodHandle munmap = null;
+        MethodHandle mprotect = null;
+        MethodHandle madvise = null;
+        MethodHandle mincore = null;
+        long pageSize = -1;
+
+        if(System.getProperty("os.name", "").toLowerCase().startsWith("linux")){
+            try{
+                var linker = Linker.nativeLinker();
+                var libc = linker.defaultLookup();
+
+                mmap = libc.find("mmap").map(s -> linker.downcallHandle(s,
+                        FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                                ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)))
+                        .orElse(null);
+                munmap = libc.find("munmap").map(s -> linker.downcallHandle(s,
+                        FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG)))
+                        .orElse(null);
+                mprotect = libc.find("mprotect").map(s -> linker.downcallHandle(s,
+                        FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT)))
+                        .orElse(null);
+                madvise = libc.find("madvise").map(s -> linker.downcallHandle(s,
+                        FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT)))
+                        .orElse(null);
+                mincore = libc.find("mincore").map(s -> linker.downcallHandle(s,
+                        FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS)))
+                        .orElse(null);
+
+                var sysconf = libc.find("sysconf").map(s -> linker.downcallHandle(s,
+                        FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT)))
+                        .orElse(null);
+                if(sysconf != null){
+                    pageSize = (long) sysconf.invokeExact(SC_PAGESIZE);
+                }
+            }catch (Throwable t){
+                // Native access is not permitted or not supported on this platform,
+                // leave everything unset so that callers use the portable path.
+                mmap = null;
+            }
+        }
+
+        MMAP = mmap;
+        MUNMAP = munmap;
+        MPROTECT = mprotect;
+        MADVISE = madvise;
+        MINCORE = mincore;
+        // Page rounding masks with -OS_PAGE_SIZE, so anything but a power of two falls back to the default
+        OS_PAGE_SIZE = pageSize > 0 && Long.bitCount(pageSize) == 1 ? pageSize : DEFAULT_OS_PAGE_SIZE;
+    }
+
+    public static boolean isSupported(){
+        return MMAP != null && MUNMAP != null && MPROTECT != null;
+    }
+
+    public static boolean isAdviseSupported(){
+        return MADVISE != null;
+    }
+
+    public static boolean isResidencySupported(){
+        return MINCORE != null;
+    }
+
+    public static long roundToOsPage(long size){
+        return (size + OS_PAGE_SIZE - 1) & -OS_PAGE_SIZE;
+    }
+
+    /**
+     * Reserve (but do not commit) a range of the process address space. The returned segment
+     * is inaccessible until ranges of it are committed via {@link #commit(MemorySegment, long, long)},
+     * and the reservation is released when the given arena is closed.
+     */
+    public static MemorySegment reserve(long byteSize, Arena arena){
+        var size = roundToOsPage(byteSize);
+        try{
+            var base = (MemorySegment) MMAP.invokeExact(MemorySegment.NULL, size, PROT_NONE,
+                    MAP_PRIVATE | MAP_ANONYMOUS | MAP_NORESERVE, -1, 0L);
+            if(base.address() == -1L){
+                throw new OutOfMemoryError("Unable to reserve %d bytes of address space".formatted(size));
+            }
+            return wrap(base.address(), size, arena, () -> unmap(base.address(), size));
+        }catch (OutOfMemoryError e){
+            throw e;
+        }catch (Throwable t){
+            throw new IllegalStateException("mmap failed", t);
+        }
+    }
+
+    /**
+     * Commit a range of a reservation so that it can be read and written. Freshly
+     * committed pages are supplied zeroed by the OS on first touch.
+     */
+    public static void commit(MemorySegment reservation, long offset, long length){
+        protect(reservation, offset, length, PROT_READ | PROT_WRITE);
+    }
+
+    public static void protect(MemorySegment reservation, long offset, long length, int protection){
+        try{
+            var result = (int) MPROTECT.invokeExact(reservation.asSlice(offset, length), length, protection);
+            if(result != 0){
+                throw new OutOfMemoryError("Unable to commit %d bytes at offset %d".formatted(length, offset));
+            }
+        }catch (OutOfMemoryError e){
+            throw e;
+        }catch (Throwable t){
+            throw new IllegalStateException("mprotect failed", t);
+        }
+    }
+
+    /**
+     * Ask the kernel to back the segment with transparent huge pages. Only the 2 MiB-aligned
+     * portion of the segment can be advised, so the segment should be allocated with 2 MiB
+     * alignment. This is purely a hint: it fails (returning false) if madvise is unavailable,
+     * or if transparent huge pages are disabled.
+     * @return whether the advice was accepted
+     */
+    public static boolean adviseHugePages(MemorySegment segment){
+        if(MADVISE == null){
+            return false;
+        }
+        var start = (segment.address() + HUGE_PAGE_SIZE - 1) & -HUGE_PAGE_SIZE;
+        var end = (segment.address() + segment.byteSize()) & -HUGE_PAGE_SIZE;
+        if(end <= start){
+            return false;
+        }
+        try{
+            var length = end - start;
+            var result = (int) MADVISE.invokeExact(segment.asSlice(start - segment.address(), length), length, MADV_HUGEPAGE);
+            return result == 0;
+        }catch (Throwable t){
+            return false;
+        }
+    }
+
+    /**
+     * Return the whole OS pages within the segment to the kernel. The segment must be part of a
+     * private anonymous mapping: the released pages then read as zeros, and are only backed by
+     * physical memory again once touched.
+     * @return the number of bytes released - only the OS page-aligned interior of the segment is
+     * released, and nothing is if madvise is unavailable or fails
+     */
+    public static long release(MemorySegment segment){
+        if(MADVISE == null){
+            return 0;
+        }
+        var start = roundToOsPage(segment.address());
+        var end = (segment.address() + segment.byteSize()) & -OS_PAGE_SIZE;
+        if(end <= start){
+            return 0;
+        }
+        try{
+            var length = end - start;
+            var result = (int) MADVISE.invokeExact(segment.asSlice(start - segment.address(), length), length, MADV_DONTNEED);
+            return result == 0 ? length : 0;
+        }catch (Throwable t){
+            return 0;
+        }
+    }
+
+    /**
+     * @return the number of bytes of the OS pages overlapping the segment that are resident in
+     * physical memory, or -1 if residency cannot be queried
+     */
+    public static long residentBytes(MemorySegment segment){
+        if(MINCORE == null){
+            return -1;
+        }
+        if(segment.byteSize() == 0){
+            return 0;
+        }
+        var start = segment.address() & -OS_PAGE_SIZE;
+        var length = roundToOsPage(segment.address() + segment.byteSize()) - start;
+        var osPages = length / OS_PAGE_SIZE;
+        try(var arena = Arena.openConfined()){
+            var vector = arena.allocate(osPages);
+            var result = (int) MINCORE.invokeExact(MemorySegment.ofAddress(start), length, vector);
+            if(result != 0){
+                return -1;
+            }
+            long resident = 0;
+            for(long i = 0; i < osPages; i++){
+                resident += vector.get(ValueLayout.JAVA_BYTE, i) & 1;
+            }
+            return resident * OS_PAGE_SIZE;
+        }catch (Throwable t){
+            return -1;
+        }
+    }
+
+    protected static void unmap(long address, long byteSize){
+        try{
+            var result = (int) MUNMAP.invokeExact(MemorySegment.ofAddress(address), byteSize);
+            if(result != 0){
+                throw new IllegalStateException("Unable to release reservation at 0x%X".formatted(address));
+            }
+        }catch (IllegalStateException e){
+            throw e;
+        }catch (Throwable t){
+            throw new IllegalStateException("munmap failed", t);
+        }
+    }
+
+    protected static MemorySegment wrap(long address, long byteSize, Arena arena, Runnable cleanup){
+        return MemorySegment.ofAddress(address, byteSize, arena.scope(), cleanup);
+    }
+
+}
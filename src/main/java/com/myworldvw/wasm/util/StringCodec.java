@@ -0,0 +1,115 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm.util;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Segment-level helpers for the string codecs of {@link com.myworldvw.wasm.Memory}. Strings
+ * are moved between segments and Java arrays with a single bulk copy, leaving the decoding
+ * itself to the JDK, whose intrinsified UTF-8 and Latin-1 coders take a vectorized path
+ * over ASCII runs. Terminators are located a word at a time (SWAR), testing eight bytes
+ * or four UTF-16 code units per load.
+ */
+public class StringCodec {
+
+    public static final ValueLayout.OfChar UTF16_UNIT = ValueLayout.JAVA_CHAR_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    protected static final ValueLayout.OfLong WORD = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    protected static final long LOW_BYTES = 0x0101010101010101L;
+    protected static final long HIGH_BYTES = 0x8080808080808080L;
+    protected static final long LOW_UNITS = 0x0001000100010001L;
+    protected static final long HIGH_UNITS = 0x8000800080008000L;
+
+    /**
+     * @return the width in bytes of one code unit (and so of a NUL terminator) in charset
+     */
+    public static int unitSize(Charset charset){
+        return charset.equals(StandardCharsets.UTF_16LE)
+                || charset.equals(StandardCharsets.UTF_16BE)
+                || charset.equals(StandardCharsets.UTF_16) ? 2 : 1;
+    }
+
+    /**
+     * Find the first all-zero code unit at or after offset. Units are aligned relative to offset,
+     * not to the segment.
+     * @param segment the segment to scan
+     * @param offset the offset of the first code unit
+     * @param unitSize the width of a code unit, 1 or 2
+     * @return the offset of the terminator, or -1 if the segment ends first
+     */
+    public static long indexOfTerminator(MemorySegment segment, long offset, int unitSize){
+        var size = segment.byteSize();
+        var low = unitSize == 1 ? LOW_BYTES : LOW_UNITS;
+        var high = unitSize == 1 ? HIGH_BYTES : HIGH_UNITS;
+
+        var i = offset;
+        for(; i + Long.BYTES <= size; i += Long.BYTES){
+            var word = segment.get(WORD, i);
+            // Sets the high bit of every zero lane. Borrows can only mark lanes above a zero lane,
+            // so the lowest marked lane (the first in memory, as words are little-endian) is exact.
+            var zeros = (word - low) & ~word & high;
+            if(zeros != 0){
+                return i + ((Long.numberOfTrailingZeros(zeros) >>> 3) & -unitSize);
+            }
+        }
+        for(; i + unitSize <= size; i += unitSize){
+            if((unitSize == 1 ? segment.get(ValueLayout.JAVA_BYTE, i) : segment.get(UTF16_UNIT, i)) == 0){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decode len bytes of segment starting at offset. UTF-16LE is copied code unit for code unit,
+     * so unpaired surrogates are preserved rather than replaced.
+     */
+    public static String decode(MemorySegment segment, long offset, int len, Charset charset){
+        if(charset.equals(StandardCharsets.UTF_16LE)){
+            if((len & 1) != 0){
+                throw new IllegalArgumentException("UTF-16 string length must be even, not %d".formatted(len));
+            }
+            var chars = new char[len / 2];
+            MemorySegment.copy(segment, UTF16_UNIT, offset, chars, 0, chars.length);
+            return new String(chars);
+        }
+        var bytes = new byte[len];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, bytes, 0, len);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Encode value in charset. UTF-16LE is copied code unit for code unit, so unpaired surrogates
+     * are preserved rather than replaced.
+     */
+    public static byte[] encode(String value, Charset charset){
+        if(charset.equals(StandardCharsets.UTF_16LE)){
+            var bytes = new byte[value.length() * 2];
+            MemorySegment.copy(value.toCharArray(), 0, MemorySegment.ofArray(bytes), UTF16_UNIT, 0, value.length());
+            return bytes;
+        }
+        return value.getBytes(charset);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AtomicTests {
+
+    static WasmContext instantiate(boolean direct) throws Exception {
+        var config = new WasmConfig();
+        config.setDirectMemoryAccess(direct);
+        var ctx = WasmContext.createFromResources(config, "/wasm/atomics.wasm");
+        ctx.instantiate("atomics");
+        return ctx;
+    }
+
+    static MethodHandle function(WasmContext ctx, String name){
+        return ctx.getExportedFunction("atomics", name).get();
+    }
+
+    @Test
+    void sharedMemoryIsShared() throws Exception {
+        var ctx = instantiate(false);
+        assertTrue(ctx.findInstance("atomics").getMemory().isShared());
+    }
+
+    @Test
+    void concurrentAddsAreNotLost() throws Throwable {
+        var ctx = instantiate(true);
+        var add = function(ctx, "add");
+        var load = function(ctx, "load");
+
+        var threads = new ArrayList<Thread>();
+        for(int t = 0; t < 4; t++){
+            var thread = new Thread(() -> {
+                try{
+                    for(int i = 0; i < 10_000; i++){
+                        int ignored = (int) add.invokeExact(16, 1);
+                    }
+                }catch(Throwable e){
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(var thread : threads){
+            thread.join();
+        }
+
+        assertEquals(40_000, (int) load.invokeExact(16));
+    }
+
+    @Test
+    void readModifyWriteForms() throws Throwable {
+        var ctx = instantiate(false);
+        var store = function(ctx, "store");
+        var load = function(ctx, "load");
+
+        store.invokeExact(32, 5);
+        assertEquals(5, (int) function(ctx, "cmpxchg").invokeExact(32, 4, 9));
+        assertEquals(5, (int) function(ctx, "cmpxchg").invokeExact(32, 5, 9));
+        assertEquals(9, (int) load.invokeExact(32));
+
+        // 8-bit forms wrap within their byte and leave neighbouring bytes alone
+        store.invokeExact(40, 0x0102_03FF);
+        assertEquals(0xFF, (int) function(ctx, "add8").invokeExact(40, 1));
+        assertEquals(0x0102_0300, (int) load.invokeExact(40));
+        assertEquals(0x03, (int) function(ctx, "add8").invokeExact(41, 2));
+        assertEquals(0x0102_0500, (int) load.invokeExact(40));
+
+        assertEquals(0L, (long) function(ctx, "add64").invokeExact(48, 1L << 40));
+        assertEquals(1L << 40, (long) function(ctx, "add64").invokeExact(48, 1L));
+
+        assertThrows(TrapException.class, () -> {
+            int ignored = (int) load.invokeExact(2);
+        });
+    }
+
+    @Test
+    void waitAndNotify() throws Throwable {
+        var ctx = instantiate(false);
+        var wait = function(ctx, "wait");
+        var notify = function(ctx, "notify");
+
+        assertEquals(Memory.WAIT_NOT_EQUAL, (int) wait.invokeExact(64, 1, -1L));
+        assertEquals(Memory.WAIT_TIMED_OUT, (int) wait.invokeExact(64, 0, 1_000_000L));
+        assertEquals(0, (int) notify.invokeExact(64, 1));
+
+        var waiter = CompletableFuture.supplyAsync(() -> {
+            try{
+                return (int) wait.invokeExact(64, 0, -1L);
+            }catch(Throwable e){
+                throw new RuntimeException(e);
+            }
+        });
+
+        var woken = 0;
+        while(woken == 0){
+            woken = (int) notify.invokeExact(64, 1);
+        }
+        assertEquals(1, woken);
+        assertEquals(Memory.WAIT_OK, (int) waiter.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void interruptedWaitersLeaveTheQueue() throws Throwable {
+        var ctx = instantiate(false);
+        var wait = function(ctx, "wait");
+        var notify = function(ctx, "notify");
+        var memory = ctx.findInstance("atomics").getMemory();
+
+        var interrupted = new AtomicBoolean();
+        var thread = new Thread(() -> {
+            try{
+                int ignored = (int) wait.invokeExact(64, 0, -1L);
+            }catch(Throwable e){
+                interrupted.set(e instanceof InterruptedException);
+            }
+        });
+        thread.start();
+        while(!memory.waiters.containsKey(64L)){
+            Thread.onSpinWait();
+        }
+        thread.interrupt();
+        thread.join(10_000);
+
+        assertTrue(interrupted.get());
+        // The interrupted waiter neither absorbs a notify nor leaves its queue behind
+        assertEquals(0, (int) notify.invokeExact(64, 1));
+        assertTrue(memory.waiters.isEmpty());
+
+        assertEquals(Memory.WAIT_TIMED_OUT, (int) wait.invokeExact(64, 0, 1_000_000L));
+        assertEquals(Memory.WAIT_NOT_EQUAL, (int) wait.invokeExact(64, 1, -1L));
+        assertTrue(memory.waiters.isEmpty());
+    }
+}
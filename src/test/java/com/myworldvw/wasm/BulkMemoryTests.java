@@ -0,0 +1,124 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BulkMemoryTests {
+
+    static WasmContext instantiate(boolean direct) throws Exception {
+        var config = new WasmConfig();
+        config.setDirectMemoryAccess(direct);
+        var ctx = WasmContext.createFromResources(config, "/wasm/bulkMemory.wasm");
+        ctx.instantiate("bulkMemory");
+        return ctx;
+    }
+
+    static MethodHandle function(WasmContext ctx, String name){
+        return ctx.getExportedFunction("bulkMemory", name).get();
+    }
+
+    static String read(MethodHandle load8, int addr, int len) throws Throwable {
+        var builder = new StringBuilder();
+        for(int i = 0; i < len; i++){
+            builder.append((char) (int) load8.invokeExact(addr + i));
+        }
+        return builder.toString();
+    }
+
+    @Test
+    void copyHandlesOverlap() throws Throwable {
+        for(var direct : new boolean[]{false, true}){
+            var ctx = instantiate(direct);
+            var copy = function(ctx, "copy");
+            var load8 = function(ctx, "load8");
+
+            copy.invokeExact(2, 0, 6);
+            assertEquals("ababcdef", read(load8, 0, 8));
+
+            copy.invokeExact(0, 2, 6);
+            assertEquals("abcdefef", read(load8, 0, 8));
+        }
+    }
+
+    @Test
+    void fillAndInit() throws Throwable {
+        for(var direct : new boolean[]{false, true}){
+            var ctx = instantiate(direct);
+            var load8 = function(ctx, "load8");
+
+            function(ctx, "fill").invokeExact(100, 0x17A, 4);
+            assertEquals("zzzz", read(load8, 100, 4));
+            assertEquals(0, (int) load8.invokeExact(104));
+
+            function(ctx, "init").invokeExact(200, 6, 5);
+            assertEquals("world", read(load8, 200, 5));
+        }
+    }
+
+    @Test
+    void outOfBoundsAccessesTrap() throws Throwable {
+        var ctx = instantiate(true);
+        var copy = function(ctx, "copy");
+        var init = function(ctx, "init");
+
+        // Past the 2-page maximum
+        assertThrows(TrapException.class, () -> {
+            copy.invokeExact(2 * Memory.PAGE_SIZE - 4, 0, 8);
+        });
+        // Past the end of the data segment
+        assertThrows(TrapException.class, () -> {
+            init.invokeExact(0, 8, 4);
+        });
+
+        // Zero-length initialization from a dropped segment is fine, anything else traps
+        function(ctx, "drop").invokeExact();
+        init.invokeExact(0, 0, 0);
+        assertThrows(TrapException.class, () -> {
+            init.invokeExact(0, 0, 1);
+        });
+    }
+
+    @Test
+    void discardZeroesWholePages() throws Throwable {
+        for(var direct : new boolean[]{false, true}){
+            var ctx = instantiate(direct);
+            var fill = function(ctx, "fill");
+            var discard = function(ctx, "discard");
+            var load8 = function(ctx, "load8");
+
+            discard.invokeExact(0, Memory.PAGE_SIZE);
+            assertEquals(0, (int) load8.invokeExact(0));
+
+            fill.invokeExact(0, 0x61, 16);
+            assertThrows(TrapException.class, () -> {
+                discard.invokeExact(8, Memory.PAGE_SIZE);
+            });
+            assertThrows(TrapException.class, () -> {
+                discard.invokeExact(0, Memory.PAGE_SIZE + 8);
+            });
+            assertEquals("aaaa", read(load8, 12, 4));
+        }
+    }
+}
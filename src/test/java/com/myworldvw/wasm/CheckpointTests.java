@@ -0,0 +1,116 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.globals.I32Global;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CheckpointTests {
+
+    static MethodHandle function(WasmModule instance, String name, MethodType type) throws Exception {
+        return MethodHandles.lookup().findVirtual(instance.getClass(), name, type).bindTo(instance);
+    }
+
+    @Test
+    void restoredInstancesResumeFromCheckpoint() throws Throwable {
+        var file = Files.createTempFile("forkModule", ".checkpoint");
+        try{
+            var ctx = WasmContext.createFromResources("/wasm/forkModule.wasm");
+            var original = ctx.instantiate("forkModule");
+
+            var write = function(original, "write", MethodType.methodType(void.class, int.class, int.class));
+            var bump = function(original, "bump", MethodType.methodType(int.class));
+            write.invokeExact(16, 99);
+            assertEquals(1, (int) bump.invokeExact());
+            assertEquals(2, (int) bump.invokeExact());
+            assertEquals(1, original.getMemory().grow(1));
+            original.getMemory().writeI32(Memory.PAGE_SIZE + 8, 7);
+
+            ctx.checkpoint(original, file);
+            // Only the two non-zero pages are stored
+            assertTrue(Files.size(file) < 2 * Memory.PAGE_SIZE + 1024);
+
+            // Restore into a fresh context, as another JVM would
+            var restoredCtx = WasmContext.createFromResources("/wasm/forkModule.wasm");
+            var restored = restoredCtx.restore("forkModule", file, new Imports());
+            assertNotSame(original.getMemory(), restored.getMemory());
+
+            var read = function(restored, "read", MethodType.methodType(int.class, int.class));
+            var restoredBump = function(restored, "bump", MethodType.methodType(int.class));
+
+            // The data segment is not re-applied over the checkpointed contents
+            assertEquals(99, (int) read.invokeExact(16));
+            assertEquals(2, restored.getMemory().size());
+            assertEquals(7, (int) read.invokeExact(Memory.PAGE_SIZE + 8));
+            assertEquals(0, (int) read.invokeExact(Memory.PAGE_SIZE + 12));
+            assertEquals(2, ((I32Global) restoredCtx.getExportedGlobal("forkModule", "counter").get()).getValue());
+            assertEquals(3, (int) restoredBump.invokeExact());
+
+            ctx.discard(original);
+            restoredCtx.discard(restored);
+        }finally{
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void checkpointsKeepTableUpdates() throws Throwable {
+        var file = Files.createTempFile("indirectCalls", ".checkpoint");
+        try{
+            var ctx = WasmContext.createFromResources("/wasm/indirectCalls.wasm");
+            var original = ctx.instantiate("indirectCalls");
+
+            // Slot 1 (double) now holds square (function 1), and slot 3 (negate) is cleared
+            original.getTable().set(1, WasmContext.getFunctionTarget(original, 1), original);
+            original.getTable().set(3, null);
+            ctx.checkpoint(original, file);
+
+            var restoredCtx = WasmContext.createFromResources("/wasm/indirectCalls.wasm");
+            var restored = restoredCtx.restore("indirectCalls", file, new Imports());
+            var dispatch = restoredCtx.getExportedFunction("indirectCalls", "dispatch").get();
+            assertEquals(25, (int) dispatch.invokeExact(5, 1));
+            assertEquals(25, (int) dispatch.invokeExact(5, 2));
+            assertEquals(6, (int) dispatch.invokeExact(5, 4));
+            assertThrows(TrapException.class, () -> {
+                int ignored = (int) dispatch.invokeExact(5, 3);
+            });
+
+            // A host function has no index to save it as
+            original.getTable().set(2, MethodHandles.identity(int.class));
+            assertThrows(IllegalStateException.class, () -> ctx.checkpoint(original, file));
+            assertFalse(Files.exists(file));
+
+            ctx.discard(original);
+            restoredCtx.discard(restored);
+        }finally{
+            Files.deleteIfExists(file);
+        }
+    }
+}
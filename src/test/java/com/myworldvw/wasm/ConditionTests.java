@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ConditionTests {
+
+    static final int[] INTS = {0, 1, -1, 2, -2, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    static final long[] LONGS = {0, 1, -1, 2, -2, Long.MAX_VALUE, Long.MIN_VALUE, 1L << 32};
+    static final double[] DOUBLES = {0.0, -0.0, 1.0, -1.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+    static MethodHandle function(WasmContext ctx, String name){
+        return ctx.getExportedFunction("conditions", name).get();
+    }
+
+    static WasmContext instantiate() throws Exception {
+        var ctx = WasmContext.createFromResources("/wasm/conditions.wasm");
+        ctx.instantiate("conditions");
+        return ctx;
+    }
+
+    static int bool(boolean b){
+        return b ? 1 : 0;
+    }
+
+    @Test
+    void branchesOnComparisons() throws Throwable {
+        var ctx = instantiate();
+        var count = function(ctx, "count");
+        var truthy = function(ctx, "truthy");
+        var isLess = function(ctx, "isLess");
+        var notLess = function(ctx, "notLess");
+
+        assertEquals(10, (int) count.invokeExact(10));
+        assertEquals(1, (int) count.invokeExact(-5));
+        for(var a : INTS){
+            // Any non-zero condition is true, including negative ones
+            assertEquals(bool(a != 0), (int) truthy.invokeExact(a));
+            for(var b : INTS){
+                assertEquals(bool(a < b), (int) isLess.invokeExact(a, b));
+                assertEquals(bool(a >= b), (int) notLess.invokeExact(a, b));
+            }
+        }
+    }
+
+    @Test
+    void integerComparisons() throws Throwable {
+        var ctx = instantiate();
+        var ltU = function(ctx, "ltU");
+        var geU = function(ctx, "geU");
+        var minS = function(ctx, "minS");
+        var maxU64 = function(ctx, "maxU64");
+        var eqz64 = function(ctx, "eqz64");
+        var ne64 = function(ctx, "ne64");
+        var lt64 = function(ctx, "lt64");
+
+        for(var a : INTS){
+            for(var b : INTS){
+                assertEquals(bool(Integer.compareUnsigned(a, b) < 0), (int) ltU.invokeExact(a, b));
+                assertEquals(bool(Integer.compareUnsigned(a, b) >= 0), (int) geU.invokeExact(a, b));
+                assertEquals(Math.min(a, b), (int) minS.invokeExact(a, b));
+            }
+        }
+        for(var a : LONGS){
+            assertEquals(bool(a == 0), (int) eqz64.invokeExact(a));
+            for(var b : LONGS){
+                assertEquals(Long.compareUnsigned(a, b) > 0 ? a : b, (long) maxU64.invokeExact(a, b));
+                assertEquals(bool(a != b), (int) ne64.invokeExact(a, b));
+                assertEquals(bool(a < b), (int) lt64.invokeExact(a, b));
+            }
+        }
+    }
+
+    @Test
+    void floatComparisonsFollowIeee() throws Throwable {
+        var ctx = instantiate();
+        var ltF32 = function(ctx, "ltF32");
+        var geF32 = function(ctx, "geF32");
+        var eqF64 = function(ctx, "eqF64");
+        var neF64 = function(ctx, "neF64");
+        var gtF64 = function(ctx, "gtF64");
+        var minF64 = function(ctx, "minF64");
+
+        // Java's relational operators have the wasm semantics: NaN compares false, -0 equals 0
+        for(var a : DOUBLES){
+            for(var b : DOUBLES){
+                assertEquals(bool((float) a < (float) b), (int) ltF32.invokeExact((float) a, (float) b));
+                assertEquals(bool((float) a >= (float) b), (int) geF32.invokeExact((float) a, (float) b));
+                assertEquals(bool(a == b), (int) eqF64.invokeExact(a, b));
+                assertEquals(bool(a != b), (int) neF64.invokeExact(a, b));
+                assertEquals(bool(a > b), (int) gtF64.invokeExact(a, b));
+                assertEquals(Double.doubleToRawLongBits(a < b ? a : b), Double.doubleToRawLongBits((double) minF64.invokeExact(a, b)));
+            }
+        }
+    }
+}
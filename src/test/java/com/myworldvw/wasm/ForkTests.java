@@ -0,0 +1,155 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import com.myworldvw.wasm.globals.I32Global;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ForkTests {
+
+    static MethodHandle function(WasmModule instance, String name, MethodType type) throws Exception {
+        return MethodHandles.lookup().findVirtual(instance.getClass(), name, type).bindTo(instance);
+    }
+
+    @Test
+    void forkedInstancesStartFromTemplateState() throws Throwable {
+        var ctx = WasmContext.createFromResources("/wasm/forkModule.wasm");
+        var template = ctx.instantiate("forkModule");
+
+        var templateWrite = function(template, "write", MethodType.methodType(void.class, int.class, int.class));
+        var templateBump = function(template, "bump", MethodType.methodType(int.class));
+        templateWrite.invokeExact(32, 7);
+        assertEquals(1, (int) templateBump.invokeExact());
+
+        var fork = ctx.fork(template);
+        assertNotSame(template.getMemory(), fork.getMemory());
+
+        var forkRead = function(fork, "read", MethodType.methodType(int.class, int.class));
+        var forkWrite = function(fork, "write", MethodType.methodType(void.class, int.class, int.class));
+        var forkBump = function(fork, "bump", MethodType.methodType(int.class));
+
+        // Data segment and template writes are visible without re-initializing
+        assertEquals(42, (int) forkRead.invokeExact(16));
+        assertEquals(7, (int) forkRead.invokeExact(32));
+
+        // Writes and global updates are private to the fork
+        forkWrite.invokeExact(16, 99);
+        assertEquals(2, (int) forkBump.invokeExact());
+        assertEquals(99, (int) forkRead.invokeExact(16));
+        assertEquals(42, template.getMemory().readI32(16));
+        assertEquals(1, ((I32Global) ctx.getExportedGlobal("forkModule", "counter").get()).getValue());
+
+        fork.getMemory().close();
+    }
+
+    @Test
+    void forksOfARunningTemplateAgree() throws Throwable {
+        var ctx = WasmContext.createFromResources("/wasm/forkModule.wasm");
+        var template = ctx.instantiate("forkModule");
+
+        var templateWrite = function(template, "write", MethodType.methodType(void.class, int.class, int.class));
+        var templateBump = function(template, "bump", MethodType.methodType(int.class));
+        templateWrite.invokeExact(32, 7);
+        assertEquals(1, (int) templateBump.invokeExact());
+
+        var first = ctx.fork(template);
+
+        // The template keeps running between forks, but its memory is now frozen
+        assertEquals(2, (int) templateBump.invokeExact());
+        assertThrows(UnsupportedOperationException.class, () -> {
+            templateWrite.invokeExact(32, 8);
+        });
+        assertThrows(UnsupportedOperationException.class, () -> template.getMemory().writeI32(36, 8));
+        assertEquals(-1, template.getMemory().grow(1));
+
+        var second = ctx.fork(template);
+        var firstRead = function(first, "read", MethodType.methodType(int.class, int.class));
+        var secondRead = function(second, "read", MethodType.methodType(int.class, int.class));
+        var secondBump = function(second, "bump", MethodType.methodType(int.class));
+
+        assertEquals(7, (int) firstRead.invokeExact(32));
+        assertEquals(7, (int) secondRead.invokeExact(32));
+        assertEquals(0, (int) secondRead.invokeExact(36));
+        assertEquals(3, (int) secondBump.invokeExact());
+
+        first.getMemory().close();
+        second.getMemory().close();
+    }
+
+    @Test
+    void forkedMemoriesAreConfiguredLikeInstantiatedOnes() throws Throwable {
+        var governor = new MemoryGovernor(2L * Memory.PAGE_SIZE);
+        var config = new WasmConfig();
+        config.setMemoryGovernor(governor);
+        config.setDirtyPageSize(4096);
+        config.setAccessProfiling(true);
+        var ctx = WasmContext.createFromResources(config, "/wasm/forkModule.wasm");
+        var template = ctx.instantiate("forkModule");
+        var committed = governor.getCommittedBytes();
+
+        var fork = ctx.fork(template);
+        var memory = fork.getMemory();
+        assertEquals(2, governor.getMemoryCount());
+        assertEquals(2 * committed, governor.getCommittedBytes());
+        assertTrue(memory.isTrackingDirtyPages());
+        assertNotNull(memory.getAccessProfile());
+
+        // Growing the fork to two pages would take the two memories past the budget
+        assertEquals(-1, memory.grow(1));
+        assertEquals(1, governor.getDenials());
+
+        ctx.discard(fork);
+        assertEquals(committed, governor.getCommittedBytes());
+        ctx.discard(template);
+    }
+
+    @Test
+    void forkedMemoryCopiesOnWrite(){
+        try(var memory = new Memory(new Limits(1, 4))){
+            memory.writeI32(0, 1);
+
+            var a = memory.fork();
+            var b = memory.fork();
+            a.writeI32(0, 2);
+
+            assertEquals(1, memory.readI32(0));
+            assertEquals(2, a.readI32(0));
+            assertEquals(1, b.readI32(0));
+
+            // Forks can grow past the frozen image
+            assertEquals(1, b.grow(1));
+            b.writeI32(Memory.PAGE_SIZE + 4, 3);
+            assertEquals(3, b.readI32(Memory.PAGE_SIZE + 4));
+            assertEquals(1, b.readI32(0));
+
+            a.close();
+            b.close();
+        }
+    }
+}
@@ -17,11 +17,14 @@
 
 package com.myworldvw.wasm;
 
+import com.myworldvw.wasm.jvm.IndirectCallLinker;
 import org.junit.jupiter.api.Test;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class FunctionCallTests {
     @Test
@@ -52,4 +55,97 @@ public class FunctionCallTests {
 
         assertEquals(3, (int) handle.invokeExact());
     }
+
+    @Test
+    void instancesCallTheirOwnImports() throws Throwable {
+        var ctx = WasmContext.createFromResources("/wasm/callImportedFunction.wasm");
+        var three = ctx.instantiate("callImportedFunction", new Imports()
+                .function("env", "importMe", MethodHandles.constant(int.class, 3)));
+        var four = ctx.instantiate("callImportedFunction", new Imports()
+                .function("env", "importMe", MethodHandles.constant(int.class, 4)));
+        var callThree = WasmContext.getFunctionHandleDirect(three, 1);
+        var callFour = WasmContext.getFunctionHandleDirect(four, 1);
+
+        // Both instances share the compiled class, and so its import call site
+        for(int i = 0; i < 10000; i++){
+            assertEquals(3, (int) callThree.invokeExact());
+            assertEquals(4, (int) callFour.invokeExact());
+        }
+    }
+
+    @Test
+    void indirectCallsDispatchOnElement() throws Throwable {
+        var ctx = WasmContext.createFromResources("/wasm/indirectCalls.wasm");
+        ctx.instantiate("indirectCalls");
+        var dispatch = ctx.getExportedFunction("indirectCalls", "dispatch").get();
+        var twice = ctx.getExportedFunction("indirectCalls", "twice").get();
+
+        // Five functions of the same type take the call site from monomorphic through to megamorphic
+        for(int i = 0; i < 1000; i++){
+            for(int index = 1; index <= 5; index++){
+                var expected = switch (index){
+                    case 1 -> 2 * i;
+                    case 2 -> i * i;
+                    case 3 -> -i;
+                    case 4 -> i + 1;
+                    default -> i - 1;
+                };
+                assertEquals(expected, (int) dispatch.invokeExact(i, index));
+            }
+        }
+        assertEquals(12, (int) twice.invokeExact(3, 1));
+        assertEquals(81, (int) twice.invokeExact(3, 2));
+    }
+
+    @Test
+    void indirectCallsCheckElement() throws Throwable {
+        var ctx = WasmContext.createFromResources("/wasm/indirectCalls.wasm");
+        ctx.instantiate("indirectCalls");
+        var dispatch = ctx.getExportedFunction("indirectCalls", "dispatch").get();
+
+        assertEquals(10, (int) dispatch.invokeExact(5, 1));
+        for(var index : new int[]{0, 6, 7, -1}){
+            // Uninitialized, of another type, and out of bounds
+            assertThrows(TrapException.class, () -> {
+                var result = (int) dispatch.invokeExact(5, index);
+            });
+        }
+    }
+
+    @Test
+    void indirectCallsStayCachedAcrossForks() throws Throwable {
+        var ctx = WasmContext.createFromResources("/wasm/indirectCalls.wasm");
+        var template = ctx.instantiate("indirectCalls");
+
+        // More forks than a call site caches: they all share the module's targets
+        var forks = new ArrayList<WasmModule>();
+        for(int i = 0; i < 2 * IndirectCallLinker.CACHE_SIZE; i++){
+            forks.add(ctx.fork(template));
+        }
+        for(int i = 0; i < 1000; i++){
+            for(var fork : forks){
+                var dispatch = WasmContext.getFunctionHandleDirect(fork, 6);
+                assertEquals(2 * i, (int) dispatch.invoke(i, 1));
+                assertEquals(i * i, (int) dispatch.invoke(i, 2));
+            }
+        }
+    }
+
+    @Test
+    void indirectCallsSeeTableUpdates() throws Throwable {
+        var ctx = WasmContext.createFromResources("/wasm/indirectCalls.wasm");
+        var module = ctx.instantiate("indirectCalls");
+        var dispatch = ctx.getExportedFunction("indirectCalls", "dispatch").get();
+
+        for(int i = 0; i < 1000; i++){
+            assertEquals(2 * i, (int) dispatch.invokeExact(i, 1));
+        }
+        module.getTable().set(1, MethodHandles.identity(int.class));
+        assertEquals(7, (int) dispatch.invokeExact(7, 1));
+
+        module.getTable().set(1, MethodHandles.constant(int.class, 3));
+        assertThrows(TrapException.class, () -> {
+            var result = (int) dispatch.invokeExact(7, 1);
+        });
+    }
 }
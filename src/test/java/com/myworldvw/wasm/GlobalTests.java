@@ -17,10 +17,12 @@
 
 package com.myworldvw.wasm;
 
+import com.myworldvw.wasm.globals.F64Global;
 import com.myworldvw.wasm.globals.I32Global;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class GlobalTests {
@@ -53,4 +55,38 @@ public class GlobalTests {
         assertEquals(2, ((I32Global) global2.get()).getValue());
     }
 
+    @Test
+    void readsImmutableGlobals() throws Throwable {
+        var ctx = WasmContext.createFromResources("/wasm/constGlobals.wasm");
+        var module = ctx.instantiate("constGlobals", new Imports()
+                .global("env", "base", I32Global.immutable(100))
+                .global("env", "scale", F64Global.immutable(2.0)));
+
+        assertEquals(142, (int) ctx.getExportedFunction("constGlobals", "sum").get().invokeExact());
+        assertEquals(0x123456789L, (long) ctx.getExportedFunction("constGlobals", "big").get().invokeExact());
+        assertEquals(0.5f, (float) ctx.getExportedFunction("constGlobals", "half").get().invokeExact());
+        assertEquals(13.25, (double) ctx.getExportedFunction("constGlobals", "scaled").get().invokeExact(5.0));
+        var bump = ctx.getExportedFunction("constGlobals", "bump").get();
+        assertEquals(101, (int) bump.invokeExact());
+        assertEquals(102, (int) bump.invokeExact());
+
+        // Folded and cached globals still exist as globals
+        assertEquals(42, ((I32Global) ctx.getExportedGlobal("constGlobals", "answer").get()).getValue());
+        assertEquals(100, ((I32Global) ctx.getExportedGlobal("constGlobals", "derived").get()).getValue());
+
+        // A fork shares the imports, and so the cached values
+        var fork = ctx.fork(module);
+        assertEquals(142, (int) WasmContext.getFunctionHandleDirect(fork, 0).invokeExact());
+        assertEquals(103, (int) WasmContext.getFunctionHandleDirect(fork, 4).invokeExact());
+    }
+
+    @Test
+    void immutableGlobalImportsMustBeImmutable() throws Throwable {
+        var ctx = WasmContext.createFromResources("/wasm/constGlobals.wasm");
+
+        assertThrows(MissingImportException.class, () -> ctx.instantiate("constGlobals", new Imports()
+                .global("env", "base", I32Global.mutable(100))
+                .global("env", "scale", F64Global.immutable(2.0))));
+    }
+
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MemoryAccessTests {
+
+    static WasmContext instantiate(boolean direct) throws Exception {
+        var config = new WasmConfig();
+        config.setDirectMemoryAccess(direct);
+        var ctx = WasmContext.createFromResources(config, "/wasm/memoryAccess.wasm");
+        ctx.instantiate("memoryAccess");
+        return ctx;
+    }
+
+    static MethodHandle function(WasmContext ctx, String name){
+        return ctx.getExportedFunction("memoryAccess", name).get();
+    }
+
+    @Test
+    void loadsAndStoresThroughMemoryMethods() throws Throwable {
+        loadsAndStores(instantiate(false));
+    }
+
+    @Test
+    void loadsAndStoresThroughDirectSegmentAccess() throws Throwable {
+        loadsAndStores(instantiate(true));
+    }
+
+    @Test
+    void growsThroughMemoryMethods() throws Throwable {
+        grows(instantiate(false));
+    }
+
+    @Test
+    void growsThroughDirectSegmentAccess() throws Throwable {
+        grows(instantiate(true));
+    }
+
+    void loadsAndStores(WasmContext ctx) throws Throwable {
+        assertEquals(42, (int) function(ctx, "storeLoadI32").invokeExact(16, 42));
+        assertEquals(42, ctx.findInstance("memoryAccess").memory0.readI32(20));
+
+        function(ctx, "store8").invokeExact(100, 0xFF);
+        assertEquals(255, (int) function(ctx, "load8U").invokeExact(100));
+        assertEquals(-1, (int) function(ctx, "load8S").invokeExact(100));
+
+        assertEquals(-2L, (long) function(ctx, "storeLoadI64").invokeExact(200, -2L));
+        assertEquals(0xFFFF_FFFEL, (long) function(ctx, "load32U").invokeExact(200));
+        assertEquals(1.5d, (double) function(ctx, "storeLoadF64").invokeExact(1.5d, 300));
+
+        assertThrows(SegmentationException.class, () -> {
+            int ignored = (int) function(ctx, "load8U").invokeExact(4 * Memory.PAGE_SIZE);
+        });
+    }
+
+    void grows(WasmContext ctx) throws Throwable {
+        assertEquals(1, (int) function(ctx, "size").invokeExact());
+        assertEquals(1, (int) function(ctx, "grow").invokeExact(1));
+        assertEquals(2, (int) function(ctx, "size").invokeExact());
+
+        // Grows to 3 pages via a call and then reads from the new page
+        assertEquals(0, (int) function(ctx, "growAndLoad").invokeExact(2 * Memory.PAGE_SIZE + 8));
+        assertEquals(3, (int) function(ctx, "size").invokeExact());
+
+        assertEquals(-1, (int) function(ctx, "grow").invokeExact(2));
+    }
+
+    @Test
+    void memory64ThroughMemoryMethods() throws Throwable {
+        memory64(false);
+    }
+
+    @Test
+    void memory64ThroughDirectSegmentAccess() throws Throwable {
+        memory64(true);
+    }
+
+    void memory64(boolean direct) throws Throwable {
+        var config = new WasmConfig();
+        config.setDirectMemoryAccess(direct);
+        var ctx = WasmContext.createFromResources(config, "/wasm/memory64.wasm");
+        ctx.instantiate("memory64");
+
+        var storeLoad = ctx.getExportedFunction("memory64", "storeLoadI32").get();
+        var load = ctx.getExportedFunction("memory64", "loadI64").get();
+        var grow = ctx.getExportedFunction("memory64", "grow").get();
+        var size = ctx.getExportedFunction("memory64", "size").get();
+
+        assertEquals(7L, (long) load.invokeExact(64L));
+        assertEquals(5, (int) storeLoad.invokeExact(16L, 5));
+        assertEquals(1L, (long) size.invokeExact());
+        assertEquals(1L, (long) grow.invokeExact(1L));
+        assertEquals(9, (int) storeLoad.invokeExact((long) Memory.PAGE_SIZE + 100, 9));
+
+        // Addresses past the maximum (including those with the top bit set) trap
+        assertThrows(SegmentationException.class, () -> {
+            long ignored = (long) load.invokeExact(4L * Memory.PAGE_SIZE);
+        });
+        assertThrows(SegmentationException.class, () -> {
+            long ignored = (long) load.invokeExact(-8L);
+        });
+    }
+
+    @Test
+    void effectiveAddressesDoNotWrap() throws Throwable {
+        for(var direct : List.of(false, true)){
+            var config = new WasmConfig();
+            config.setDirectMemoryAccess(direct);
+            var ctx = WasmContext.createFromResources(config, "/wasm/addressOverflow.wasm", "/wasm/addressOverflow64.wasm");
+            ctx.instantiate("addressOverflow");
+            ctx.instantiate("addressOverflow64");
+
+            // 0x20 + 0xFFFFFFF0 is past 4 GiB, not 0x10
+            var loadHigh = ctx.getExportedFunction("addressOverflow", "loadHigh").get();
+            var storeHigh = ctx.getExportedFunction("addressOverflow", "storeHigh").get();
+            assertThrows(SegmentationException.class, () -> {
+                int ignored = (int) loadHigh.invokeExact(0x20);
+            });
+            assertThrows(SegmentationException.class, () -> {
+                storeHigh.invokeExact(0x20, 1);
+            });
+            assertEquals(0, ctx.findInstance("addressOverflow").getMemory().readI32(0x10));
+
+            // 2^64 - 8 + 16 wraps around to 8 in 64 bits, which must trap rather than alias it
+            var load = ctx.getExportedFunction("addressOverflow64", "load").get();
+            var store = ctx.getExportedFunction("addressOverflow64", "store").get();
+            store.invokeExact(100L, 3);
+            assertEquals(3, (int) load.invokeExact(100L));
+            assertThrows(SegmentationException.class, () -> {
+                int ignored = (int) load.invokeExact(-8L);
+            });
+            assertThrows(SegmentationException.class, () -> {
+                store.invokeExact(-8L, 1);
+            });
+            assertEquals(0, ctx.findInstance("addressOverflow64").getMemory().readI32(8L));
+        }
+    }
+
+    @Test
+    void directStoresMarkPagesDirty() throws Throwable {
+        var config = new WasmConfig();
+        config.setDirectMemoryAccess(true);
+        config.setDirtyPageSize(4096);
+        var ctx = WasmContext.createFromResources(config, "/wasm/memoryAccess.wasm");
+        ctx.instantiate("memoryAccess");
+        var memory = ctx.findInstance("memoryAccess").getMemory();
+
+        memory.checkpoint();
+        function(ctx, "store8").invokeExact(3 * 4096 + 5, 0x7F);
+        assertEquals(List.of(3), memory.dirtyPages().stream().boxed().toList());
+
+        memory.resetToCheckpoint();
+        assertEquals(0, (int) function(ctx, "load8U").invokeExact(3 * 4096 + 5));
+        assertTrue(memory.dirtyPages().isEmpty());
+    }
+}
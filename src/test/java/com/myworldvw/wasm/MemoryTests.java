@@ -0,0 +1,540 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.myworldvw.wasm;
+
+import com.myworldvw.wasm.binary.Limits;
+import com.myworldvw.wasm.util.NativeMemory;
+import com.myworldvw.wasm.util.StringCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class MemoryTests {
+
+    @Test
+    void growReturnsPreviousSize(){
+        try(var memory = new Memory(new Limits(1, 4))){
+            assertEquals(1, memory.grow(2));
+            assertEquals(3, memory.size());
+            assertEquals(-1, memory.grow(2));
+            assertEquals(3, memory.size());
+        }
+    }
+
+    @Test
+    void growWithoutAMaxStopsAtTheAddressSpace(){
+        var governor = new MemoryGovernor(1L << 40);
+        try(var memory = new Memory(new Limits(1, Limits.NO_MAX))){
+            memory.setGovernor(governor);
+            var committed = governor.getCommittedBytes();
+
+            // 70000 pages is more than a 32-bit memory can address
+            assertEquals(-1, memory.grow(70000));
+            assertEquals(1, memory.size());
+            assertEquals(committed, governor.getCommittedBytes());
+            assertEquals(0, governor.getDenials());
+            assertEquals(1, memory.grow(1));
+        }
+    }
+
+    @Test
+    void accessesPastTheLimitTrap(){
+        try(var memory = new Memory(new Limits(1, 1))){
+            memory.writeI32(Memory.PAGE_SIZE - 4, 7);
+            assertEquals(7, memory.readI32(Memory.PAGE_SIZE - 4));
+            assertThrows(SegmentationException.class, () -> memory.readI32(Memory.PAGE_SIZE - 2));
+            assertThrows(SegmentationException.class, () -> memory.readI8(-1));
+        }
+    }
+
+    @Test
+    void reservedMemoryGrowsInPlace(){
+        assumeTrue(ReservedMemory.isSupported());
+
+        try(var memory = new ReservedMemory(new Limits(1, 16), 16)){
+            memory.writeI32(0, 42);
+            var base = memory.memory.address();
+
+            assertEquals(1, memory.grow(3));
+            assertEquals(4, memory.size());
+            assertEquals(base, memory.memory.address());
+            assertEquals(42, memory.readI32(0));
+            assertEquals(4L * Memory.PAGE_SIZE, memory.getCommittedSize());
+
+            assertEquals(-1, memory.grow(13));
+        }
+    }
+
+    @Test
+    void pooledMemoryRecyclesZeroedSegments(){
+        try(var pool = new MemoryPool(4L * Memory.PAGE_SIZE)){
+            var first = new PooledMemory(new Limits(1, 4), pool);
+            first.writeI32(128, 42);
+            first.close();
+            assertEquals(1, pool.getMisses());
+            assertEquals(Memory.PAGE_SIZE, pool.getPooledBytes());
+
+            var second = new PooledMemory(new Limits(1, 4), pool);
+            assertEquals(0, second.readI32(128));
+            assertEquals(1, pool.getHits());
+            assertEquals(0, pool.getPooledBytes());
+
+            // Crossing a size class moves to a larger segment and returns the old one
+            second.writeI32(4, 7);
+            assertEquals(1, second.grow(2));
+            assertEquals(7, second.readI32(4));
+            assertEquals(Memory.PAGE_SIZE, pool.getPooledBytes());
+            second.close();
+
+            // The pool is capped, so releasing beyond it frees the segment instead
+            assertEquals(Memory.PAGE_SIZE, pool.getPooledBytes());
+            assertEquals(1, pool.getEvictions());
+        }
+    }
+
+    @Test
+    void poolFreesSegmentsReleasedAroundClose(){
+        // Zeroing that finishes after close() must free the segment rather than pool it
+        var zeroing = new ArrayList<Runnable>();
+        var pool = new MemoryPool(4L * Memory.PAGE_SIZE, zeroing::add);
+        var background = pool.acquire(Memory.PAGE_SIZE);
+        pool.release(background);
+        pool.close();
+        zeroing.forEach(Runnable::run);
+        assertFalse(background.segment().scope().isAlive());
+        assertEquals(0, pool.getPooledBytes());
+
+        // As must a release that offers its segment after close() has drained the pool
+        var lazy = new MemoryPool(4L * Memory.PAGE_SIZE);
+        var segment = lazy.acquire(Memory.PAGE_SIZE);
+        lazy.close();
+        lazy.offer(lazy.dirty[segment.sizeClass()], segment);
+        assertFalse(segment.segment().scope().isAlive());
+    }
+
+    @Test
+    void mappedMemoryPersistsAcrossInstances() throws IOException {
+        var file = Files.createTempFile("mapped", ".mem");
+        try{
+            try(var memory = new MappedMemory(new Limits(1, 4), file)){
+                memory.writeI64(8, 0x1234_5678_9ABCL);
+                assertEquals(1, memory.grow(1));
+                memory.writeI32(Memory.PAGE_SIZE + 16, 99);
+                memory.force();
+            }
+
+            try(var memory = new MappedMemory(new Limits(1, 4), file)){
+                assertEquals(2, memory.size());
+                assertEquals(0x1234_5678_9ABCL, memory.readI64(8));
+                assertEquals(99, memory.readI32(Memory.PAGE_SIZE + 16));
+            }
+        }finally{
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void mappedInstancesOwnTheirFiles() throws Exception {
+        var directory = Files.createTempDirectory("mapped");
+        try{
+            var config = new WasmConfig();
+            config.setMappedMemoryDirectory(directory);
+            var ctx = WasmContext.createFromResources(config, "/wasm/memoryAccess.wasm");
+            var first = ctx.instantiate("memoryAccess");
+            var second = ctx.instantiate("memoryAccess");
+
+            first.getMemory().writeI32(16, 1);
+            second.getMemory().writeI32(16, 2);
+            assertEquals(1, first.getMemory().readI32(16));
+            assertEquals(2, second.getMemory().readI32(16));
+            assertEquals(directory.resolve("memoryAccess.mem"), ((MappedMemory) first.getMemory()).getFile());
+            assertEquals(directory.resolve("memoryAccess-1.mem"), ((MappedMemory) second.getMemory()).getFile());
+
+            // A file can only be mapped by one memory at a time
+            assertThrows(MemoryFileInUseException.class, () -> new MappedMemory(new Limits(1, 4), directory.resolve("memoryAccess.mem")));
+
+            // Once its owner is discarded, the next instance takes over the file and its contents
+            ctx.discard(first);
+            var third = ctx.instantiate("memoryAccess");
+            assertEquals(directory.resolve("memoryAccess.mem"), ((MappedMemory) third.getMemory()).getFile());
+            assertEquals(1, third.getMemory().readI32(16));
+
+            ctx.discard(second);
+            ctx.discard(third);
+        }finally{
+            try(var files = Files.list(directory)){
+                for(var file : files.toList()){
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    void hostViewsAndTypedTransfers(){
+        try(var memory = new Memory(new Limits(1, 1))){
+            memory.bulkWrite(16, new int[]{1, 2, 0x01020304}, 0, 3);
+            assertEquals(0x01020304, memory.readI32(24));
+            assertEquals(0x04, memory.readI8(24));
+
+            var ints = new int[4];
+            memory.bulkRead(16, ints, 1, 3);
+            assertArrayEquals(new int[]{0, 1, 2, 0x01020304}, ints);
+
+            memory.bulkWrite(64, new double[]{1.5, -2.25}, 0, 2);
+            assertEquals(-2.25, memory.readF64(72));
+
+            var buffer = memory.asByteBuffer(16, 12);
+            assertEquals(12, buffer.remaining());
+            assertEquals(2, buffer.getInt(4));
+            buffer.putInt(0, 99);
+            assertEquals(99, memory.readI32(16));
+
+            assertEquals(8, memory.slice(64, 8).byteSize());
+            assertThrows(SegmentationException.class, () -> memory.slice(Memory.PAGE_SIZE - 4, 8));
+            assertThrows(SegmentationException.class, () -> memory.bulkRead(Memory.PAGE_SIZE - 8, new long[2], 0, 2));
+        }
+    }
+
+    @Test
+    void resetToCheckpointRestoresOnlyDirtyPages(){
+        try(var memory = new Memory(new Limits(1, 2), true)){
+            memory.trackDirtyPages(4096);
+            memory.writeI32(100, 1);
+            memory.checkpoint();
+            assertTrue(memory.dirtyPages().isEmpty());
+
+            memory.writeI32(100, 2);
+            memory.writeI64(2 * 4096 - 4, -1L);
+            memory.fill(Memory.PAGE_SIZE + 10, 0x55, 20);
+            assertEquals(List.of(0, 1, 2, 16), memory.dirtyPages().stream().boxed().toList());
+
+            memory.resetToCheckpoint();
+            assertTrue(memory.dirtyPages().isEmpty());
+            assertEquals(1, memory.readI32(100));
+            assertEquals(0L, memory.readI64(2 * 4096 - 4));
+            // Memory grew past the checkpoint, and the new page reads back as zero
+            assertEquals(2, memory.size());
+            assertEquals(0, memory.readI8(Memory.PAGE_SIZE + 10));
+
+            // An incremental checkpoint picks up just the pages written since the last one
+            memory.writeI32(5000, 3);
+            memory.checkpoint();
+            memory.writeI32(5000, 4);
+            memory.resetToCheckpoint();
+            assertEquals(3, memory.readI32(5000));
+        }
+
+        // Whether a memory can track pages is decided when it is constructed
+        try(var memory = new Memory(new Limits(1, 2))){
+            assertThrows(IllegalStateException.class, () -> memory.trackDirtyPages(4096));
+        }
+    }
+
+    @Test
+    void governorEnforcesBudgetAcrossMemories(){
+        var governor = new MemoryGovernor(3L * Memory.PAGE_SIZE);
+        try(var first = new Memory(new Limits(0, 4)); var second = new Memory(new Limits(0, 4))){
+            first.setGovernor(governor);
+            second.setGovernor(governor);
+
+            assertEquals(0, first.grow(2));
+            assertEquals(0, second.grow(1));
+            assertEquals(3L * Memory.PAGE_SIZE, governor.getCommittedBytes());
+
+            assertEquals(-1, second.grow(1));
+            assertThrows(SegmentationException.class, () -> second.writeI32(Memory.PAGE_SIZE + 8, 1));
+            assertEquals(2, governor.getDenials());
+
+            first.close();
+            assertEquals(Memory.PAGE_SIZE, governor.getCommittedBytes());
+            assertEquals(1, second.grow(1));
+            assertEquals(3L * Memory.PAGE_SIZE, governor.getPeakCommittedBytes());
+        }
+        assertEquals(0, governor.getCommittedBytes());
+        assertEquals(0, governor.getMemoryCount());
+    }
+
+    @Test
+    void governorChargesForSpareCapacity(){
+        var governor = new MemoryGovernor(4L * Memory.PAGE_SIZE);
+        try(var geometric = new Memory(new Limits(0, 16))){
+            geometric.setGrowthPolicy(GrowthPolicy.geometric(2.0));
+            geometric.setGovernor(governor);
+
+            assertEquals(0, geometric.grow(1));
+            assertEquals(1, geometric.grow(1));
+            assertEquals(geometric.getCommittedSize(), governor.getCommittedBytes());
+            // Growing to three pages doubles the capacity to four, which fills the budget
+            assertEquals(2, geometric.grow(1));
+            assertEquals(4L * Memory.PAGE_SIZE, governor.getCommittedBytes());
+            assertEquals(geometric.getCommittedSize(), governor.getCommittedBytes());
+            // The fourth page fits the spare capacity, but the next doubling would not fit the budget
+            assertEquals(3, geometric.grow(1));
+            assertEquals(-1, geometric.grow(1));
+            assertEquals(4L * Memory.PAGE_SIZE, governor.getCommittedBytes());
+        }
+
+        try(var pool = new MemoryPool(16L * Memory.PAGE_SIZE); var pooled = new PooledMemory(new Limits(0, 16), pool)){
+            pooled.setGovernor(governor);
+            // Three pages come from the four page size class
+            assertEquals(0, pooled.grow(3));
+            assertEquals(4L * Memory.PAGE_SIZE, pooled.getCommittedSize());
+            assertEquals(4L * Memory.PAGE_SIZE, governor.getCommittedBytes());
+        }
+        assertEquals(0, governor.getCommittedBytes());
+    }
+
+    @Test
+    void governorWaitsForCapacity() throws Exception {
+        var governor = new MemoryGovernor(Memory.PAGE_SIZE, 10, TimeUnit.SECONDS);
+        var first = new Memory(new Limits(0, 1));
+        first.setGovernor(governor);
+        assertEquals(0, first.grow(1));
+
+        try(var second = new Memory(new Limits(0, 1))){
+            second.setGovernor(governor);
+            var growth = CompletableFuture.supplyAsync(() -> second.grow(1));
+            while(governor.getWaits() == 0){
+                Thread.onSpinWait();
+            }
+            first.close();
+            assertEquals(0, (int) growth.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void geometricGrowthReallocatesLogarithmically(){
+        try(var padded = new Memory(new Limits(0, 64)); var geometric = new Memory(new Limits(0, 64))){
+            geometric.setGrowthPolicy(GrowthPolicy.geometric(2.0));
+            for(int addr = 0; addr < 4 * Memory.PAGE_SIZE; addr += 4){
+                padded.writeI32(addr, addr);
+                geometric.writeI32(addr, addr);
+            }
+
+            assertEquals(padded.size(), geometric.size());
+            assertEquals(4 * Memory.PAGE_SIZE - 4, geometric.readI32(4 * Memory.PAGE_SIZE - 4));
+            assertEquals(0, geometric.readI32(4 * Memory.PAGE_SIZE));
+            assertTrue(geometric.getReallocationCount() < 10);
+            assertTrue(padded.getReallocationCount() > 200);
+            assertTrue(geometric.getBytesCopied() < padded.getBytesCopied() / 10);
+        }
+    }
+
+    @Test
+    void accessProfileCountsPerPage(){
+        try(var memory = new Memory(new Limits(1, 4), true)){
+            var profile = memory.enableAccessProfiling();
+            for(int i = 0; i < 10; i++){
+                memory.writeI32(Memory.PAGE_SIZE + 8 * i, i);
+                memory.readI32(Memory.PAGE_SIZE + 8 * i);
+                memory.readI32(Memory.PAGE_SIZE + 8 * i);
+            }
+            memory.writeI8(16, (byte) 1);
+            // An access straddling a page boundary counts against both pages
+            memory.readI64(2 * Memory.PAGE_SIZE - 4);
+
+            assertEquals(21, profile.reads(1));
+            assertEquals(10, profile.writes(1));
+            assertEquals(1, profile.reads(2));
+
+            var heatMap = profile.heatMap(2);
+            assertEquals(3, heatMap.pages());
+            assertEquals(3, heatMap.pagesTouched());
+            assertEquals(List.of(1, 0), heatMap.hottest().stream().map(AccessProfile.PageHeat::page).toList());
+            assertEquals(22.0 / 11.0, heatMap.readWriteRatio());
+            assertEquals(1, heatMap.growth().get(0).pages());
+            assertEquals(3, heatMap.growth().get(heatMap.growth().size() - 1).pages());
+        }
+
+        try(var memory = new Memory(new Limits(1, 4))){
+            assertThrows(IllegalStateException.class, memory::enableAccessProfiling);
+            memory.writeI32(0, 1);
+            assertNull(memory.getAccessProfile());
+        }
+    }
+
+    @Test
+    void largeAllocationsAreHugePageAligned(){
+        try(var small = new Memory(new Limits(1, 64)); var large = new Memory(new Limits(64, 64))){
+            small.setHugePageThreshold(2 * NativeMemory.HUGE_PAGE_SIZE);
+            large.setHugePageThreshold(2 * NativeMemory.HUGE_PAGE_SIZE);
+            small.writeI32(0, 1);
+            large.writeI32(0, 1);
+
+            assertEquals(0, large.segment().address() % NativeMemory.HUGE_PAGE_SIZE);
+            assertEquals(1, large.readI32(0));
+            assertFalse(small.isHugePagesAdvised());
+        }
+    }
+
+    @Test
+    void confinedMemoryRejectsOtherThreads(){
+        try(var memory = new Memory(new Limits(1, 4))){
+            memory.setArenaMode(Memory.ArenaMode.CONFINED);
+            memory.writeI32(0, 42);
+            assertEquals(1, memory.grow(1));
+            assertEquals(42, memory.readI32(0));
+
+            var e = assertThrows(ExecutionException.class, () -> CompletableFuture.supplyAsync(() -> memory.readI32(0)).get());
+            assertTrue(e.getCause() instanceof WrongThreadException);
+        }
+    }
+
+    @Test
+    void sharedMemoryCannotBeConfined(){
+        try(var memory = new SharedMemory(new Limits(1, 1, false, true), 1)){
+            assertThrows(IllegalStateException.class, () -> memory.setArenaMode(Memory.ArenaMode.CONFINED));
+        }
+    }
+
+    @Test
+    void stringsRoundTrip(){
+        try(var memory = new Memory(new Limits(1, 1))){
+            var samples = List.of("", "plain ascii", "caf\u00e9 na\u00efve", "\u65e5\u672c\u8a9e \ud83d\ude00", "\ud800 unpaired");
+            for(var charset : List.of(StandardCharsets.UTF_8, StandardCharsets.UTF_16LE)){
+                for(var sample : samples){
+                    var len = memory.writeString(100, sample, charset);
+                    assertEquals(sample.equals("\ud800 unpaired") && charset == StandardCharsets.UTF_8 ? "? unpaired" : sample,
+                            memory.readString(100, len, charset));
+
+                    var total = memory.writePrefixedString(200, sample, charset);
+                    assertEquals(len + 4, total);
+                    assertEquals(memory.readString(100, len, charset), memory.readPrefixedString(200, charset));
+                }
+            }
+
+            memory.writeString(0, "caf\u00e9", StandardCharsets.ISO_8859_1);
+            assertEquals((byte) 0xE9, memory.readI8(3));
+            assertEquals("caf\u00e9", memory.readString(0, 4, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    @Test
+    void cStringsFindTheirTerminator(){
+        try(var memory = new Memory(new Limits(1, 1))){
+            // Cover terminators in every lane of a word, at every alignment
+            for(var charset : List.of(StandardCharsets.UTF_8, StandardCharsets.UTF_16LE)){
+                for(int offset = 0; offset < 8; offset++){
+                    for(int length = 0; length < 20; length++){
+                        memory.fill(0, 'x', 128);
+                        var value = "abcdefghijklmnopqrstuvwxyz".substring(0, length);
+                        var written = memory.writeCString(offset, value, charset);
+                        assertEquals((length + 1) * StringCodec.unitSize(charset), written);
+                        assertEquals(value, memory.readCString(offset, charset));
+                    }
+                }
+            }
+
+            // A UTF-16 terminator must be a whole code unit, not the halves of two adjacent units
+            memory.writeI32(0, 0x00410041);
+            memory.writeI16(4, (short) 0x4100);
+            memory.writeI16(6, (short) 0);
+            assertEquals("AA\u4100", memory.readCString(0, StandardCharsets.UTF_16LE));
+        }
+    }
+
+    @Test
+    void unterminatedCStringTraps(){
+        try(var onDemand = new Memory(new Limits(1, 2)); var immediate = new Memory(new Limits(1, 1))){
+            // Unallocated memory reads as zeros, so the terminator may lie past the allocated segment
+            onDemand.writeI8(0, (byte) 'a');
+            onDemand.fill(0, 'a', onDemand.segment().byteSize());
+            assertEquals(onDemand.segment().byteSize(), onDemand.readCString(0, StandardCharsets.UTF_8).length());
+
+            immediate.setAllocationMode(Memory.AllocationMode.IMMEDIATE);
+            immediate.fill(0, 'a', Memory.PAGE_SIZE);
+            assertThrows(SegmentationException.class, () -> immediate.readCString(Memory.PAGE_SIZE - 8, StandardCharsets.UTF_8));
+            assertThrows(SegmentationException.class, () -> immediate.writeCString(Memory.PAGE_SIZE - 3, "xyz", StandardCharsets.UTF_8));
+            assertEquals('a', immediate.readI8(Memory.PAGE_SIZE - 3));
+        }
+    }
+
+    @Test
+    void discardZeroesRange(){
+        try(var memory = new Memory(new Limits(1, 2))){
+            memory.fill(0, 0x55, Memory.PAGE_SIZE);
+            memory.discard(3, 100);
+            assertEquals(0x55, memory.readI8(2));
+            assertEquals(0, memory.readI8(3));
+            assertEquals(0, memory.readI8(102));
+            assertEquals(0x55, memory.readI8(103));
+
+            // The unallocated second page needs no work, but is still in bounds
+            var allocated = memory.getCommittedSize();
+            memory.discard(0, 2 * Memory.PAGE_SIZE);
+            assertEquals(allocated, memory.getCommittedSize());
+            assertThrows(SegmentationException.class, () -> memory.discard(Memory.PAGE_SIZE, Memory.PAGE_SIZE + 1));
+        }
+    }
+
+    @Test
+    void discardReleasesReservedPages(){
+        assumeTrue(ReservedMemory.isSupported() && NativeMemory.isAdviseSupported() && NativeMemory.isResidencySupported());
+        try(var memory = new ReservedMemory(new Limits(64, 64), 64)){
+            memory.fill(0, 0x55, 64L * Memory.PAGE_SIZE);
+            var before = memory.stats();
+            assertEquals(64L * Memory.PAGE_SIZE, before.reservedBytes());
+            assertEquals(64L * Memory.PAGE_SIZE, before.committedBytes());
+            assertTrue(before.residentBytes() >= 64L * Memory.PAGE_SIZE);
+
+            memory.discard(100, 32L * Memory.PAGE_SIZE);
+            var after = memory.stats();
+            assertEquals(before.committedBytes(), after.committedBytes());
+            assertTrue(after.residentBytes() <= before.residentBytes() - 31L * Memory.PAGE_SIZE);
+
+            assertEquals(0x55, memory.readI8(99));
+            assertEquals(0, memory.readI8(100));
+            assertEquals(0, memory.readI8(32L * Memory.PAGE_SIZE + 99));
+            assertEquals(0x55, memory.readI8(32L * Memory.PAGE_SIZE + 100));
+        }
+    }
+
+    @Test
+    void osPageSizeIsQueried(){
+        assertEquals(1, Long.bitCount(NativeMemory.OS_PAGE_SIZE));
+        assertEquals(NativeMemory.OS_PAGE_SIZE, NativeMemory.roundToOsPage(1));
+        assertEquals(2 * NativeMemory.OS_PAGE_SIZE, NativeMemory.roundToOsPage(NativeMemory.OS_PAGE_SIZE + 1));
+
+        // A single touched byte is resident as one whole OS page
+        assumeTrue(NativeMemory.isResidencySupported());
+        try(var arena = Arena.openConfined()){
+            var segment = arena.allocate(1, NativeMemory.OS_PAGE_SIZE);
+            segment.set(ValueLayout.JAVA_BYTE, 0, (byte) 1);
+            assertEquals(NativeMemory.OS_PAGE_SIZE, NativeMemory.residentBytes(segment));
+        }
+    }
+}
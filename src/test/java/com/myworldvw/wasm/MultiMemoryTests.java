@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MultiMemoryTests {
+
+    static WasmContext instantiate(boolean direct) throws Exception {
+        var config = new WasmConfig();
+        config.setDirectMemoryAccess(direct);
+        var ctx = WasmContext.createFromResources(config, "/wasm/multiMemory.wasm");
+        ctx.instantiate("multiMemory");
+        return ctx;
+    }
+
+    static MethodHandle function(WasmContext ctx, String name){
+        return ctx.getExportedFunction("multiMemory", name).get();
+    }
+
+    @Test
+    void memoriesAreIndependentThroughMemoryMethods() throws Throwable {
+        memoriesAreIndependent(instantiate(false));
+    }
+
+    @Test
+    void memoriesAreIndependentThroughDirectSegmentAccess() throws Throwable {
+        memoriesAreIndependent(instantiate(true));
+    }
+
+    void memoriesAreIndependent(WasmContext ctx) throws Throwable {
+        var instance = ctx.findInstance("multiMemory");
+        assertNotSame(instance.getMemory(0), instance.getMemory(1));
+
+        // The data segment targets memory 1 only
+        assertEquals(0x6D736177, (int) function(ctx, "load1").invokeExact(8));
+        assertEquals(0, (int) function(ctx, "load0").invokeExact(8));
+
+        function(ctx, "store1").invokeExact(100, 7);
+        assertEquals(7, instance.getMemory(1).readI32(100));
+        assertEquals(0, instance.getMemory(0).readI32(100));
+
+        function(ctx, "fill1").invokeExact(200, 0x11, 4);
+        function(ctx, "copy1to0").invokeExact(300, 200, 4);
+        assertEquals(0x11111111, (int) function(ctx, "load0").invokeExact(300));
+
+        // Each memory grows within its own limits
+        assertEquals(1, (int) function(ctx, "size1").invokeExact());
+        assertEquals(1, (int) function(ctx, "grow1").invokeExact(1));
+        assertEquals(2, (int) function(ctx, "size1").invokeExact());
+        function(ctx, "store1").invokeExact(Memory.PAGE_SIZE + 4, 9);
+        assertEquals(9, (int) function(ctx, "load1").invokeExact(Memory.PAGE_SIZE + 4));
+        assertThrows(SegmentationException.class, () -> {
+            int ignored = (int) function(ctx, "load0").invokeExact(Memory.PAGE_SIZE + 4);
+        });
+    }
+
+    @Test
+    void forksForkEveryMemory() throws Throwable {
+        var ctx = instantiate(false);
+        var template = ctx.findInstance("multiMemory");
+        var fork = ctx.fork(template);
+
+        fork.getMemory(1).writeI32(8, 1);
+        assertEquals(1, fork.getMemory(1).readI32(8));
+        assertEquals(0x6D736177, template.getMemory(1).readI32(8));
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2023. MyWorld, LLC
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.myworldvw.wasm;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Differential tests of the inline lowering of select, truncations and conversions against
+ * a reference model of the wasm semantics, computed exactly with BigDecimal/BigInteger.
+ * Results are compared bit for bit, and traps must match exactly.
+ */
+public class NumericLoweringTests {
+
+    static final int RANDOM_INPUTS = 5000;
+
+    interface Compiled {
+        long run() throws Throwable;
+    }
+
+    /**
+     * The wasm semantics, written independently of the compiler's lowering. A null result is a trap.
+     */
+    static class Reference {
+
+        static Long truncate(double value, int bits, boolean signed){
+            if(Double.isNaN(value) || Double.isInfinite(value)){
+                return null;
+            }
+            var truncated = new BigDecimal(value).setScale(0, RoundingMode.DOWN).toBigInteger();
+            var min = signed ? BigInteger.ONE.shiftLeft(bits - 1).negate() : BigInteger.ZERO;
+            var max = BigInteger.ONE.shiftLeft(signed ? bits - 1 : bits).subtract(BigInteger.ONE);
+            if(truncated.compareTo(min) < 0 || truncated.compareTo(max) > 0){
+                return null;
+            }
+            return bits == 32 ? (long) truncated.intValue() : truncated.longValue();
+        }
+
+        static BigInteger integer(long value, int bits, boolean signed){
+            if(signed){
+                return BigInteger.valueOf(bits == 32 ? (int) value : value);
+            }
+            return new BigInteger(bits == 32 ? Integer.toUnsignedString((int) value) : Long.toUnsignedString(value));
+        }
+
+        static long toF32(BigInteger value){
+            return Float.floatToRawIntBits(value.floatValue());
+        }
+
+        static long toF64(BigInteger value){
+            return Double.doubleToRawLongBits(value.doubleValue());
+        }
+    }
+
+    static MethodHandle function(WasmContext ctx, String name){
+        return ctx.getExportedFunction("numericLowering", name).get();
+    }
+
+    static WasmContext instantiate() throws Exception {
+        var ctx = WasmContext.createFromResources("/wasm/numericLowering.wasm");
+        ctx.instantiate("numericLowering");
+        return ctx;
+    }
+
+    static void check(Long expected, Compiled compiled, String what) throws Throwable {
+        Long actual;
+        try{
+            actual = compiled.run();
+        }catch(TrapException e){
+            actual = null;
+        }
+        assertEquals(expected, actual, what);
+    }
+
+    static List<Double> doubleInputs(Random random){
+        var inputs = new ArrayList<Double>();
+        double[] edges = {0x1p31, 0x1p32, 0x1p63, 0x1p64, 1.0};
+        for(var edge : edges){
+            for(var v : new double[]{edge, -edge, edge - 1, -edge - 1}){
+                inputs.add(v);
+                inputs.add(Math.nextUp(v));
+                inputs.add(Math.nextDown(v));
+            }
+        }
+        for(var v : new double[]{0.0, -0.0, 0.5, -0.5, 0.999, -0.999, Double.MIN_VALUE, -Double.MIN_VALUE,
+                Double.MAX_VALUE, -Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}){
+            inputs.add(v);
+        }
+        for(int i = 0; i < RANDOM_INPUTS; i++){
+            inputs.add(Double.longBitsToDouble(random.nextLong()));
+            inputs.add((random.nextDouble() - 0.25) * 0x1p33);
+            inputs.add((random.nextDouble() - 0.25) * 0x1p65);
+        }
+        return inputs;
+    }
+
+    static long[] longInputs(Random random){
+        long[] edges = {0, 1, -1, 2, Integer.MAX_VALUE, Integer.MIN_VALUE, 0xFFFFFFFFL, Long.MAX_VALUE, Long.MIN_VALUE,
+                (1L << 53) + 1, (1L << 24) + 1, 0x8000000000000401L, 0xFFFFFFFFFFFFFBFFL, 0x7FFFFFFFFFFFFDFFL};
+        var inputs = new long[edges.length + RANDOM_INPUTS * 2];
+        System.arraycopy(edges, 0, inputs, 0, edges.length);
+        for(int i = edges.length; i < inputs.length; i += 2){
+            inputs[i] = random.nextLong();
+            // Random magnitudes, so that short values are as common as long ones
+            inputs[i + 1] = random.nextLong() >> random.nextInt(64);
+        }
+        return inputs;
+    }
+
+    @Test
+    void truncationsMatchReference() throws Throwable {
+        var ctx = instantiate();
+        var i32FromF32S = function(ctx, "i32_trunc_f32_s");
+        var i32FromF32U = function(ctx, "i32_trunc_f32_u");
+        var i32FromF64S = function(ctx, "i32_trunc_f64_s");
+        var i32FromF64U = function(ctx, "i32_trunc_f64_u");
+        var i64FromF32S = function(ctx, "i64_trunc_f32_s");
+        var i64FromF32U = function(ctx, "i64_trunc_f32_u");
+        var i64FromF64S = function(ctx, "i64_trunc_f64_s");
+        var i64FromF64U = function(ctx, "i64_trunc_f64_u");
+
+        for(double d : doubleInputs(new Random(2023))){
+            check(Reference.truncate(d, 32, true), () -> (int) i32FromF64S.invokeExact(d), "i32.trunc_f64_s " + d);
+            check(Reference.truncate(d, 32, false), () -> (int) i32FromF64U.invokeExact(d), "i32.trunc_f64_u " + d);
+            check(Reference.truncate(d, 64, true), () -> (long) i64FromF64S.invokeExact(d), "i64.trunc_f64_s " + d);
+            check(Reference.truncate(d, 64, false), () -> (long) i64FromF64U.invokeExact(d), "i64.trunc_f64_u " + d);
+
+            for(var f : new float[]{(float) d, Math.nextUp((float) d), Math.nextDown((float) d)}){
+                check(Reference.truncate(f, 32, true), () -> (int) i32FromF32S.invokeExact(f), "i32.trunc_f32_s " + f);
+                check(Reference.truncate(f, 32, false), () -> (int) i32FromF32U.invokeExact(f), "i32.trunc_f32_u " + f);
+                check(Reference.truncate(f, 64, true), () -> (long) i64FromF32S.invokeExact(f), "i64.trunc_f32_s " + f);
+                check(Reference.truncate(f, 64, false), () -> (long) i64FromF32U.invokeExact(f), "i64.trunc_f32_u " + f);
+            }
+        }
+    }
+
+    @Test
+    void conversionsMatchReference() throws Throwable {
+        var ctx = instantiate();
+        var f32FromI32S = function(ctx, "f32_convert_i32_s");
+        var f32FromI32U = function(ctx, "f32_convert_i32_u");
+        var f32FromI64S = function(ctx, "f32_convert_i64_s");
+        var f32FromI64U = function(ctx, "f32_convert_i64_u");
+        var f64FromI32S = function(ctx, "f64_convert_i32_s");
+        var f64FromI32U = function(ctx, "f64_convert_i32_u");
+        var f64FromI64S = function(ctx, "f64_convert_i64_s");
+        var f64FromI64U = function(ctx, "f64_convert_i64_u");
+        var extendS = function(ctx, "i64_extend_i32_s");
+        var extendU = function(ctx, "i64_extend_i32_u");
+
+        for(var l : longInputs(new Random(2024))){
+            var i = (int) l;
+            check(Reference.toF32(Reference.integer(i, 32, true)), () -> Float.floatToRawIntBits((float) f32FromI32S.invokeExact(i)), "f32.convert_i32_s " + i);
+            check(Reference.toF32(Reference.integer(i, 32, false)), () -> Float.floatToRawIntBits((float) f32FromI32U.invokeExact(i)), "f32.convert_i32_u " + i);
+            check(Reference.toF32(Reference.integer(l, 64, true)), () -> Float.floatToRawIntBits((float) f32FromI64S.invokeExact(l)), "f32.convert_i64_s " + l);
+            check(Reference.toF32(Reference.integer(l, 64, false)), () -> Float.floatToRawIntBits((float) f32FromI64U.invokeExact(l)), "f32.convert_i64_u " + l);
+            check(Reference.toF64(Reference.integer(i, 32, true)), () -> Double.doubleToRawLongBits((double) f64FromI32S.invokeExact(i)), "f64.convert_i32_s " + i);
+            check(Reference.toF64(Reference.integer(i, 32, false)), () -> Double.doubleToRawLongBits((double) f64FromI32U.invokeExact(i)), "f64.convert_i32_u " + i);
+            check(Reference.toF64(Reference.integer(l, 64, true)), () -> Double.doubleToRawLongBits((double) f64FromI64S.invokeExact(l)), "f64.convert_i64_s " + l);
+            check(Reference.toF64(Reference.integer(l, 64, false)), () -> Double.doubleToRawLongBits((double) f64FromI64U.invokeExact(l)), "f64.convert_i64_u " + l);
+            check(Reference.integer(i, 32, true).longValue(), () -> (long) extendS.invokeExact(i), "i64.extend_i32_s " + i);
+            check(Reference.integer(i, 32, false).longValue(), () -> (long) extendU.invokeExact(i), "i64.extend_i32_u " + i);
+        }
+    }
+
+    @Test
+    void unsignedDivisionMatchesReference() throws Throwable {
+        var ctx = instantiate();
+        var i32Div = function(ctx, "i32_div_u");
+        var i32Rem = function(ctx, "i32_rem_u");
+        var i64Div = function(ctx, "i64_div_u");
+        var i64Rem = function(ctx, "i64_rem_u");
+
+        var random = new Random(2025);
+        var inputs = longInputs(random);
+        for(var a : inputs){
+            var b = inputs[random.nextInt(inputs.length)];
+            if((int) b != 0){
+                var x = Reference.integer(a, 32, false);
+                var y = Reference.integer(b, 32, false);
+                check((long) x.divide(y).intValue(), () -> (int) i32Div.invokeExact((int) a, (int) b), "i32.div_u");
+                check((long) x.remainder(y).intValue(), () -> (int) i32Rem.invokeExact((int) a, (int) b), "i32.rem_u");
+            }
+            if(b != 0){
+                var x = Reference.integer(a, 64, false);
+                var y = Reference.integer(b, 64, false);
+                check(x.divide(y).longValue(), () -> (long) i64Div.invokeExact(a, b), "i64.div_u");
+                check(x.remainder(y).longValue(), () -> (long) i64Rem.invokeExact(a, b), "i64.rem_u");
+            }
+        }
+    }
+
+    @Test
+    void selectPreservesBits() throws Throwable {
+        var ctx = instantiate();
+        var selectI32 = function(ctx, "select_i32");
+        var selectI64 = function(ctx, "select_i64");
+        var selectF32 = function(ctx, "select_f32");
+        var selectF64 = function(ctx, "select_f64");
+
+        var nanF32 = Float.intBitsToFloat(0x7FC00123);
+        var nanF64 = Double.longBitsToDouble(0x7FF8000000000123L);
+        for(var c : new int[]{0, 1, -1, Integer.MIN_VALUE}){
+            var first = c != 0;
+            check(first ? 7L : -8L, () -> (int) selectI32.invokeExact(7, -8, c), "select i32 " + c);
+            check(first ? Long.MIN_VALUE : 9L, () -> (long) selectI64.invokeExact(Long.MIN_VALUE, 9L, c), "select i64 " + c);
+            check((long) Float.floatToRawIntBits(first ? nanF32 : -0f),
+                    () -> Float.floatToRawIntBits((float) selectF32.invokeExact(nanF32, -0f, c)), "select f32 " + c);
+            check(Double.doubleToRawLongBits(first ? -0d : nanF64),
+                    () -> Double.doubleToRawLongBits((double) selectF64.invokeExact(-0d, nanF64, c)), "select f64 " + c);
+        }
+    }
+}
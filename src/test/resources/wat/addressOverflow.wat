@@ -0,0 +1,18 @@
+(module
+
+  (memory 1 4)
+
+  (export "loadHigh" (func $loadHigh))
+  (export "storeHigh" (func $storeHigh))
+
+  (func $loadHigh (param $addr i32) (result i32)
+    local.get $addr
+    i32.load offset=0xFFFFFFF0
+  )
+
+  (func $storeHigh (param $addr i32) (param $value i32)
+    local.get $addr
+    local.get $value
+    i32.store offset=0xFFFFFFF0
+  )
+)
@@ -0,0 +1,18 @@
+(module
+
+  (memory i64 1 4)
+
+  (export "load" (func $load))
+  (export "store" (func $store))
+
+  (func $load (param $addr i64) (result i32)
+    local.get $addr
+    i32.load offset=16
+  )
+
+  (func $store (param $addr i64) (param $value i32)
+    local.get $addr
+    local.get $value
+    i32.store offset=16
+  )
+)
@@ -0,0 +1,62 @@
+(module
+
+  (memory 1 2 shared)
+
+  (export "add" (func $add))
+  (export "load" (func $load))
+  (export "store" (func $store))
+  (export "cmpxchg" (func $cmpxchg))
+  (export "add8" (func $add8))
+  (export "add64" (func $add64))
+  (export "wait" (func $wait))
+  (export "notify" (func $notify))
+
+  (func $add (param $addr i32) (param $value i32) (result i32)
+    local.get $addr
+    local.get $value
+    i32.atomic.rmw.add
+  )
+
+  (func $load (param $addr i32) (result i32)
+    local.get $addr
+    i32.atomic.load
+  )
+
+  (func $store (param $addr i32) (param $value i32)
+    local.get $addr
+    local.get $value
+    i32.atomic.store
+  )
+
+  (func $cmpxchg (param $addr i32) (param $expected i32) (param $replacement i32) (result i32)
+    local.get $addr
+    local.get $expected
+    local.get $replacement
+    i32.atomic.rmw.cmpxchg
+  )
+
+  (func $add8 (param $addr i32) (param $value i32) (result i32)
+    local.get $addr
+    local.get $value
+    i32.atomic.rmw8.add_u
+  )
+
+  (func $add64 (param $addr i32) (param $value i64) (result i64)
+    local.get $addr
+    local.get $value
+    i64.atomic.rmw.add offset=8
+  )
+
+  (func $wait (param $addr i32) (param $expected i32) (param $timeout i64) (result i32)
+    local.get $addr
+    local.get $expected
+    local.get $timeout
+    memory.atomic.wait32
+  )
+
+  (func $notify (param $addr i32) (param $count i32) (result i32)
+    local.get $addr
+    local.get $count
+    memory.atomic.notify
+  )
+)
@@ -0,0 +1,50 @@
+(module
+
+  (memory 1 2)
+
+  (data (i32.const 0) "abcdefgh")
+  (data $greeting "hello world")
+
+  (export "copy" (func $copy))
+  (export "fill" (func $fill))
+  (export "init" (func $init))
+  (export "drop" (func $drop))
+  (export "discard" (func $discard))
+  (export "load8" (func $load8))
+
+  (func $copy (param $dst i32) (param $src i32) (param $len i32)
+    local.get $dst
+    local.get $src
+    local.get $len
+    memory.copy
+  )
+
+  (func $fill (param $dst i32) (param $value i32) (param $len i32)
+    local.get $dst
+    local.get $value
+    local.get $len
+    memory.fill
+  )
+
+  (func $init (param $dst i32) (param $src i32) (param $len i32)
+    local.get $dst
+    local.get $src
+    local.get $len
+    memory.init $greeting
+  )
+
+  (func $drop
+    data.drop $greeting
+  )
+
+  (func $discard (param $addr i32) (param $len i32)
+    local.get $addr
+    local.get $len
+    memory.discard
+  )
+
+  (func $load8 (param $addr i32) (result i32)
+    local.get $addr
+    i32.load8_u
+  )
+)
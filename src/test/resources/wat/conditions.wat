@@ -0,0 +1,149 @@
+(module
+
+  (export "count" (func $count))
+  (export "truthy" (func $truthy))
+  (export "notLess" (func $notLess))
+  (export "isLess" (func $isLess))
+  (export "ltU" (func $ltU))
+  (export "geU" (func $geU))
+  (export "minS" (func $minS))
+  (export "maxU64" (func $maxU64))
+  (export "eqz64" (func $eqz64))
+  (export "ne64" (func $ne64))
+  (export "lt64" (func $lt64))
+  (export "ltF32" (func $ltF32))
+  (export "geF32" (func $geF32))
+  (export "eqF64" (func $eqF64))
+  (export "neF64" (func $neF64))
+  (export "gtF64" (func $gtF64))
+  (export "minF64" (func $minF64))
+
+  (func $count (param $n i32) (result i32) (local $i i32)
+    loop
+      local.get $i
+      i32.const 1
+      i32.add
+      local.set $i
+      local.get $i
+      local.get $n
+      i32.lt_s
+      br_if 0
+    end
+    local.get $i
+  )
+
+  (func $truthy (param $a i32) (result i32)
+    local.get $a
+    if
+      i32.const 1
+      return
+    end
+    i32.const 0
+  )
+
+  (func $notLess (param $a i32) (param $b i32) (result i32)
+    local.get $a
+    local.get $b
+    i32.lt_s
+    i32.eqz
+  )
+
+  (func $isLess (param $a i32) (param $b i32) (result i32)
+    block
+      local.get $a
+      local.get $b
+      i32.lt_s
+      i32.eqz
+      br_if 0
+      i32.const 1
+      return
+    end
+    i32.const 0
+  )
+
+  (func $ltU (param $a i32) (param $b i32) (result i32)
+    local.get $a
+    local.get $b
+    i32.lt_u
+  )
+
+  (func $geU (param $a i32) (param $b i32) (result i32)
+    local.get $a
+    local.get $b
+    i32.ge_u
+  )
+
+  (func $minS (param $a i32) (param $b i32) (result i32)
+    local.get $a
+    local.get $b
+    local.get $a
+    local.get $b
+    i32.lt_s
+    select
+  )
+
+  (func $maxU64 (param $a i64) (param $b i64) (result i64)
+    local.get $a
+    local.get $b
+    local.get $a
+    local.get $b
+    i64.gt_u
+    select
+  )
+
+  (func $eqz64 (param $a i64) (result i32)
+    local.get $a
+    i64.eqz
+  )
+
+  (func $ne64 (param $a i64) (param $b i64) (result i32)
+    local.get $a
+    local.get $b
+    i64.ne
+  )
+
+  (func $lt64 (param $a i64) (param $b i64) (result i32)
+    local.get $a
+    local.get $b
+    i64.lt_s
+  )
+
+  (func $ltF32 (param $a f32) (param $b f32) (result i32)
+    local.get $a
+    local.get $b
+    f32.lt
+  )
+
+  (func $geF32 (param $a f32) (param $b f32) (result i32)
+    local.get $a
+    local.get $b
+    f32.ge
+  )
+
+  (func $eqF64 (param $a f64) (param $b f64) (result i32)
+    local.get $a
+    local.get $b
+    f64.eq
+  )
+
+  (func $neF64 (param $a f64) (param $b f64) (result i32)
+    local.get $a
+    local.get $b
+    f64.ne
+  )
+
+  (func $gtF64 (param $a f64) (param $b f64) (result i32)
+    local.get $a
+    local.get $b
+    f64.gt
+  )
+
+  (func $minF64 (param $a f64) (param $b f64) (result f64)
+    local.get $a
+    local.get $b
+    local.get $a
+    local.get $b
+    f64.lt
+    select
+  )
+)
@@ -0,0 +1,53 @@
+(module
+
+  (global $base (import "env" "base") i32)
+  (global $scale (import "env" "scale") f64)
+  (global $answer i32 (i32.const 42))
+  (global $big i64 (i64.const 0x123456789))
+  (global $half f32 (f32.const 0.5))
+  (global $offset f64 (f64.const 3.25))
+  (global $derived i32
+    global.get $base
+  )
+  (global $counter (mut i32) (i32.const 0))
+
+  (export "sum" (func $sum))
+  (export "big" (func $big))
+  (export "half" (func $half))
+  (export "scaled" (func $scaled))
+  (export "bump" (func $bump))
+  (export "answer" (global $answer))
+  (export "derived" (global $derived))
+
+  (func $sum (result i32)
+    global.get $answer
+    global.get $derived
+    i32.add
+  )
+
+  (func $big (result i64)
+    global.get $big
+  )
+
+  (func $half (result f32)
+    global.get $half
+  )
+
+  (func $scaled (param $x f64) (result f64)
+    local.get $x
+    global.get $scale
+    f64.mul
+    global.get $offset
+    f64.add
+  )
+
+  (func $bump (result i32)
+    global.get $counter
+    i32.const 1
+    i32.add
+    global.set $counter
+    global.get $counter
+    global.get $base
+    i32.add
+  )
+)
@@ -0,0 +1,31 @@
+(module
+
+  (memory 1 2)
+  (global $counter (mut i32) (i32.const 0))
+
+  (data (i32.const 16) "\2a\00\00\00")
+
+  (export "counter" (global $counter))
+  (export "bump" (func $bump))
+  (export "read" (func $read))
+  (export "write" (func $write))
+
+  (func $bump (result i32)
+    global.get $counter
+    i32.const 1
+    i32.add
+    global.set $counter
+    global.get $counter
+  )
+
+  (func $read (param $addr i32) (result i32)
+    local.get $addr
+    i32.load
+  )
+
+  (func $write (param $addr i32) (param $value i32)
+    local.get $addr
+    local.get $value
+    i32.store
+  )
+)
@@ -0,0 +1,58 @@
+(module
+  (type $unary (func (param i32) (result i32)))
+  (table 8 funcref)
+  ;; Element 0 is left uninitialized, and element 6 has a different type
+  (elem (i32.const 1) $double $square $negate $inc $dec $wide)
+  (export "dispatch" (func $dispatch))
+  (export "twice" (func $twice))
+
+  (func $double (param $x i32) (result i32)
+    local.get $x
+    local.get $x
+    i32.add
+  )
+
+  (func $square (param $x i32) (result i32)
+    local.get $x
+    local.get $x
+    i32.mul
+  )
+
+  (func $negate (param $x i32) (result i32)
+    i32.const 0
+    local.get $x
+    i32.sub
+  )
+
+  (func $inc (param $x i32) (result i32)
+    local.get $x
+    i32.const 1
+    i32.add
+  )
+
+  (func $dec (param $x i32) (result i32)
+    local.get $x
+    i32.const 1
+    i32.sub
+  )
+
+  (func $wide (param $x i64) (result i64)
+    local.get $x
+    local.get $x
+    i64.mul
+  )
+
+  (func $dispatch (param $x i32) (param $index i32) (result i32)
+    local.get $x
+    local.get $index
+    call_indirect (type $unary)
+  )
+
+  (func $twice (param $x i32) (param $index i32) (result i32)
+    local.get $x
+    local.get $index
+    call_indirect (type $unary)
+    local.get $index
+    call_indirect (type $unary)
+  )
+)
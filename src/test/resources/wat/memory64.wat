@@ -0,0 +1,33 @@
+(module
+
+  (memory i64 1 4)
+
+  (data (i64.const 64) "\07\00\00\00")
+
+  (export "storeLoadI32" (func $storeLoadI32))
+  (export "loadI64" (func $loadI64))
+  (export "grow" (func $grow))
+  (export "size" (func $size))
+
+  (func $storeLoadI32 (param $addr i64) (param $value i32) (result i32)
+    local.get $addr
+    local.get $value
+    i32.store offset=8
+    local.get $addr
+    i32.load offset=8
+  )
+
+  (func $loadI64 (param $addr i64) (result i64)
+    local.get $addr
+    i64.load
+  )
+
+  (func $grow (param $delta i64) (result i64)
+    local.get $delta
+    memory.grow
+  )
+
+  (func $size (result i64)
+    memory.size
+  )
+)
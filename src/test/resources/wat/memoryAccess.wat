@@ -0,0 +1,80 @@
+(module
+
+  (memory 1 4)
+
+  (export "storeLoadI32" (func $storeLoadI32))
+  (export "load8U" (func $load8U))
+  (export "load8S" (func $load8S))
+  (export "store8" (func $store8))
+  (export "storeLoadI64" (func $storeLoadI64))
+  (export "load32U" (func $load32U))
+  (export "storeLoadF64" (func $storeLoadF64))
+  (export "grow" (func $grow))
+  (export "size" (func $size))
+  (export "growAndLoad" (func $growAndLoad))
+
+  (func $storeLoadI32 (param $addr i32) (param $value i32) (result i32)
+    local.get $addr
+    local.get $value
+    i32.store offset=4
+    local.get $addr
+    i32.load offset=4
+  )
+
+  (func $load8U (param $addr i32) (result i32)
+    local.get $addr
+    i32.load8_u
+  )
+
+  (func $load8S (param $addr i32) (result i32)
+    local.get $addr
+    i32.load8_s
+  )
+
+  (func $store8 (param $addr i32) (param $value i32)
+    local.get $addr
+    local.get $value
+    i32.store8
+  )
+
+  (func $storeLoadI64 (param $addr i32) (param $value i64) (result i64)
+    (local $tmp i64)
+    local.get $value
+    local.set $tmp
+    local.get $addr
+    local.get $tmp
+    i64.store
+    local.get $addr
+    i64.load
+  )
+
+  (func $load32U (param $addr i32) (result i64)
+    local.get $addr
+    i64.load32_u
+  )
+
+  (func $storeLoadF64 (param $value f64) (param $addr i32) (result f64)
+    local.get $addr
+    local.get $value
+    f64.store
+    local.get $addr
+    f64.load
+  )
+
+  (func $grow (param $delta i32) (result i32)
+    local.get $delta
+    memory.grow
+  )
+
+  (func $size (result i32)
+    memory.size
+  )
+
+  (func $growAndLoad (param $addr i32) (result i32)
+    i32.const 1
+    call $grow
+    drop
+    local.get $addr
+    i32.load
+  )
+)
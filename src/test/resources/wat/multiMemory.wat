@@ -0,0 +1,54 @@
+(module
+
+  (memory $scratch 1 1)
+  (memory $data 1 2)
+
+  (data (memory $data) (i32.const 8) "wasm")
+
+  (export "load0" (func $load0))
+  (export "load1" (func $load1))
+  (export "store1" (func $store1))
+  (export "size1" (func $size1))
+  (export "grow1" (func $grow1))
+  (export "copy1to0" (func $copy1to0))
+  (export "fill1" (func $fill1))
+
+  (func $load0 (param $addr i32) (result i32)
+    local.get $addr
+    i32.load $scratch
+  )
+
+  (func $load1 (param $addr i32) (result i32)
+    local.get $addr
+    i32.load $data
+  )
+
+  (func $store1 (param $addr i32) (param $value i32)
+    local.get $addr
+    local.get $value
+    i32.store $data
+  )
+
+  (func $size1 (result i32)
+    memory.size $data
+  )
+
+  (func $grow1 (param $delta i32) (result i32)
+    local.get $delta
+    memory.grow $data
+  )
+
+  (func $copy1to0 (param $dst i32) (param $src i32) (param $len i32)
+    local.get $dst
+    local.get $src
+    local.get $len
+    memory.copy $scratch $data
+  )
+
+  (func $fill1 (param $dst i32) (param $value i32) (param $len i32)
+    local.get $dst
+    local.get $value
+    local.get $len
+    memory.fill $data
+  )
+)
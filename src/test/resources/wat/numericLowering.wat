@@ -0,0 +1,183 @@
+(module
+
+  (export "i32_trunc_f32_s" (func $i32_trunc_f32_s))
+  (export "i32_trunc_f32_u" (func $i32_trunc_f32_u))
+  (export "i32_trunc_f64_s" (func $i32_trunc_f64_s))
+  (export "i32_trunc_f64_u" (func $i32_trunc_f64_u))
+  (export "i64_extend_i32_s" (func $i64_extend_i32_s))
+  (export "i64_extend_i32_u" (func $i64_extend_i32_u))
+  (export "i64_trunc_f32_s" (func $i64_trunc_f32_s))
+  (export "i64_trunc_f32_u" (func $i64_trunc_f32_u))
+  (export "i64_trunc_f64_s" (func $i64_trunc_f64_s))
+  (export "i64_trunc_f64_u" (func $i64_trunc_f64_u))
+  (export "f32_convert_i32_s" (func $f32_convert_i32_s))
+  (export "f32_convert_i32_u" (func $f32_convert_i32_u))
+  (export "f32_convert_i64_s" (func $f32_convert_i64_s))
+  (export "f32_convert_i64_u" (func $f32_convert_i64_u))
+  (export "f32_demote_f64" (func $f32_demote_f64))
+  (export "f64_convert_i32_s" (func $f64_convert_i32_s))
+  (export "f64_convert_i32_u" (func $f64_convert_i32_u))
+  (export "f64_convert_i64_s" (func $f64_convert_i64_s))
+  (export "f64_convert_i64_u" (func $f64_convert_i64_u))
+  (export "f64_promote_f32" (func $f64_promote_f32))
+  (export "i32_div_u" (func $i32_div_u))
+  (export "i32_rem_u" (func $i32_rem_u))
+  (export "i64_div_u" (func $i64_div_u))
+  (export "i64_rem_u" (func $i64_rem_u))
+  (export "select_i32" (func $select_i32))
+  (export "select_i64" (func $select_i64))
+  (export "select_f32" (func $select_f32))
+  (export "select_f64" (func $select_f64))
+
+  (func $i32_trunc_f32_s (param $a f32) (result i32)
+    local.get $a
+    i32.trunc_f32_s
+  )
+
+  (func $i32_trunc_f32_u (param $a f32) (result i32)
+    local.get $a
+    i32.trunc_f32_u
+  )
+
+  (func $i32_trunc_f64_s (param $a f64) (result i32)
+    local.get $a
+    i32.trunc_f64_s
+  )
+
+  (func $i32_trunc_f64_u (param $a f64) (result i32)
+    local.get $a
+    i32.trunc_f64_u
+  )
+
+  (func $i64_extend_i32_s (param $a i32) (result i64)
+    local.get $a
+    i64.extend_i32_s
+  )
+
+  (func $i64_extend_i32_u (param $a i32) (result i64)
+    local.get $a
+    i64.extend_i32_u
+  )
+
+  (func $i64_trunc_f32_s (param $a f32) (result i64)
+    local.get $a
+    i64.trunc_f32_s
+  )
+
+  (func $i64_trunc_f32_u (param $a f32) (result i64)
+    local.get $a
+    i64.trunc_f32_u
+  )
+
+  (func $i64_trunc_f64_s (param $a f64) (result i64)
+    local.get $a
+    i64.trunc_f64_s
+  )
+
+  (func $i64_trunc_f64_u (param $a f64) (result i64)
+    local.get $a
+    i64.trunc_f64_u
+  )
+
+  (func $f32_convert_i32_s (param $a i32) (result f32)
+    local.get $a
+    f32.convert_i32_s
+  )
+
+  (func $f32_convert_i32_u (param $a i32) (result f32)
+    local.get $a
+    f32.convert_i32_u
+  )
+
+  (func $f32_convert_i64_s (param $a i64) (result f32)
+    local.get $a
+    f32.convert_i64_s
+  )
+
+  (func $f32_convert_i64_u (param $a i64) (result f32)
+    local.get $a
+    f32.convert_i64_u
+  )
+
+  (func $f32_demote_f64 (param $a f64) (result f32)
+    local.get $a
+    f32.demote_f64
+  )
+
+  (func $f64_convert_i32_s (param $a i32) (result f64)
+    local.get $a
+    f64.convert_i32_s
+  )
+
+  (func $f64_convert_i32_u (param $a i32) (result f64)
+    local.get $a
+    f64.convert_i32_u
+  )
+
+  (func $f64_convert_i64_s (param $a i64) (result f64)
+    local.get $a
+    f64.convert_i64_s
+  )
+
+  (func $f64_convert_i64_u (param $a i64) (result f64)
+    local.get $a
+    f64.convert_i64_u
+  )
+
+  (func $f64_promote_f32 (param $a f32) (result f64)
+    local.get $a
+    f64.promote_f32
+  )
+
+  (func $i32_div_u (param $a i32) (param $b i32) (result i32)
+    local.get $a
+    local.get $b
+    i32.div_u
+  )
+
+  (func $i32_rem_u (param $a i32) (param $b i32) (result i32)
+    local.get $a
+    local.get $b
+    i32.rem_u
+  )
+
+  (func $i64_div_u (param $a i64) (param $b i64) (result i64)
+    local.get $a
+    local.get $b
+    i64.div_u
+  )
+
+  (func $i64_rem_u (param $a i64) (param $b i64) (result i64)
+    local.get $a
+    local.get $b
+    i64.rem_u
+  )
+
+  (func $select_i32 (param $a i32) (param $b i32) (param $c i32) (result i32)
+    local.get $a
+    local.get $b
+    local.get $c
+    select
+  )
+
+  (func $select_i64 (param $a i64) (param $b i64) (param $c i32) (result i64)
+    local.get $a
+    local.get $b
+    local.get $c
+    select
+  )
+
+  (func $select_f32 (param $a f32) (param $b f32) (param $c i32) (result f32)
+    local.get $a
+    local.get $b
+    local.get $c
+    select
+  )
+
+  (func $select_f64 (param $a f64) (param $b f64) (param $c i32) (result f64)
+    local.get $a
+    local.get $b
+    local.get $c
+    select
+  )
+)